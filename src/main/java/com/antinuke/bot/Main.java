@@ -5,10 +5,21 @@ import com.antinuke.bot.config.BotConfig;
 import com.antinuke.bot.database.JsonDatabase;
 import com.antinuke.bot.listeners.AntiNukeListener;
 import com.antinuke.bot.listeners.GuildEventListener;
+import com.antinuke.bot.listeners.SnapshotListener;
 import com.antinuke.bot.listeners.InteractionHandler;
+import com.antinuke.bot.monitoring.BotGuard;
 import com.antinuke.bot.monitoring.DualMonitoringSystem;
+import com.antinuke.bot.monitoring.PermissionGuard;
+import com.antinuke.bot.monitoring.RoleRemovalTracker;
+import com.antinuke.bot.monitoring.SpamDetectionEngine;
 import com.antinuke.bot.monitoring.ThreatDetectionSystem;
+import com.antinuke.bot.monitoring.WebhookGuard;
+import com.antinuke.bot.recovery.AssetStore;
+import com.antinuke.bot.recovery.ContainmentSystem;
 import com.antinuke.bot.recovery.FastRecoverySystem;
+import com.antinuke.bot.recovery.HotRecovery;
+import com.antinuke.bot.recovery.RequestPipeline;
+import com.antinuke.bot.recovery.SnapshotScheduler;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.OnlineStatus;
@@ -25,6 +36,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Main Bot Class - Advanced Discord Antinuke Bot
@@ -40,8 +53,15 @@ public class Main {
     private static JDA jda;
     private static JsonDatabase database;
     private static FastRecoverySystem recoverySystem;
+    private static AssetStore assetStore;
+    private static RequestPipeline requestPipeline;
+    private static SnapshotScheduler snapshotScheduler;
+    private static ContainmentSystem containmentSystem;
     private static ThreatDetectionSystem threatDetector;
     private static DualMonitoringSystem dualMonitoring;
+    private static SpamDetectionEngine spamEngine;
+    private static BotGuard botGuard;
+    private static RoleRemovalTracker roleRemovalTracker;
     
     public static void main(String[] args) {
         try {
@@ -75,14 +95,29 @@ public class Main {
             // Initialize Fast Recovery System
             BotConfig.FastRecoveryConfig recoveryConfig = config.getAntiNuke().getFastRecovery();
             logger.info("Initializing Fast Recovery System...");
+            assetStore = new AssetStore();
+            // One request scheduler for containment and recovery, so containment always goes first
+            requestPipeline = new RequestPipeline(recoveryConfig.getConcurrentOperations());
             recoverySystem = new FastRecoverySystem(
-                    recoveryConfig.getCacheSize(),
+                    database,
+                    recoveryConfig.getCacheMemoryMb() * 1024L * 1024L,
                     recoveryConfig.getConcurrentOperations(),
-                    recoveryConfig.getSnapshotInterval()
+                    recoveryConfig.getSnapshotInterval(),
+                    recoveryConfig.getOffHeapMemberThreshold(),
+                    assetStore,
+                    // Critical roles and channels are sent as pre-built requests, straight to the REST API
+                    new HotRecovery(database, config.getToken()),
+                    requestPipeline
             );
             logger.info("✓ Fast Recovery System initialized with {} concurrent operations", 
                     recoveryConfig.getConcurrentOperations());
             
+            // Load persisted snapshots in the background while the gateway connects
+            CompletableFuture<Set<String>> warmStart = recoverySystem.warmStart();
+            
+            // Initialize Containment System (permission freeze)
+            containmentSystem = new ContainmentSystem(database, recoveryConfig.getConcurrentOperations(), requestPipeline);
+            
             // Build JDA with all necessary intents
             logger.info("Building JDA instance...");
             jda = JDABuilder.createDefault(config.getToken())
@@ -97,7 +132,7 @@ public class Main {
                     )
                     .setMemberCachePolicy(MemberCachePolicy.ALL)
                     .setChunkingFilter(ChunkingFilter.ALL)
-                    .enableCache(CacheFlag.ROLE_TAGS, CacheFlag.MEMBER_OVERRIDES)
+                    .enableCache(CacheFlag.ROLE_TAGS, CacheFlag.MEMBER_OVERRIDES, CacheFlag.EMOJI, CacheFlag.STICKER)
                     .setStatus(OnlineStatus.ONLINE)
                     .setActivity(Activity.watching("for threats | Dual Monitoring Active"))
                     .build();
@@ -108,7 +143,7 @@ public class Main {
             
             // Initialize Threat Detection System
             logger.info("Initializing Threat Detection System...");
-            threatDetector = new ThreatDetectionSystem(config, jda, database, recoverySystem);
+            threatDetector = new ThreatDetectionSystem(config, jda, database, recoverySystem, containmentSystem);
             logger.info("✓ Threat Detection System initialized");
             
             // Initialize Dual Monitoring System
@@ -119,10 +154,18 @@ public class Main {
             
             // Register event listeners
             logger.info("Registering event listeners...");
-            jda.addEventListener(new AntiNukeListener(config, database, threatDetector, recoverySystem));
-            jda.addEventListener(new CommandHandler(config, database, recoverySystem));
+            PermissionGuard permissionGuard = new PermissionGuard(threatDetector, recoverySystem);
+            spamEngine = new SpamDetectionEngine(jda, database, threatDetector);
+            WebhookGuard webhookGuard = new WebhookGuard(database, threatDetector, recoverySystem, dualMonitoring);
+            botGuard = new BotGuard(database, threatDetector);
+            roleRemovalTracker = new RoleRemovalTracker(threatDetector);
+            jda.addEventListener(new AntiNukeListener(config, database, threatDetector, recoverySystem,
+                    permissionGuard, containmentSystem, spamEngine, webhookGuard, botGuard, roleRemovalTracker));
+            snapshotScheduler = new SnapshotScheduler(jda, recoverySystem, recoveryConfig.getSnapshotInterval(), 2);
+            jda.addEventListener(new CommandHandler(config, database, recoverySystem, containmentSystem, snapshotScheduler));
             jda.addEventListener(new InteractionHandler(config, database, recoverySystem));
-            jda.addEventListener(new GuildEventListener(database, recoverySystem));
+            jda.addEventListener(new GuildEventListener(database, recoverySystem, snapshotScheduler));
+            jda.addEventListener(new SnapshotListener(recoverySystem));
             logger.info("✓ Event listeners registered");
             
             // Register slash commands
@@ -130,12 +173,19 @@ public class Main {
             registerCommands();
             logger.info("✓ Slash commands registered");
             
-            // Create initial snapshots for all guilds
+            // Create initial snapshots for all guilds; warm-loaded ones wait for their scheduled re-verify
             logger.info("Creating initial snapshots...");
+            Set<String> warmed = warmStart.join();
             for (Guild guild : jda.getGuilds()) {
+                if (recoveryConfig.isEnabled() && warmed.contains(guild.getId())) {
+                    recoverySystem.resumeSnapshot(guild);
+                    snapshotScheduler.schedule(guild, true);
+                    logger.info("✓ Snapshot loaded for guild: {}", guild.getName());
+                    continue;
+                }
                 recoverySystem.createSnapshot(guild);
                 if (recoveryConfig.isEnabled()) {
-                    recoverySystem.scheduleSnapshots(guild, recoveryConfig.getSnapshotInterval());
+                    snapshotScheduler.schedule(guild);
                 }
                 logger.info("✓ Snapshot created for guild: {}", guild.getName());
             }
@@ -174,10 +224,11 @@ public class Main {
                                         .addChoice("Add", "add")
                                         .addChoice("Remove", "remove")
                                         .addChoice("View", "view"),
-                                new OptionData(OptionType.STRING, "type", "User or role", false)
+                                new OptionData(OptionType.STRING, "type", "User, role or bot", false)
                                         .addChoice("User", "user")
-                                        .addChoice("Role", "role"),
-                                new OptionData(OptionType.STRING, "id", "User or role ID", false)
+                                        .addChoice("Role", "role")
+                                        .addChoice("Bot", "bot"),
+                                new OptionData(OptionType.STRING, "id", "User, role or bot ID", false)
                         ),
                 
                 Commands.slash("snapshot", "Create a server snapshot for fast recovery"),
@@ -188,6 +239,34 @@ public class Main {
                                         .addChoice("Full Server", "full")
                                         .addChoice("Roles", "roles")
                                         .addChoice("Channels", "channels")
+                                        .addChoice("Dry Run (estimate only)", "dryrun"),
+                                new OptionData(OptionType.INTEGER, "minutes_ago", "Restore the server as it was this many minutes ago", false)
+                                        .setMinValue(1)
+                        ),
+                
+                Commands.slash("freeze", "Emergency permission freeze for the whole server")
+                        .addOptions(
+                                new OptionData(OptionType.STRING, "action", "Freeze or restore permissions", true)
+                                        .addChoice("Freeze", "freeze")
+                                        .addChoice("Restore", "restore")
+                                        .addChoice("Status", "status")
+                        ),
+                
+                Commands.slash("lockdown", "Lock all text channels for @everyone")
+                        .addOptions(
+                                new OptionData(OptionType.STRING, "action", "Lock, unlock or show progress", true)
+                                        .addChoice("Lock", "lock")
+                                        .addChoice("Unlock", "unlock")
+                                        .addChoice("Status", "status")
+                        ),
+                
+                Commands.slash("critical", "Roles and channels restored first, from pre-built requests")
+                        .addOptions(
+                                new OptionData(OptionType.STRING, "action", "Action to perform", true)
+                                        .addChoice("Add", "add")
+                                        .addChoice("Remove", "remove")
+                                        .addChoice("View", "view"),
+                                new OptionData(OptionType.STRING, "id", "Role or channel ID", false)
                         )
         ).queue(
                 success -> logger.info("Slash commands registered successfully"),
@@ -200,15 +279,33 @@ public class Main {
             if (database != null) {
                 database.shutdown();
             }
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+            }
             if (recoverySystem != null) {
                 recoverySystem.shutdown();
             }
+            if (requestPipeline != null) {
+                requestPipeline.shutdown();
+            }
+            if (assetStore != null) {
+                assetStore.shutdown();
+            }
             if (dualMonitoring != null) {
                 dualMonitoring.shutdown();
             }
             if (threatDetector != null) {
                 threatDetector.shutdown();
             }
+            if (spamEngine != null) {
+                spamEngine.shutdown();
+            }
+            if (botGuard != null) {
+                botGuard.shutdown();
+            }
+            if (roleRemovalTracker != null) {
+                roleRemovalTracker.shutdown();
+            }
             if (jda != null) {
                 jda.shutdown();
             }
@@ -230,6 +327,10 @@ public class Main {
         return recoverySystem;
     }
     
+    public static ContainmentSystem getContainmentSystem() {
+        return containmentSystem;
+    }
+    
     public static ThreatDetectionSystem getThreatDetector() {
         return threatDetector;
     }
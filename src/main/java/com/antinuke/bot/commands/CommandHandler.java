@@ -2,9 +2,18 @@ package com.antinuke.bot.commands;
 
 import com.antinuke.bot.config.BotConfig;
 import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.recovery.ContainmentSystem;
 import com.antinuke.bot.recovery.FastRecoverySystem;
+import com.antinuke.bot.recovery.HotRecovery;
+import com.antinuke.bot.recovery.RecoveryEstimate;
+import com.antinuke.bot.recovery.RecoveryProgress;
+import com.antinuke.bot.recovery.RequestBatch;
+import com.antinuke.bot.recovery.SnapshotDiff;
+import com.antinuke.bot.recovery.SnapshotScheduler;
 import com.antinuke.bot.ui.InteractiveUI;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
@@ -12,6 +21,13 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 /**
  * Command Handler - Handles both slash commands and prefix commands
  */
@@ -21,11 +37,16 @@ public class CommandHandler extends ListenerAdapter {
     private final BotConfig config;
     private final JsonDatabase database;
     private final FastRecoverySystem recoverySystem;
+    private final ContainmentSystem containmentSystem;
+    private final SnapshotScheduler snapshotScheduler;
     
-    public CommandHandler(BotConfig config, JsonDatabase database, FastRecoverySystem recoverySystem) {
+    public CommandHandler(BotConfig config, JsonDatabase database, FastRecoverySystem recoverySystem,
+                          ContainmentSystem containmentSystem, SnapshotScheduler snapshotScheduler) {
         this.config = config;
         this.database = database;
         this.recoverySystem = recoverySystem;
+        this.containmentSystem = containmentSystem;
+        this.snapshotScheduler = snapshotScheduler;
     }
     
     @Override
@@ -54,6 +75,15 @@ public class CommandHandler extends ListenerAdapter {
             case "recover":
                 handleRecoverCommand(event);
                 break;
+            case "freeze":
+                handleFreezeCommand(event);
+                break;
+            case "lockdown":
+                handleLockdownCommand(event);
+                break;
+            case "critical":
+                handleCriticalCommand(event);
+                break;
         }
     }
     
@@ -90,7 +120,7 @@ public class CommandHandler extends ListenerAdapter {
                 
             case "whitelist":
                 if (args.length < 3) {
-                    event.getChannel().sendMessage("Usage: `" + prefix + "whitelist <add|remove> <user|role> <@mention|ID>`").queue();
+                    event.getChannel().sendMessage("Usage: `" + prefix + "whitelist <add|remove> <user|role|bot> <@mention|ID>`").queue();
                     return;
                 }
                 handlePrefixWhitelist(event, args);
@@ -103,12 +133,45 @@ public class CommandHandler extends ListenerAdapter {
                 
             case "recover":
                 if (args.length < 2) {
-                    event.getChannel().sendMessage("Usage: `" + prefix + "recover <full|roles|channels>`").queue();
+                    event.getChannel().sendMessage("Usage: `" + prefix + "recover <full|roles|channels|dryrun> [minutes ago]`").queue();
                     return;
                 }
                 handlePrefixRecover(event, args);
                 break;
                 
+            case "freeze":
+                event.getChannel().sendMessage("🧊 Freezing dangerous permissions on all roles...").queue();
+                containmentSystem.freezePermissions(event.getGuild(), "Manual freeze by " + event.getAuthor().getName())
+                        .thenAccept(result -> event.getChannel().sendMessage("🧊 " + result.message).queue());
+                break;
+                
+            case "unfreeze":
+                containmentSystem.unfreezePermissions(event.getGuild())
+                        .thenAccept(result -> event.getChannel().sendMessage(
+                                (result.success ? "✅ " : "❌ ") + result.message).queue());
+                break;
+                
+            case "lockdown":
+                event.getChannel().sendMessage("🔒 Locking down all text channels...").queue();
+                containmentSystem.lockdown(event.getGuild(), "Manual lockdown by " + event.getAuthor().getName())
+                        .thenAccept(result -> event.getChannel().sendMessage("🔒 " + result.message).queue());
+                break;
+                
+            case "unlock":
+                containmentSystem.liftLockdown(event.getGuild())
+                        .thenAccept(result -> event.getChannel().sendMessage(
+                                (result.success ? "✅ " : "❌ ") + result.message).queue());
+                break;
+                
+            case "critical":
+                if (args.length < 2) {
+                    event.getChannel().sendMessage("Usage: `" + prefix + "critical <add|remove|view> [@role|#channel|ID]`").queue();
+                    return;
+                }
+                String id = args.length >= 3 ? args[2].replaceAll("[^0-9]", "") : null;
+                event.getChannel().sendMessage(updateCritical(event.getGuild(), args[1].toLowerCase(), id)).queue();
+                break;
+                
             case "help":
                 sendHelpMessage(event);
                 break;
@@ -216,6 +279,9 @@ public class CommandHandler extends ListenerAdapter {
             if (type.equals("user")) {
                 guildData.getWhitelistedUsers().add(id);
                 event.reply("✅ Added user to whitelist: <@" + id + ">").setEphemeral(true).queue();
+            } else if (type.equals("bot")) {
+                guildData.getAllowedBots().add(id);
+                event.reply("✅ Added bot to allowed bots: <@" + id + ">").setEphemeral(true).queue();
             } else {
                 guildData.getWhitelistedRoles().add(id);
                 event.reply("✅ Added role to whitelist: <@&" + id + ">").setEphemeral(true).queue();
@@ -224,6 +290,9 @@ public class CommandHandler extends ListenerAdapter {
             if (type.equals("user")) {
                 guildData.getWhitelistedUsers().remove(id);
                 event.reply("✅ Removed user from whitelist: <@" + id + ">").setEphemeral(true).queue();
+            } else if (type.equals("bot")) {
+                guildData.getAllowedBots().remove(id);
+                event.reply("✅ Removed bot from allowed bots: <@" + id + ">").setEphemeral(true).queue();
             } else {
                 guildData.getWhitelistedRoles().remove(id);
                 event.reply("✅ Removed role from whitelist: <@&" + id + ">").setEphemeral(true).queue();
@@ -236,7 +305,51 @@ public class CommandHandler extends ListenerAdapter {
     private void handleSnapshotCommand(SlashCommandInteractionEvent event) {
         event.deferReply(true).queue();
         recoverySystem.createSnapshot(event.getGuild());
-        event.getHook().sendMessage("📸 Server snapshot created successfully! All server state has been cached for instant recovery.").queue();
+        event.getHook().sendMessage("📸 Server snapshot created successfully! All server state has been cached for instant recovery.\n"
+                + formatSnapshotSchedule(event.getGuild().getIdLong()) + "\n"
+                + formatSnapshotHistory(event.getGuild().getId()) + "\n"
+                + formatIntegrityCheck(event.getGuild().getId()) + "\n"
+                + formatSnapshotCache(event.getGuild().getId())).queue();
+    }
+    
+    private String formatSnapshotSchedule(long guildId) {
+        SnapshotScheduler.SnapshotTask task = snapshotScheduler.getTask(guildId);
+        if (task == null) {
+            return "⏱️ Periodic snapshots are not scheduled for this server.";
+        }
+        return String.format("⏱️ Integrity checks every %ds - last run %s, started %dms late, took %dms",
+                task.getPeriodMillis() / 1000,
+                task.getLastRunAt() > 0 ? "<t:" + task.getLastRunAt() / 1000 + ":R>" : "pending",
+                task.getLastLagMillis(),
+                task.getLastDurationMillis());
+    }
+    
+    private String formatSnapshotHistory(String guildId) {
+        long start = recoverySystem.getHistoryStart(guildId);
+        if (start == 0) {
+            return "🕰️ No snapshot history recorded yet.";
+        }
+        return String.format("🕰️ History: %d versions back to <t:%d:f>", recoverySystem.getHistoryVersions(guildId), start / 1000);
+    }
+    
+    private String formatSnapshotCache(String guildId) {
+        CacheStats stats = recoverySystem.getCacheStats();
+        return String.format("💾 Snapshot: ~%d KB in memory - cache %d/%d MB across %d servers, %.0f%% hits, %d evicted to disk",
+                recoverySystem.getSnapshotBytes(guildId) / 1024,
+                recoverySystem.getCacheBytes() / (1024 * 1024),
+                recoverySystem.getCacheMaxBytes() / (1024 * 1024),
+                recoverySystem.getCachedSnapshotCount(),
+                stats.hitRate() * 100,
+                recoverySystem.getSpilledSnapshots());
+    }
+    
+    private String formatIntegrityCheck(String guildId) {
+        SnapshotDiff diff = recoverySystem.getLastIntegrityCheck(guildId);
+        if (diff == null) {
+            return "🧮 No integrity check has run yet.";
+        }
+        return String.format("🧮 Last integrity check <t:%d:R>: %s", diff.getCreatedAt() / 1000,
+                diff.isEmpty() ? "snapshot in sync" : diff.summarize());
     }
     
     private void handleRecoverCommand(SlashCommandInteractionEvent event) {
@@ -244,10 +357,24 @@ public class CommandHandler extends ListenerAdapter {
         
         event.deferReply(true).queue();
         
-        if (type.equals("full")) {
-            event.getHook().sendMessage("🔄 Starting full server recovery...").queue();
-            recoverySystem.fullServerRecovery(event.getGuild()).thenAccept(result -> {
-                event.getHook().sendMessage(String.format(
+        if (type.equals("dryrun")) {
+            Long minutesAgo = event.getOption("minutes_ago") != null ? event.getOption("minutes_ago").getAsLong() : null;
+            dryRun(event.getGuild(), minutesAgo).thenAccept(text -> event.getHook().editOriginal(text).queue());
+        } else if (type.equals("full") && event.getOption("minutes_ago") != null) {
+            long minutesAgo = event.getOption("minutes_ago").getAsLong();
+            long asOf = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutesAgo);
+            event.getHook().editOriginal("🔄 Restoring the server as of <t:" + asOf / 1000 + ":f>...").queue();
+            RecoveryProgress progress = watchProgress("as-of:" + event.getGuild().getId(),
+                    text -> event.getHook().editOriginal(text).queue());
+            recoverySystem.recoverAsOf(event.getGuild(), asOf, progress).thenAccept(result -> {
+                event.getHook().editOriginal(formatAsOfResult(result, event.getGuild().getId())).queue();
+            });
+        } else if (type.equals("full")) {
+            event.getHook().editOriginal("🔄 Starting full server recovery...").queue();
+            RecoveryProgress progress = watchProgress("full:" + event.getGuild().getId(),
+                    text -> event.getHook().editOriginal(text).queue());
+            recoverySystem.fullServerRecovery(event.getGuild(), progress).thenAccept(result -> {
+                event.getHook().editOriginal(String.format(
                         "✅ Full recovery completed!\n" +
                         "**Items Recovered:** %d\n" +
                         "**Status:** %s",
@@ -258,6 +385,118 @@ public class CommandHandler extends ListenerAdapter {
         }
     }
     
+    private void handleFreezeCommand(SlashCommandInteractionEvent event) {
+        String action = event.getOption("action") != null ? event.getOption("action").getAsString() : "status";
+        
+        switch (action) {
+            case "freeze":
+                event.deferReply(true).queue();
+                containmentSystem.freezePermissions(event.getGuild(), "Manual freeze by " + event.getUser().getName())
+                        .thenAccept(result -> event.getHook().sendMessage("🧊 **Permission freeze active**\n" + result.message).queue());
+                break;
+                
+            case "restore":
+                event.deferReply(true).queue();
+                containmentSystem.unfreezePermissions(event.getGuild())
+                        .thenAccept(result -> event.getHook().sendMessage(
+                                (result.success ? "✅ " : "❌ ") + result.message).queue());
+                break;
+                
+            default:
+                int frozenRoles = database.getGuildData(event.getGuild().getId()).getFrozenPermissions().size();
+                event.reply(frozenRoles > 0
+                        ? "🧊 Permissions are frozen on **" + frozenRoles + "** roles. Use `/freeze restore` to lift the freeze."
+                        : "✅ Permissions are not frozen.").setEphemeral(true).queue();
+        }
+    }
+    
+    private void handleLockdownCommand(SlashCommandInteractionEvent event) {
+        String action = event.getOption("action") != null ? event.getOption("action").getAsString() : "status";
+        
+        switch (action) {
+            case "lock":
+                event.deferReply(true).queue();
+                containmentSystem.lockdown(event.getGuild(), "Manual lockdown by " + event.getUser().getName())
+                        .thenAccept(result -> event.getHook().sendMessage("🔒 **Lockdown active**\n" + result.message).queue());
+                break;
+                
+            case "unlock":
+                event.deferReply(true).queue();
+                containmentSystem.liftLockdown(event.getGuild())
+                        .thenAccept(result -> event.getHook().sendMessage(
+                                (result.success ? "✅ " : "❌ ") + result.message).queue());
+                break;
+                
+            default:
+                RequestBatch progress = containmentSystem.getLockdownProgress(event.getGuild().getId());
+                String state = containmentSystem.isLockedDown(event.getGuild().getId()) ? "🔒 Locked down" : "✅ Not locked down";
+                if (progress == null) {
+                    event.reply(state).setEphemeral(true).queue();
+                    return;
+                }
+                event.reply(String.format(
+                        "%s\n" +
+                        "**Last Operation:** %s\n" +
+                        "**Progress:** %d/%d channels (%d failed)\n" +
+                        "**%s:** %.2f s",
+                        state,
+                        progress.getName().startsWith("lockdown") ? "Lockdown" : "Unlock",
+                        progress.getCompleted(), progress.getTotal(), progress.getFailed(),
+                        progress.isFinished() ? "Completed In" : "Elapsed",
+                        progress.getElapsedMillis() / 1000.0
+                )).setEphemeral(true).queue();
+        }
+    }
+    
+    private void handleCriticalCommand(SlashCommandInteractionEvent event) {
+        String action = event.getOption("action") != null ? event.getOption("action").getAsString() : "view";
+        String id = event.getOption("id") != null ? event.getOption("id").getAsString().replaceAll("[^0-9]", "") : null;
+        event.reply(updateCritical(event.getGuild(), action, id)).setEphemeral(true).queue();
+    }
+    
+    // Mark or unmark a critical role or channel and rebuild its pre-built request
+    private String updateCritical(Guild guild, String action, String id) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Set<String> critical = guildData.getCriticalIds();
+        if (!action.equals("view")) {
+            if (id == null || id.isEmpty()) {
+                return "❌ Please specify a role or channel ID";
+            }
+            if (action.equals("add")) {
+                if (guild.getRoleById(id) == null && guild.getGuildChannelById(id) == null) {
+                    return "❌ No role or channel with ID " + id;
+                }
+                if (!critical.contains(id) && critical.size() >= HotRecovery.MAX_CRITICAL_OBJECTS) {
+                    return "❌ At most " + HotRecovery.MAX_CRITICAL_OBJECTS + " objects can be critical";
+                }
+                critical.add(id);
+            } else if (action.equals("remove")) {
+                critical.remove(id);
+            }
+            database.saveGuildData(guild.getId(), guildData);
+            recoverySystem.restageCritical(guild);
+        }
+        return formatCritical(guild, critical);
+    }
+    
+    private String formatCritical(Guild guild, Set<String> critical) {
+        if (critical.isEmpty()) {
+            return "🛡️ No critical roles or channels. Add one with `critical add <ID>`.";
+        }
+        Map<String, HotRecovery.StagedRequest> staged = new HashMap<>();
+        recoverySystem.getStagedCritical(guild.getId()).forEach(request -> staged.put(request.getId(), request));
+        
+        StringBuilder text = new StringBuilder("🛡️ **Critical objects** (restored first, before bulk recovery)");
+        for (String id : critical) {
+            HotRecovery.StagedRequest request = staged.get(id);
+            String mention = guild.getRoleById(id) != null ? "<@&" + id + ">" : "<#" + id + ">";
+            text.append("\n• ").append(mention).append(request != null
+                    ? String.format(" - request ready (%d bytes, built <t:%d:R>)", request.getBodyBytes(), request.getStagedAt() / 1000)
+                    : " - not staged yet (waiting for a snapshot)");
+        }
+        return text.toString();
+    }
+    
     private void handlePrefixWhitelist(MessageReceivedEvent event, String[] args) {
         String guildId = event.getGuild().getId();
         JsonDatabase.GuildData guildData = database.getGuildData(guildId);
@@ -278,6 +517,9 @@ public class CommandHandler extends ListenerAdapter {
             } else if (type.equals("role")) {
                 guildData.getWhitelistedRoles().add(id);
                 event.getChannel().sendMessage("✅ Added role to whitelist: <@&" + id + ">").queue();
+            } else if (type.equals("bot")) {
+                guildData.getAllowedBots().add(id);
+                event.getChannel().sendMessage("✅ Added bot to allowed bots: <@" + id + ">").queue();
             }
         } else if (action.equals("remove")) {
             if (type.equals("user")) {
@@ -286,6 +528,9 @@ public class CommandHandler extends ListenerAdapter {
             } else if (type.equals("role")) {
                 guildData.getWhitelistedRoles().remove(id);
                 event.getChannel().sendMessage("✅ Removed role from whitelist: <@&" + id + ">").queue();
+            } else if (type.equals("bot")) {
+                guildData.getAllowedBots().remove(id);
+                event.getChannel().sendMessage("✅ Removed bot from allowed bots: <@" + id + ">").queue();
             }
         }
         
@@ -295,8 +540,31 @@ public class CommandHandler extends ListenerAdapter {
     private void handlePrefixRecover(MessageReceivedEvent event, String[] args) {
         String type = args[1].toLowerCase();
         
-        if (type.equals("full")) {
-            event.getChannel().sendMessage("🔄 Starting full server recovery...").queue();
+        if (type.equals("dryrun")) {
+            Long minutesAgo = null;
+            if (args.length >= 3) {
+                try {
+                    minutesAgo = Long.parseLong(args[2]);
+                } catch (NumberFormatException e) {
+                    event.getChannel().sendMessage("❌ Usage: `" + config.getPrefix() + "recover dryrun [minutes ago]`").queue();
+                    return;
+                }
+            }
+            dryRun(event.getGuild(), minutesAgo).thenAccept(text -> event.getChannel().sendMessage(text).queue());
+        } else if (type.equals("full") && args.length >= 3) {
+            long minutesAgo;
+            try {
+                minutesAgo = Long.parseLong(args[2]);
+            } catch (NumberFormatException e) {
+                event.getChannel().sendMessage("❌ Usage: `" + config.getPrefix() + "recover full [minutes ago]`").queue();
+                return;
+            }
+            // Channel messages share the bot's REST budget with recovery, so a prefix run only reports its result
+            long asOf = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutesAgo);
+            recoverySystem.recoverAsOf(event.getGuild(), asOf).thenAccept(result -> {
+                event.getChannel().sendMessage(formatAsOfResult(result, event.getGuild().getId())).queue();
+            });
+        } else if (type.equals("full")) {
             recoverySystem.fullServerRecovery(event.getGuild()).thenAccept(result -> {
                 event.getChannel().sendMessage(String.format(
                         "✅ Full recovery completed!\n" +
@@ -309,6 +577,56 @@ public class CommandHandler extends ListenerAdapter {
         }
     }
     
+    /**
+     * Progress model that edits an interaction reply at most every 2 seconds. The edits go
+     * through the interaction webhook, not the bot's own REST budget, and are queued straight
+     * on JDA, so they take no in-flight slots or lane priority from recovery requests.
+     */
+    private RecoveryProgress watchProgress(String name, Consumer<String> edit) {
+        return new RecoveryProgress(name).watch(progress ->
+                edit.accept("🔄 **Recovery in progress**\n" + progress.describe()));
+    }
+    
+    // Plan a full recovery, optionally to an earlier time, and report its cost without sending anything
+    // Planning diffs the whole snapshot, so it runs off the event thread like a real recovery
+    private CompletableFuture<String> dryRun(Guild guild, Long minutesAgo) {
+        return CompletableFuture.supplyAsync(() -> formatDryRun(guild, minutesAgo))
+                .exceptionally(error -> {
+                    logger.error("Dry run failed for guild: {}", guild.getId(), error);
+                    return "❌ Dry run failed: " + error.getMessage();
+                });
+    }
+    
+    private String formatDryRun(Guild guild, Long minutesAgo) {
+        RecoveryEstimate estimate;
+        if (minutesAgo != null) {
+            long asOf = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutesAgo);
+            estimate = recoverySystem.dryRunAsOf(guild, asOf);
+            if (estimate == null) {
+                return "❌ Snapshot history does not reach back that far\n" + formatSnapshotHistory(guild.getId());
+            }
+        } else {
+            estimate = recoverySystem.dryRun(guild);
+            if (estimate == null) {
+                return "❌ No snapshot available";
+            }
+        }
+        return "🧮 **Recovery dry run** (nothing was sent)\n" + estimate.describe();
+    }
+    
+    private String formatAsOfResult(FastRecoverySystem.RecoveryResult result, String guildId) {
+        if (!result.success) {
+            return "❌ " + result.message + "\n" + formatSnapshotHistory(guildId);
+        }
+        return String.format(
+                "✅ Point-in-time recovery completed!\n" +
+                "**Items Recovered:** %d\n" +
+                "**Status:** %s",
+                result.itemsRecovered,
+                result.message
+        );
+    }
+    
     private void handlePrefixSetup(MessageReceivedEvent event) {
         long startTime = System.currentTimeMillis();
         String guildId = event.getGuild().getId();
@@ -394,10 +712,19 @@ public class CommandHandler extends ListenerAdapter {
                 "`" + prefix + "whitelist add user @user` - Add user to whitelist\n" +
                 "`" + prefix + "whitelist add role @role` - Add role to whitelist\n" +
                 "`" + prefix + "whitelist remove user @user` - Remove user from whitelist\n" +
+                "`" + prefix + "whitelist add bot <ID>` - Allow a bot to join\n" +
                 "`" + prefix + "whitelist remove role @role` - Remove role from whitelist\n\n" +
                 "**Recovery**\n" +
                 "`" + prefix + "snapshot` - Create server snapshot\n" +
-                "`" + prefix + "recover full` - Full server recovery\n\n" +
+                "`" + prefix + "recover full` - Full server recovery\n" +
+                "`" + prefix + "recover full <minutes>` - Restore the server as it was that many minutes ago\n" +
+                "`" + prefix + "recover dryrun` - Estimate requests and duration without sending anything\n" +
+                "`" + prefix + "critical <add|remove|view> [ID]` - Roles and channels restored first\n\n" +
+                "**Containment**\n" +
+                "`" + prefix + "freeze` - Strip dangerous permissions from all roles\n" +
+                "`" + prefix + "unfreeze` - Restore the original role permissions\n" +
+                "`" + prefix + "lockdown` - Lock all text channels for @everyone\n" +
+                "`" + prefix + "unlock` - Restore the channel overwrites from before the lockdown\n\n" +
                 "**Info**\n" +
                 "`" + prefix + "help` - Show this message\n\n" +
                 "**Features:**\n" +
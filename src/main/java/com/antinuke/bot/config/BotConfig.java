@@ -1,5 +1,6 @@
 package com.antinuke.bot.config;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
@@ -51,8 +52,9 @@ public class BotConfig {
         FastRecoveryConfig fastRecovery = new FastRecoveryConfig();
         fastRecovery.setEnabled(true);
         fastRecovery.setConcurrentOperations(10);
-        fastRecovery.setCacheSize(10000);
+        fastRecovery.setCacheMemoryMb(256);
         fastRecovery.setSnapshotInterval(60);
+        fastRecovery.setOffHeapMemberThreshold(250000);
         antiNuke.setFastRecovery(fastRecovery);
         
         ProtectionsConfig protections = new ProtectionsConfig();
@@ -156,11 +158,14 @@ public class BotConfig {
         public void setThresholds(ThresholdsConfig thresholds) { this.thresholds = thresholds; }
     }
 
+    // Configs written before the cache was sized in memory still carry cacheSize
+    @JsonIgnoreProperties({"cacheSize"})
     public static class FastRecoveryConfig {
         private boolean enabled;
         private int concurrentOperations;
-        private int cacheSize;
+        private int cacheMemoryMb;
         private int snapshotInterval;
+        private int offHeapMemberThreshold;
 
         public boolean isEnabled() { return enabled; }
         public void setEnabled(boolean enabled) { this.enabled = enabled; }
@@ -168,11 +173,14 @@ public class BotConfig {
         public int getConcurrentOperations() { return concurrentOperations; }
         public void setConcurrentOperations(int concurrentOperations) { this.concurrentOperations = concurrentOperations; }
         
-        public int getCacheSize() { return cacheSize; }
-        public void setCacheSize(int cacheSize) { this.cacheSize = cacheSize; }
+        public int getCacheMemoryMb() { return cacheMemoryMb > 0 ? cacheMemoryMb : 256; }
+        public void setCacheMemoryMb(int cacheMemoryMb) { this.cacheMemoryMb = cacheMemoryMb; }
         
         public int getSnapshotInterval() { return snapshotInterval; }
         public void setSnapshotInterval(int snapshotInterval) { this.snapshotInterval = snapshotInterval; }
+        
+        public int getOffHeapMemberThreshold() { return offHeapMemberThreshold; }
+        public void setOffHeapMemberThreshold(int offHeapMemberThreshold) { this.offHeapMemberThreshold = offHeapMemberThreshold; }
     }
 
     public static class ProtectionsConfig {
@@ -163,12 +163,21 @@ public class JsonDatabase {
         private boolean setupComplete = false;
         private List<String> whitelistedUsers = new ArrayList<>();
         private List<String> whitelistedRoles = new ArrayList<>();
+        private Set<String> allowedBots = new HashSet<>();
         private String punishmentType = "BAN";
         private String logChannelId = "";
         private String logCategoryId = "";
         private String bypassRoleId = "";
         private Map<String, Boolean> protections = new HashMap<>();
         private Map<String, Integer> thresholds = new HashMap<>();
+        // Written from request callback threads while a freeze or unfreeze is running
+        private Map<String, Long> frozenPermissions = new ConcurrentHashMap<>();
+        private Map<String, OverwriteBackup> lockdownOverwrites = new HashMap<>();
+        // Set even when a lockdown found every channel already locked, so it is not run again
+        private boolean lockedDown = false;
+        // Roles and channels restored from pre-built requests before bulk recovery; promoted from
+        // request callback threads while staging and commands iterate it
+        private Set<String> criticalIds = ConcurrentHashMap.newKeySet();
         private long lastSnapshot = 0;
         private int totalThreatsBlocked = 0;
         private int totalRecoveries = 0;
@@ -191,6 +200,13 @@ public class JsonDatabase {
             protections.put("antiBot", true);
             protections.put("antiRaid", true);
             protections.put("antiSpam", true);
+            protections.put("antiEmoji", true);
+            protections.put("antiSticker", true);
+            protections.put("antiServerUpdate", true);
+            protections.put("antiPrune", true);
+            protections.put("antiRoleRemoval", true);
+            protections.put("antiPermissionEscalation", true);
+            protections.put("raidLockdown", true);
             
             thresholds.put("ban", 3);
             thresholds.put("kick", 3);
@@ -200,6 +216,15 @@ public class JsonDatabase {
             thresholds.put("roleCreate", 3);
             thresholds.put("webhook", 2);
             thresholds.put("raid", 10);
+            thresholds.put("freezeOffenders", 3);
+            thresholds.put("spamMessages", 6);
+            thresholds.put("spamDuplicates", 3);
+            thresholds.put("spamMentions", 8);
+            thresholds.put("spamLinks", 4);
+            thresholds.put("spamChannelMessages", 40);
+            thresholds.put("webhookMessages", 10);
+            thresholds.put("pruneMembers", 10);
+            thresholds.put("roleRemovals", 10);
         }
         
         // Getters and Setters
@@ -236,6 +261,24 @@ public class JsonDatabase {
         public Map<String, Integer> getThresholds() { return thresholds; }
         public void setThresholds(Map<String, Integer> thresholds) { this.thresholds = thresholds; }
         
+        public Map<String, Long> getFrozenPermissions() { return frozenPermissions; }
+        public void setFrozenPermissions(Map<String, Long> frozenPermissions) { this.frozenPermissions = new ConcurrentHashMap<>(frozenPermissions); }
+        
+        public Map<String, OverwriteBackup> getLockdownOverwrites() { return lockdownOverwrites; }
+        public void setLockdownOverwrites(Map<String, OverwriteBackup> lockdownOverwrites) { this.lockdownOverwrites = lockdownOverwrites; }
+        
+        public boolean isLockedDown() { return lockedDown; }
+        public void setLockedDown(boolean lockedDown) { this.lockedDown = lockedDown; }
+        
+        public Set<String> getCriticalIds() { return criticalIds; }
+        public void setCriticalIds(Set<String> criticalIds) {
+            this.criticalIds = ConcurrentHashMap.newKeySet();
+            if (criticalIds != null) this.criticalIds.addAll(criticalIds);
+        }
+        
+        public Set<String> getAllowedBots() { return allowedBots; }
+        public void setAllowedBots(Set<String> allowedBots) { this.allowedBots = allowedBots; }
+        
         public long getLastSnapshot() { return lastSnapshot; }
         public void setLastSnapshot(long lastSnapshot) { this.lastSnapshot = lastSnapshot; }
         
@@ -248,4 +291,28 @@ public class JsonDatabase {
         public void incrementThreatsBlocked() { this.totalThreatsBlocked++; }
         public void incrementRecoveries() { this.totalRecoveries++; }
     }
+    
+    // @everyone permission overwrite of a channel as it was before a lockdown
+    public static class OverwriteBackup {
+        private boolean existed;
+        private long allowed;
+        private long denied;
+        
+        public OverwriteBackup() {}
+        
+        public OverwriteBackup(boolean existed, long allowed, long denied) {
+            this.existed = existed;
+            this.allowed = allowed;
+            this.denied = denied;
+        }
+        
+        public boolean isExisted() { return existed; }
+        public void setExisted(boolean existed) { this.existed = existed; }
+        
+        public long getAllowed() { return allowed; }
+        public void setAllowed(long allowed) { this.allowed = allowed; }
+        
+        public long getDenied() { return denied; }
+        public void setDenied(long denied) { this.denied = denied; }
+    }
 }
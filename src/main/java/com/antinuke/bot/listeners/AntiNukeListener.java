@@ -2,18 +2,32 @@ package com.antinuke.bot.listeners;
 
 import com.antinuke.bot.config.BotConfig;
 import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.monitoring.BotGuard;
+import com.antinuke.bot.monitoring.PermissionGuard;
+import com.antinuke.bot.monitoring.RoleRemovalTracker;
+import com.antinuke.bot.monitoring.SpamDetectionEngine;
+import com.antinuke.bot.monitoring.WebhookGuard;
 import com.antinuke.bot.monitoring.ThreatDetectionSystem;
+import com.antinuke.bot.recovery.ContainmentSystem;
 import com.antinuke.bot.recovery.FastRecoverySystem;
 import net.dv8tion.jda.api.audit.ActionType;
+import net.dv8tion.jda.api.audit.AuditLogChange;
 import net.dv8tion.jda.api.audit.AuditLogEntry;
+import net.dv8tion.jda.api.audit.AuditLogKey;
+import net.dv8tion.jda.api.audit.AuditLogOption;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
 import net.dv8tion.jda.api.events.channel.ChannelCreateEvent;
 import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.guild.GuildAuditLogEntryCreateEvent;
 import net.dv8tion.jda.api.events.guild.GuildBanEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.events.role.RoleCreateEvent;
 import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -33,12 +47,206 @@ public class AntiNukeListener extends ListenerAdapter {
     private final JsonDatabase database;
     private final ThreatDetectionSystem threatDetector;
     private final FastRecoverySystem recoverySystem;
+    private final PermissionGuard permissionGuard;
+    private final ContainmentSystem containmentSystem;
+    private final SpamDetectionEngine spamEngine;
+    private final WebhookGuard webhookGuard;
+    private final BotGuard botGuard;
+    private final RoleRemovalTracker roleRemovalTracker;
     
-    public AntiNukeListener(BotConfig config, JsonDatabase database, ThreatDetectionSystem threatDetector, FastRecoverySystem recoverySystem) {
+    public AntiNukeListener(BotConfig config, JsonDatabase database, ThreatDetectionSystem threatDetector,
+                            FastRecoverySystem recoverySystem, PermissionGuard permissionGuard,
+                            ContainmentSystem containmentSystem, SpamDetectionEngine spamEngine,
+                            WebhookGuard webhookGuard, BotGuard botGuard, RoleRemovalTracker roleRemovalTracker) {
         this.config = config;
         this.database = database;
         this.threatDetector = threatDetector;
         this.recoverySystem = recoverySystem;
+        this.permissionGuard = permissionGuard;
+        this.containmentSystem = containmentSystem;
+        this.spamEngine = spamEngine;
+        this.webhookGuard = webhookGuard;
+        this.botGuard = botGuard;
+        this.roleRemovalTracker = roleRemovalTracker;
+    }
+    
+    @Override
+    public void onMessageReceived(@NotNull MessageReceivedEvent event) {
+        if (!event.isFromGuild()) return;
+        if (event.isWebhookMessage()) {
+            webhookGuard.onWebhookMessage(event);
+            return;
+        }
+        if (event.getAuthor().getIdLong() == event.getJDA().getSelfUser().getIdLong()) return;
+        
+        spamEngine.onMessage(event);
+    }
+    
+    @Override
+    public void onGuildAuditLogEntryCreate(@NotNull GuildAuditLogEntryCreateEvent event) {
+        JsonDatabase.GuildData guildData = database.getGuildData(event.getGuild().getId());
+        if (!guildData.isAntiNukeEnabled()) return;
+        
+        Guild guild = event.getGuild();
+        AuditLogEntry entry = event.getEntry();
+        
+        // Audit entries are pushed over the gateway, so the executor is known without a lookup
+        acceptTrustedChange(guild, entry);
+        switch (entry.getType()) {
+            case ROLE_UPDATE:
+                if (guildData.getProtections().getOrDefault("antiPermissionEscalation", true)) {
+                    permissionGuard.handleRoleUpdate(guild, entry);
+                }
+                break;
+                
+            case MEMBER_ROLE_UPDATE:
+                if (guildData.getProtections().getOrDefault("antiPermissionEscalation", true)) {
+                    permissionGuard.handleMemberRoleUpdate(guild, entry);
+                }
+                if (entry.getChangeByKey(AuditLogKey.MEMBER_ROLES_REMOVE) != null
+                        && guildData.getProtections().getOrDefault("antiRoleRemoval", true)) {
+                    roleRemovalTracker.onRoleRemoval(guild, entry);
+                }
+                break;
+                
+            case PRUNE:
+                if (guildData.getProtections().getOrDefault("antiPrune", true)) {
+                    handlePrune(guild, entry);
+                }
+                break;
+                
+            case WEBHOOK_CREATE:
+            case WEBHOOK_UPDATE:
+            case WEBHOOK_REMOVE:
+                // The registry is updated even when the protection is off
+                webhookGuard.handleAuditEntry(guild, entry);
+                // Webhook changes carry no gateway event of their own, so the audit entry drives the snapshot refresh
+                recoverySystem.refreshWebhooks(guild);
+                break;
+                
+            case EMOJI_DELETE:
+                if (guildData.getProtections().getOrDefault("antiEmoji", true)) {
+                    handleAssetDeletion(guild, entry, recoverySystem.getMissingEmojiIds(guild), "emoji");
+                }
+                break;
+                
+            case BOT_ADD:
+                if (guildData.getProtections().getOrDefault("antiBot", true)) {
+                    botGuard.handleBotAdd(guild, entry);
+                }
+                break;
+                
+            case GUILD_UPDATE:
+                if (guildData.getProtections().getOrDefault("antiServerUpdate", true)) {
+                    handleGuildUpdate(guild, entry);
+                }
+                break;
+                
+            case STICKER_DELETE:
+                if (guildData.getProtections().getOrDefault("antiSticker", true)) {
+                    handleAssetDeletion(guild, entry, recoverySystem.getMissingStickerIds(guild), "sticker");
+                }
+                break;
+                
+            default:
+                break;
+        }
+    }
+    
+    // Role, channel and member role changes only reach the snapshot once a trusted executor is known to have made them
+    private void acceptTrustedChange(Guild guild, AuditLogEntry entry) {
+        ActionType type = entry.getType();
+        boolean channelChange = type == ActionType.CHANNEL_UPDATE || type == ActionType.CHANNEL_OVERRIDE_CREATE
+                || type == ActionType.CHANNEL_OVERRIDE_UPDATE || type == ActionType.CHANNEL_OVERRIDE_DELETE;
+        if (type != ActionType.ROLE_UPDATE && type != ActionType.MEMBER_ROLE_UPDATE && !channelChange) return;
+        
+        String executorId = entry.getUserId();
+        if (executorId == null) return;
+        if (!executorId.equals(guild.getSelfMember().getId())
+                && !executorId.equals(guild.getOwnerId())
+                && !threatDetector.isWhitelisted(guild.getId(), executorId)) {
+            return;
+        }
+        
+        if (type == ActionType.ROLE_UPDATE) {
+            Role role = guild.getRoleById(entry.getTargetIdLong());
+            if (role != null) recoverySystem.upsertRole(role);
+        } else if (type == ActionType.MEMBER_ROLE_UPDATE) {
+            AuditLogChange removed = entry.getChangeByKey(AuditLogKey.MEMBER_ROLES_REMOVE);
+            if (removed == null) return;
+            long[] roleIds = PermissionGuard.parseRoleIds(removed.getNewValue()).stream()
+                    .mapToLong(Long::parseLong)
+                    .toArray();
+            recoverySystem.removeMemberRoles(guild.getId(), entry.getTargetIdLong(), roleIds);
+        } else {
+            GuildChannel channel = guild.getGuildChannelById(entry.getTargetIdLong());
+            if (channel != null) recoverySystem.upsertChannel(channel);
+        }
+    }
+    
+    private void handlePrune(Guild guild, AuditLogEntry entry) {
+        String executorId = entry.getUserId();
+        if (executorId == null || executorId.equals(guild.getSelfMember().getId())) return;
+        
+        Object removed = entry.getOption(AuditLogOption.MEMBERS_REMOVED);
+        int count;
+        try {
+            count = removed != null ? Integer.parseInt(removed.toString()) : 0;
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring prune in guild {} with unreadable member count: {}", guild.getId(), removed);
+            return;
+        }
+        if (count <= 0) return;
+        
+        ThreatDetectionSystem.ThreatAssessment assessment =
+                threatDetector.recordActions(guild.getId(), executorId, ActionType.PRUNE, count);
+        
+        if (assessment.isThreat) {
+            // Pruned members can only come back through an invite, so punishment is all that is left
+            threatDetector.executePunishment(guild.getId(), executorId,
+                    "Mass member prune detected (" + count + " members)", true);
+        }
+    }
+    
+    private void handleGuildUpdate(Guild guild, AuditLogEntry entry) {
+        String executorId = entry.getUserId();
+        if (executorId == null
+                || executorId.equals(guild.getSelfMember().getId())
+                || executorId.equals(guild.getOwnerId())
+                || threatDetector.isWhitelisted(guild.getId(), executorId)) {
+            // Trusted changes become the new baseline
+            recoverySystem.acceptSettingsChanges(guild, entry.getChanges());
+            return;
+        }
+        
+        logger.warn("SERVER UPDATE: User {} changed settings of guild {} ({} changes)",
+                executorId, guild.getId(), entry.getChanges().size());
+        
+        recoverySystem.revertGuildSettings(guild, entry.getChanges().keySet()).thenAccept(result ->
+                logger.info("Settings revert result: {} - {}", result.success, result.message));
+        threatDetector.executePunishment(guild.getId(), executorId,
+                "Unauthorized server settings change (" + String.join(", ", entry.getChanges().keySet()) + ")");
+    }
+    
+    private void handleAssetDeletion(Guild guild, AuditLogEntry entry, List<String> missingIds, String kind) {
+        String executorId = entry.getUserId();
+        if (executorId == null || executorId.equals(guild.getSelfMember().getId())) return;
+        
+        ThreatDetectionSystem.ThreatAssessment assessment =
+                threatDetector.recordAction(guild.getId(), executorId, entry.getType(), entry.getTargetId());
+        
+        if (assessment.isThreat) {
+            threatDetector.executePunishment(guild.getId(), executorId,
+                    "Mass " + kind + " deletion detected (" + assessment.actionCount + " " + kind + "s)");
+            
+            // Everything deleted since the last snapshot is re-uploaded, not just this entry
+            threatDetector.triggerRecovery(guild.getId(), entry.getType(), missingIds);
+        }
+    }
+    
+    @Override
+    public void onRoleUpdatePermissions(@NotNull RoleUpdatePermissionsEvent event) {
+        permissionGuard.onRolePermissionsUpdated(event.getRole(), event.getOldPermissionsRaw(), event.getNewPermissionsRaw());
     }
     
     @Override
@@ -66,7 +274,7 @@ public class AntiNukeListener extends ListenerAdapter {
                             if (assessment.isThreat) {
                                 // Punish the malicious user
                                 threatDetector.executePunishment(guild.getId(), executorId, 
-                                        "Mass banning detected (" + assessment.actionCount + " bans)");
+                                        "Mass banning detected (" + assessment.actionCount + " bans)", true);
                                 
                                 // Trigger recovery - unban the victims
                                 List<String> bannedIds = new ArrayList<>();
@@ -104,7 +312,7 @@ public class AntiNukeListener extends ListenerAdapter {
                                 
                                 if (assessment.isThreat) {
                                     threatDetector.executePunishment(guild.getId(), executorId, 
-                                            "Mass kicking detected (" + assessment.actionCount + " kicks)");
+                                            "Mass kicking detected (" + assessment.actionCount + " kicks)", true);
                                 }
                             }
                         }
@@ -170,7 +378,7 @@ public class AntiNukeListener extends ListenerAdapter {
                             
                             if (assessment.isThreat) {
                                 threatDetector.executePunishment(guild.getId(), executorId, 
-                                        "Mass channel deletion detected (" + assessment.actionCount + " channels)");
+                                        "Mass channel deletion detected (" + assessment.actionCount + " channels)", true);
                                 
                                 // Trigger fast recovery
                                 List<String> deletedIds = new ArrayList<>();
@@ -240,7 +448,7 @@ public class AntiNukeListener extends ListenerAdapter {
                             
                             if (assessment.isThreat) {
                                 threatDetector.executePunishment(guild.getId(), executorId, 
-                                        "Mass role deletion detected (" + assessment.actionCount + " roles)");
+                                        "Mass role deletion detected (" + assessment.actionCount + " roles)", true);
                                 
                                 // Trigger fast recovery
                                 List<String> deletedIds = new ArrayList<>();
@@ -255,23 +463,28 @@ public class AntiNukeListener extends ListenerAdapter {
     @Override
     public void onGuildMemberJoin(@NotNull GuildMemberJoinEvent event) {
         JsonDatabase.GuildData guildData = database.getGuildData(event.getGuild().getId());
-        if (!guildData.isAntiNukeEnabled() || !guildData.getProtections().getOrDefault("antiRaid", true)) return;
+        if (!guildData.isAntiNukeEnabled()) return;
         
         Guild guild = event.getGuild();
         
+        // Bots need an allowed-bot entry or a trusted inviter, raid or not; only the bot guard removes them
+        if (event.getUser().isBot() && guildData.getProtections().getOrDefault("antiBot", true)) {
+            botGuard.onBotJoin(event.getMember());
+        }
+        
+        if (!guildData.getProtections().getOrDefault("antiRaid", true)) return;
+        
         // Check for raid pattern
         boolean isRaid = threatDetector.checkRaidPattern(guild.getId());
         
         if (isRaid) {
             logger.warn("RAID DETECTED in guild: {}", guild.getName());
             
-            // Anti-bot check
-            if (guildData.getProtections().getOrDefault("antiBot", true) && event.getUser().isBot()) {
-                // Kick/ban bot accounts during raid
-                guild.kick(event.getMember()).queue(
-                    success -> logger.info("Kicked bot during raid: {}", event.getUser().getId()),
-                    error -> logger.debug("Could not kick bot: {}", event.getUser().getId())
-                );
+            // Lock all text channels once per raid
+            if (guildData.getProtections().getOrDefault("raidLockdown", true) && !containmentSystem.isLockedDown(guild.getId())) {
+                containmentSystem.lockdown(guild, "Raid detected").thenAccept(result -> {
+                    logger.info("Lockdown result: {} - {}", result.success, result.message);
+                });
             }
         }
     }
@@ -2,6 +2,7 @@ package com.antinuke.bot.listeners;
 
 import com.antinuke.bot.database.JsonDatabase;
 import com.antinuke.bot.recovery.FastRecoverySystem;
+import com.antinuke.bot.recovery.SnapshotScheduler;
 import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
 import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
 import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
@@ -18,10 +19,12 @@ public class GuildEventListener extends ListenerAdapter {
     
     private final JsonDatabase database;
     private final FastRecoverySystem recoverySystem;
+    private final SnapshotScheduler snapshotScheduler;
     
-    public GuildEventListener(JsonDatabase database, FastRecoverySystem recoverySystem) {
+    public GuildEventListener(JsonDatabase database, FastRecoverySystem recoverySystem, SnapshotScheduler snapshotScheduler) {
         this.database = database;
         this.recoverySystem = recoverySystem;
+        this.snapshotScheduler = snapshotScheduler;
     }
     
     @Override
@@ -38,8 +41,8 @@ public class GuildEventListener extends ListenerAdapter {
         guildData.setLastSnapshot(System.currentTimeMillis());
         database.saveGuildData(guildId, guildData);
         
-        // Schedule periodic snapshots
-        recoverySystem.scheduleSnapshots(event.getGuild(), 60);
+        // Schedule periodic snapshots (no-op if the guild already has a task)
+        snapshotScheduler.schedule(event.getGuild());
         
         logger.info("Initialized protection for guild: {}", guildName);
     }
@@ -62,8 +65,8 @@ public class GuildEventListener extends ListenerAdapter {
         guildData.setLastSnapshot(System.currentTimeMillis());
         database.saveGuildData(guildId, guildData);
         
-        // Schedule periodic snapshots
-        recoverySystem.scheduleSnapshots(event.getGuild(), 60);
+        // Schedule periodic snapshots (no-op if the guild already has a task)
+        snapshotScheduler.schedule(event.getGuild());
         
         // Send welcome message to system channel if available
         if (event.getGuild().getSystemChannel() != null) {
@@ -99,6 +102,10 @@ public class GuildEventListener extends ListenerAdapter {
         logger.info("❌ Bot left guild: {} ({}) - Remaining guilds: {}", 
                 guildName, guildId, event.getJDA().getGuilds().size());
         
+        // Stop snapshotting a guild we can no longer see
+        snapshotScheduler.cancel(event.getGuild().getIdLong());
+        recoverySystem.releaseGuild(guildId);
+        
         // Create final backup before removal (optional - can be added if needed)
         // database.createBackup(guildId);
         
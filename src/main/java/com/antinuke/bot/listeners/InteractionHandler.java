@@ -3,6 +3,7 @@ package com.antinuke.bot.listeners;
 import com.antinuke.bot.config.BotConfig;
 import com.antinuke.bot.database.JsonDatabase;
 import com.antinuke.bot.recovery.FastRecoverySystem;
+import com.antinuke.bot.recovery.RecoveryProgress;
 import com.antinuke.bot.ui.InteractiveUI;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
@@ -112,9 +113,12 @@ public class InteractionHandler extends ListenerAdapter {
             case "recovery:full":
                 event.deferReply(true).queue();
                 if (event.getGuild() != null) {
-                    event.getHook().sendMessage("🔄 Starting full server recovery... This may take a moment.").queue();
-                    recoverySystem.fullServerRecovery(event.getGuild()).thenAccept(result -> {
-                        event.getHook().sendMessage(String.format(
+                    event.getHook().editOriginal("🔄 Starting full server recovery... This may take a moment.").queue();
+                    // Interaction edits go to the interaction webhook, outside the recovery pipeline's budget
+                    RecoveryProgress progress = new RecoveryProgress("full:" + guildId).watch(p ->
+                            event.getHook().editOriginal("🔄 **Recovery in progress**\n" + p.describe()).queue());
+                    recoverySystem.fullServerRecovery(event.getGuild(), progress).thenAccept(result -> {
+                        event.getHook().editOriginal(String.format(
                                 "✅ Full recovery completed!\n" +
                                 "**Status:** %s\n" +
                                 "**Items Recovered:** %d\n" +
@@ -208,6 +212,34 @@ public class InteractionHandler extends ListenerAdapter {
                 boolean newRaid = !protections.getOrDefault("antiRaid", true);
                 protections.put("antiRaid", newRaid);
                 return newRaid;
+            case "antiSpam":
+                boolean newSpam = !protections.getOrDefault("antiSpam", true);
+                protections.put("antiSpam", newSpam);
+                return newSpam;
+            case "antiEmoji":
+                boolean newEmoji = !protections.getOrDefault("antiEmoji", true);
+                protections.put("antiEmoji", newEmoji);
+                return newEmoji;
+            case "antiSticker":
+                boolean newSticker = !protections.getOrDefault("antiSticker", true);
+                protections.put("antiSticker", newSticker);
+                return newSticker;
+            case "antiServerUpdate":
+                boolean newUpdate = !protections.getOrDefault("antiServerUpdate", true);
+                protections.put("antiServerUpdate", newUpdate);
+                return newUpdate;
+            case "antiPrune":
+                boolean newPrune = !protections.getOrDefault("antiPrune", true);
+                protections.put("antiPrune", newPrune);
+                return newPrune;
+            case "antiRoleRemoval":
+                boolean newRemoval = !protections.getOrDefault("antiRoleRemoval", true);
+                protections.put("antiRoleRemoval", newRemoval);
+                return newRemoval;
+            case "antiPermissionEscalation":
+                boolean newEsc = !protections.getOrDefault("antiPermissionEscalation", true);
+                protections.put("antiPermissionEscalation", newEsc);
+                return newEsc;
         }
         return false;
     }
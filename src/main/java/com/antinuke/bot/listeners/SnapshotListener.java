@@ -0,0 +1,95 @@
+package com.antinuke.bot.listeners;
+
+import com.antinuke.bot.recovery.FastRecoverySystem;
+import net.dv8tion.jda.api.events.channel.ChannelCreateEvent;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.emoji.EmojiAddedEvent;
+import net.dv8tion.jda.api.events.emoji.EmojiRemovedEvent;
+import net.dv8tion.jda.api.events.emoji.update.GenericEmojiUpdateEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.role.RoleCreateEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.sticker.GuildStickerAddedEvent;
+import net.dv8tion.jda.api.events.sticker.GuildStickerRemovedEvent;
+import net.dv8tion.jda.api.events.sticker.update.GenericGuildStickerUpdateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot Listener - Keeps recovery snapshots current from gateway events.
+ *
+ * Every event applies a small delta to the cached snapshot instead of rebuilding
+ * it. Deletions leave tombstones so the deleted object can still be recovered.
+ * Role and channel updates and member role removals carry no executor here, so
+ * they are taken from trusted audit log entries by the antinuke listener instead.
+ */
+public class SnapshotListener extends ListenerAdapter {
+    private final FastRecoverySystem recoverySystem;
+    
+    public SnapshotListener(FastRecoverySystem recoverySystem) {
+        this.recoverySystem = recoverySystem;
+    }
+    
+    @Override
+    public void onRoleCreate(@NotNull RoleCreateEvent event) {
+        recoverySystem.upsertRole(event.getRole());
+    }
+    
+    @Override
+    public void onRoleDelete(@NotNull RoleDeleteEvent event) {
+        recoverySystem.markRoleDeleted(event.getGuild().getId(), event.getRole().getId());
+    }
+    
+    @Override
+    public void onChannelCreate(@NotNull ChannelCreateEvent event) {
+        if (event.isFromGuild()) {
+            recoverySystem.upsertChannel(event.getChannel().asGuildChannel());
+        }
+    }
+    
+    @Override
+    public void onChannelDelete(@NotNull ChannelDeleteEvent event) {
+        if (event.isFromGuild()) {
+            recoverySystem.markChannelDeleted(event.getGuild().getId(), event.getChannel().getId());
+        }
+    }
+    
+    @Override
+    public void onGuildMemberRoleAdd(@NotNull GuildMemberRoleAddEvent event) {
+        recoverySystem.addMemberRoles(event.getMember(), event.getRoles());
+    }
+    
+    @Override
+    public void onEmojiAdded(@NotNull EmojiAddedEvent event) {
+        recoverySystem.upsertEmoji(event.getEmoji());
+    }
+    
+    // ListenerAdapter declares the emoji and sticker update handlers with raw types,
+    // so these overrides must match them
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void onGenericEmojiUpdate(@NotNull GenericEmojiUpdateEvent event) {
+        recoverySystem.upsertEmoji(event.getEmoji());
+    }
+    
+    @Override
+    public void onEmojiRemoved(@NotNull EmojiRemovedEvent event) {
+        recoverySystem.markEmojiDeleted(event.getGuild().getId(), event.getEmoji().getId());
+    }
+    
+    @Override
+    public void onGuildStickerAdded(@NotNull GuildStickerAddedEvent event) {
+        recoverySystem.upsertSticker(event.getSticker());
+    }
+    
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void onGenericGuildStickerUpdate(@NotNull GenericGuildStickerUpdateEvent event) {
+        recoverySystem.upsertSticker(event.getSticker());
+    }
+    
+    @Override
+    public void onGuildStickerRemoved(@NotNull GuildStickerRemovedEvent event) {
+        recoverySystem.markStickerDeleted(event.getGuild().getId(), event.getSticker().getId());
+    }
+}
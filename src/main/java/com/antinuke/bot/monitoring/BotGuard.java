@@ -0,0 +1,187 @@
+package com.antinuke.bot.monitoring;
+
+import com.antinuke.bot.database.JsonDatabase;
+import net.dv8tion.jda.api.audit.ActionType;
+import net.dv8tion.jda.api.audit.AuditLogEntry;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.UserSnowflake;
+import net.dv8tion.jda.api.utils.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bot Guard - Enforces the antiBot protection outside of raids.
+ *
+ * A bot may stay if it is in the guild's allowed-bot set or was added by a trusted
+ * user. Anything else is kicked with a single request and its inviter punished.
+ * The BOT_ADD audit entry and the member join can arrive in either order, so the
+ * first one records a decision for the second. If the entry has not arrived after a
+ * short grace period, the audit log is read once; a bot is only removed when an
+ * untrusted inviter is confirmed, and stays if the inviter cannot be found.
+ */
+public class BotGuard {
+    private static final Logger logger = LoggerFactory.getLogger(BotGuard.class);
+    
+    // How long a join waits for its BOT_ADD entry before the audit log is read
+    private static final long AUDIT_GRACE_SECONDS = 5;
+    // Recent BOT_ADD entries searched for the inviter
+    private static final int AUDIT_LOOKBACK = 10;
+    private static final long DECISION_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    
+    private final JsonDatabase database;
+    private final ThreatDetectionSystem threatDetector;
+    private final Map<String, Decision> decisions;
+    // BOT_ADD entries already acted on, whether pushed over the gateway or read back
+    private final Set<Long> handledEntries;
+    private final ScheduledExecutorService scheduler;
+    
+    public BotGuard(JsonDatabase database, ThreatDetectionSystem threatDetector) {
+        this.database = database;
+        this.threatDetector = threatDetector;
+        this.decisions = new ConcurrentHashMap<>();
+        this.handledEntries = ConcurrentHashMap.newKeySet();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "BotGuard-Scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        scheduler.scheduleAtFixedRate(this::cleanupDecisions, 1, 1, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Handle a bot account joining the guild
+     */
+    public void onBotJoin(Member member) {
+        Guild guild = member.getGuild();
+        if (isAllowed(guild, member.getId())) return;
+        
+        Decision decision = decisions.remove(key(guild, member.getId()));
+        if (decision != null) {
+            if (!decision.allowed) {
+                removeBot(guild, member.getId(), decision.reason);
+            }
+            return;
+        }
+        
+        // Give the audit entry a moment to name the inviter
+        scheduler.schedule(() -> {
+            if (isAllowed(guild, member.getId())) return;
+            Decision late = decisions.remove(key(guild, member.getId()));
+            if (late == null) {
+                lookUpInviter(guild, member.getId());
+            } else if (!late.allowed) {
+                removeBot(guild, member.getId(), late.reason);
+            }
+        }, AUDIT_GRACE_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Handle a BOT_ADD audit log entry
+     */
+    public void handleBotAdd(Guild guild, AuditLogEntry entry) {
+        String botId = entry.getTargetId();
+        String executorId = entry.getUserId();
+        if (botId == null || isAllowed(guild, botId)) return;
+        if (!handledEntries.add(entry.getIdLong())) return;
+        
+        if (executorId == null) {
+            // An inviter that cannot be confirmed is never acted on
+            decisions.put(key(guild, botId), new Decision(true, null));
+            logger.warn("Bot {} was added to guild {} by an unknown user; leaving it", botId, guild.getId());
+            return;
+        }
+        
+        if (isTrusted(guild, executorId)) {
+            // Bots added by trusted users are remembered so they are never removed later
+            JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+            guildData.getAllowedBots().add(botId);
+            database.saveGuildData(guild.getId(), guildData);
+            decisions.put(key(guild, botId), new Decision(true, null));
+            logger.info("Allowed bot {} added by trusted user {} in guild {}", botId, executorId, guild.getId());
+            return;
+        }
+        
+        String reason = "Unauthorized bot added (" + botId + ")";
+        logger.warn("BOT ADD: User {} added bot {} to guild {}", executorId, botId, guild.getId());
+        
+        if (guild.getMemberById(botId) != null) {
+            removeBot(guild, botId, reason);
+        } else {
+            // The join has not arrived yet; it will act on this decision
+            decisions.put(key(guild, botId), new Decision(false, reason));
+        }
+        
+        threatDetector.executePunishment(guild.getId(), executorId, reason);
+    }
+    
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+    
+    // The BOT_ADD entry never arrived over the gateway; read it back once, and keep the bot if that fails
+    private void lookUpInviter(Guild guild, String botId) {
+        guild.retrieveAuditLogs()
+                .type(ActionType.BOT_ADD)
+                .limit(AUDIT_LOOKBACK)
+                .queue(entries -> {
+                    AuditLogEntry entry = entries.stream()
+                            .filter(candidate -> botId.equals(candidate.getTargetId()))
+                            .findFirst()
+                            .orElse(null);
+                    if (entry == null || entry.getUserId() == null) {
+                        logger.warn("No inviter found for bot {} in guild {}; leaving it", botId, guild.getId());
+                        return;
+                    }
+                    handleBotAdd(guild, entry);
+                }, error -> logger.warn("Could not read the audit log of guild {} for bot {}; leaving it: {}",
+                        guild.getId(), botId, error.getMessage()));
+    }
+    
+    private void removeBot(Guild guild, String botId, String reason) {
+        guild.kick(UserSnowflake.fromId(botId))
+                .reason("Antinuke: " + reason)
+                .queue(
+                    success -> logger.info("Removed bot {} from guild {}", botId, guild.getId()),
+                    error -> logger.error("Failed to remove bot {} from guild {}", botId, guild.getId(), error)
+                );
+    }
+    
+    private boolean isAllowed(Guild guild, String botId) {
+        return database.getGuildData(guild.getId()).getAllowedBots().contains(botId);
+    }
+    
+    private boolean isTrusted(Guild guild, String userId) {
+        if (userId.equals(guild.getOwnerId())) return true;
+        return threatDetector.isWhitelisted(guild.getId(), userId);
+    }
+    
+    private void cleanupDecisions() {
+        long cutoff = System.currentTimeMillis() - DECISION_TTL_MILLIS;
+        decisions.values().removeIf(decision -> decision.createdAt < cutoff);
+        handledEntries.removeIf(entryId -> TimeUtil.getTimeCreated(entryId).toInstant().toEpochMilli() < cutoff);
+    }
+    
+    private static String key(Guild guild, String botId) {
+        return guild.getId() + ":" + botId;
+    }
+    
+    private static class Decision {
+        final boolean allowed;
+        final String reason;
+        final long createdAt = System.currentTimeMillis();
+        
+        Decision(boolean allowed, String reason) {
+            this.allowed = allowed;
+            this.reason = reason;
+        }
+    }
+}
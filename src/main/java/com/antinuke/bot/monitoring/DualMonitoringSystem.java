@@ -307,6 +307,43 @@ public class DualMonitoringSystem {
         }
     }
     
+    /**
+     * Delete a webhook directly via API without fetching it first.
+     * With a known token the token route is used, which does not need the bot's permissions.
+     */
+    public CompletableFuture<Boolean> deleteWebhookDirect(String webhookId, String webhookToken, String reason) {
+        String url = DISCORD_API_BASE + "/webhooks/" + webhookId
+                + (webhookToken != null ? "/" + webhookToken : "");
+        
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .delete()
+                .header("X-Audit-Log-Reason", reason != null ? reason : "Antinuke protection");
+        if (webhookToken == null) {
+            builder.header("Authorization", "Bot " + botToken);
+        }
+        
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        httpClient.newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.error("Error deleting webhook {} via direct API", webhookId, e);
+                future.complete(false);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean success = response.isSuccessful() || response.code() == 404;
+                response.close();
+                if (success) {
+                    logger.info("Deleted webhook {} via direct API", webhookId);
+                }
+                future.complete(success);
+            }
+        });
+        return future;
+    }
+    
     // Helper methods for tracking processed entries
     private boolean isEntryProcessed(String guildId, String entryId) {
         List<AuditLogEntry> entries = recentAuditLogs.get(guildId);
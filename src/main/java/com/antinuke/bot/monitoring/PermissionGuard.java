@@ -0,0 +1,204 @@
+package com.antinuke.bot.monitoring;
+
+import com.antinuke.bot.recovery.FastRecoverySystem;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.audit.AuditLogChange;
+import net.dv8tion.jda.api.audit.AuditLogEntry;
+import net.dv8tion.jda.api.audit.AuditLogKey;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.UserSnowflake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Permission Guard - Detects dangerous permission grants on roles and members
+ * and reverts them with a single request.
+ *
+ * Executors are taken from the gateway audit log stream, so no extra audit log
+ * lookups are made. The baseline for every diff is the cached role state in the
+ * recovery snapshot.
+ */
+public class PermissionGuard {
+    private static final Logger logger = LoggerFactory.getLogger(PermissionGuard.class);
+    
+    /**
+     * Permission bits that allow a single account to nuke a server
+     */
+    public static final long DANGEROUS_PERMISSIONS = Permission.getRaw(
+            Permission.ADMINISTRATOR,
+            Permission.BAN_MEMBERS,
+            Permission.KICK_MEMBERS,
+            Permission.MANAGE_SERVER,
+            Permission.MANAGE_ROLES,
+            Permission.MANAGE_CHANNEL,
+            Permission.MANAGE_WEBHOOKS,
+            Permission.MANAGE_GUILD_EXPRESSIONS,
+            Permission.MESSAGE_MENTION_EVERYONE,
+            Permission.MODERATE_MEMBERS
+    );
+    
+    private final ThreatDetectionSystem threatDetector;
+    private final FastRecoverySystem recoverySystem;
+    
+    public PermissionGuard(ThreatDetectionSystem threatDetector, FastRecoverySystem recoverySystem) {
+        this.threatDetector = threatDetector;
+        this.recoverySystem = recoverySystem;
+    }
+    
+    /**
+     * Keep the cached role state in sync with harmless permission changes.
+     * Dangerous grants are left for the audit log entry to resolve. Roles stripped by a
+     * permission freeze keep their recorded masks as the baseline.
+     */
+    public void onRolePermissionsUpdated(Role role, long oldPermissions, long newPermissions) {
+        if (recoverySystem.isPermissionFrozen(role.getGuild().getId(), role.getId())) return;
+        Long cached = recoverySystem.getCachedRolePermissions(role.getGuild().getId(), role.getId());
+        long baseline = cached != null ? cached : oldPermissions;
+        
+        if (escalatedBits(baseline, newPermissions) == 0) {
+            recoverySystem.updateCachedRolePermissions(role.getGuild().getId(), role.getId(), newPermissions);
+        }
+    }
+    
+    /**
+     * Handle a ROLE_UPDATE audit log entry - revert dangerous grants by untrusted executors
+     */
+    public void handleRoleUpdate(Guild guild, AuditLogEntry entry) {
+        AuditLogChange change = entry.getChangeByKey(AuditLogKey.ROLE_PERMISSIONS);
+        if (change == null) return;
+        
+        Role role = guild.getRoleById(entry.getTargetIdLong());
+        if (role == null || role.isManaged()) return;
+        
+        long newPermissions = parsePermissions(change.getNewValue());
+        Long cached = recoverySystem.getCachedRolePermissions(guild.getId(), role.getId());
+        long baseline = cached != null ? cached : parsePermissions(change.getOldValue());
+        long escalated = escalatedBits(baseline, newPermissions);
+        
+        if (escalated == 0) return;
+        
+        String executorId = entry.getUserId();
+        if (isTrusted(guild, executorId)) {
+            recoverySystem.updateCachedRolePermissions(guild.getId(), role.getId(), newPermissions);
+            return;
+        }
+        
+        logger.warn("PERMISSION ESCALATION: User {} granted {} to role {} in guild {}",
+                executorId, describe(escalated), role.getId(), guild.getId());
+        
+        // Single role edit back to the known-good bitmask
+        role.getManager()
+                .setPermissions(baseline)
+                .reason("Antinuke: Reverting permission escalation")
+                .queue(
+                    success -> logger.info("Reverted permissions of role: {}", role.getId()),
+                    error -> logger.error("Failed to revert permissions of role: {}", role.getId(), error)
+                );
+        
+        threatDetector.executePunishment(guild.getId(), executorId,
+                "Permission escalation on role " + role.getName() + " (" + describe(escalated) + ")");
+    }
+    
+    /**
+     * Handle a MEMBER_ROLE_UPDATE audit log entry - remove dangerous roles granted by untrusted executors
+     */
+    public void handleMemberRoleUpdate(Guild guild, AuditLogEntry entry) {
+        AuditLogChange change = entry.getChangeByKey(AuditLogKey.MEMBER_ROLES_ADD);
+        if (change == null) return;
+        
+        List<Role> dangerousRoles = new ArrayList<>();
+        long escalated = 0;
+        for (String roleId : parseRoleIds(change.getNewValue())) {
+            Role role = guild.getRoleById(roleId);
+            if (role != null && (role.getPermissionsRaw() & DANGEROUS_PERMISSIONS) != 0) {
+                dangerousRoles.add(role);
+                escalated |= role.getPermissionsRaw() & DANGEROUS_PERMISSIONS;
+            }
+        }
+        
+        if (dangerousRoles.isEmpty()) return;
+        
+        String executorId = entry.getUserId();
+        if (isTrusted(guild, executorId)) return;
+        
+        String targetId = entry.getTargetId();
+        logger.warn("PERMISSION ESCALATION: User {} gave {} dangerous role(s) to {} in guild {}",
+                executorId, dangerousRoles.size(), targetId, guild.getId());
+        
+        // One member update when the member is cached, otherwise one removal per role
+        Member target = guild.getMemberById(targetId);
+        if (target != null) {
+            guild.modifyMemberRoles(target, Collections.emptyList(), dangerousRoles)
+                    .reason("Antinuke: Reverting permission escalation")
+                    .queue(
+                        success -> logger.info("Removed dangerous roles from member: {}", targetId),
+                        error -> logger.error("Failed to remove dangerous roles from member: {}", targetId, error)
+                    );
+        } else {
+            for (Role role : dangerousRoles) {
+                guild.removeRoleFromMember(UserSnowflake.fromId(targetId), role)
+                        .reason("Antinuke: Reverting permission escalation")
+                        .queue();
+            }
+        }
+        
+        threatDetector.executePunishment(guild.getId(), executorId,
+                "Permission escalation on member <@" + targetId + "> (" + describe(escalated) + ")");
+    }
+    
+    private boolean isTrusted(Guild guild, String userId) {
+        if (userId == null) return true;
+        if (userId.equals(guild.getSelfMember().getId())) return true;
+        if (userId.equals(guild.getOwnerId())) return true;
+        return threatDetector.isWhitelisted(guild.getId(), userId);
+    }
+    
+    private static long escalatedBits(long baseline, long updated) {
+        return updated & ~baseline & DANGEROUS_PERMISSIONS;
+    }
+    
+    private static long parsePermissions(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).longValue();
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Role ids listed in the value of a $add or $remove member role change
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> parseRoleIds(Object value) {
+        List<String> roleIds = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<Object>) value) {
+                if (item instanceof Map) {
+                    Object id = ((Map<String, Object>) item).get("id");
+                    if (id != null) {
+                        roleIds.add(id.toString());
+                    }
+                }
+            }
+        }
+        return roleIds;
+    }
+    
+    private static String describe(long permissions) {
+        StringBuilder builder = new StringBuilder();
+        for (Permission permission : Permission.getPermissions(permissions)) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(permission.getName());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package com.antinuke.bot.monitoring;
+
+import net.dv8tion.jda.api.audit.ActionType;
+import net.dv8tion.jda.api.audit.AuditLogEntry;
+import net.dv8tion.jda.api.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Role Removal Tracker - Detects roles being stripped from many members.
+ *
+ * Discord emits one member update per member, so a mass strip produces thousands
+ * of audit entries. Entries are only counted per executor on the gateway thread;
+ * a flush every 250ms scores each executor once with the aggregated count. Once an
+ * executor is punished it is latched for a few seconds: later flushes only collect
+ * the members it strips meanwhile, and those are restored together when the latch ends.
+ */
+public class RoleRemovalTracker {
+    private static final Logger logger = LoggerFactory.getLogger(RoleRemovalTracker.class);
+    
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    // Long enough for the punishment to land, short enough to retry it if it did not
+    private static final long LATCH_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    
+    private final ThreatDetectionSystem threatDetector;
+    private final Map<String, ExecutorRemovals> removals;
+    // Executors already punished, until when
+    private final Map<String, Long> latches;
+    private final ScheduledExecutorService flushScheduler;
+    
+    public RoleRemovalTracker(ThreatDetectionSystem threatDetector) {
+        this.threatDetector = threatDetector;
+        this.removals = new ConcurrentHashMap<>();
+        this.latches = new ConcurrentHashMap<>();
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RoleRemoval-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        flushScheduler.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Count a MEMBER_ROLE_UPDATE audit entry that removed roles
+     */
+    public void onRoleRemoval(Guild guild, AuditLogEntry entry) {
+        String executorId = entry.getUserId();
+        String memberId = entry.getTargetId();
+        if (executorId == null || memberId == null) return;
+        if (executorId.equals(guild.getSelfMember().getId()) || executorId.equals(memberId)) return;
+        
+        long now = System.currentTimeMillis();
+        removals.compute(guild.getId() + ":" + executorId, (key, current) -> {
+            ExecutorRemovals tracked = current != null ? current : new ExecutorRemovals(guild.getId(), executorId);
+            tracked.pending++;
+            tracked.members.put(memberId, now);
+            return tracked;
+        });
+    }
+    
+    public void shutdown() {
+        flushScheduler.shutdown();
+    }
+    
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            long cutoff = now - WINDOW_MILLIS;
+            for (String key : removals.keySet()) {
+                int[] drained = new int[1];
+                ExecutorRemovals[] source = new ExecutorRemovals[1];
+                removals.computeIfPresent(key, (k, tracked) -> {
+                    tracked.members.values().removeIf(timestamp -> timestamp < cutoff);
+                    drained[0] = tracked.pending;
+                    tracked.pending = 0;
+                    source[0] = tracked;
+                    return tracked.members.isEmpty() ? null : tracked;
+                });
+                
+                if (drained[0] > 0) {
+                    score(key, source[0].guildId, source[0].executorId, drained[0]);
+                }
+            }
+            
+            for (Map.Entry<String, Long> latch : latches.entrySet()) {
+                if (latch.getValue() <= now && latches.remove(latch.getKey(), latch.getValue())) {
+                    restoreLatched(latch.getKey());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error flushing role removals", e);
+        }
+    }
+    
+    private void score(String key, String guildId, String executorId, int count) {
+        ThreatDetectionSystem.ThreatAssessment assessment = threatDetector.recordActions(
+                guildId, executorId, ActionType.MEMBER_ROLE_UPDATE, count);
+        if (!assessment.isThreat || latches.containsKey(key)) return;
+        
+        // Restore everyone the executor stripped within the window, then start over
+        List<String> affected = new ArrayList<>();
+        removals.computeIfPresent(key, (k, tracked) -> {
+            affected.addAll(tracked.members.keySet());
+            return null;
+        });
+        
+        logger.warn("MASS ROLE REMOVAL: User {} stripped roles from {} members in guild {}",
+                executorId, affected.size(), guildId);
+        threatDetector.executePunishment(guildId, executorId,
+                "Mass role removal detected (" + assessment.actionCount + " members)");
+        threatDetector.triggerRecovery(guildId, ActionType.MEMBER_ROLE_UPDATE, affected);
+        latches.put(key, System.currentTimeMillis() + LATCH_MILLIS);
+    }
+    
+    // Restore the members a punished executor stripped while it was latched
+    private void restoreLatched(String key) {
+        List<String> affected = new ArrayList<>();
+        ExecutorRemovals[] source = new ExecutorRemovals[1];
+        removals.computeIfPresent(key, (k, tracked) -> {
+            affected.addAll(tracked.members.keySet());
+            source[0] = tracked;
+            return null;
+        });
+        if (affected.isEmpty()) return;
+        
+        logger.warn("MASS ROLE REMOVAL: User {} stripped roles from {} more members in guild {} before punishment landed",
+                source[0].executorId, affected.size(), source[0].guildId);
+        threatDetector.triggerRecovery(source[0].guildId, ActionType.MEMBER_ROLE_UPDATE, affected);
+    }
+    
+    private static class ExecutorRemovals {
+        final String guildId;
+        final String executorId;
+        final Map<String, Long> members = new HashMap<>();
+        int pending;
+        
+        ExecutorRemovals(String guildId, String executorId) {
+            this.guildId = guildId;
+            this.executorId = executorId;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.antinuke.bot.monitoring;
+
+import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.utils.LongObjectMap;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.UserSnowflake;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.ISlowmodeChannel;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Spam Detection Engine - Enforces the antiSpam protection on every guild message.
+ *
+ * Each (guild, user) pair and each channel has a token bucket. Duplicate content is
+ * detected with a rolling 64-bit hash computed straight from the raw content, and
+ * mentions and links are counted in the same pass. A normal message touches only
+ * preallocated state. Deletes and timeouts are queued and flushed in batches.
+ */
+public class SpamDetectionEngine {
+    private static final Logger logger = LoggerFactory.getLogger(SpamDetectionEngine.class);
+    
+    private static final long BUCKET_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long CONFIG_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long IDLE_STATE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final Duration TIMEOUT_DURATION = Duration.ofMinutes(10);
+    private static final int CHANNEL_SLOWMODE_SECONDS = 10;
+    private static final int MASS_MENTION_WEIGHT = 5;
+    private static final int RECENT_MESSAGES = 8;
+    
+    private final JDA jda;
+    private final JsonDatabase database;
+    private final ThreatDetectionSystem threatDetector;
+    private final LongObjectMap<GuildState> guildStates;
+    private final ConcurrentLinkedQueue<long[]> pendingDeletes;
+    private final ConcurrentLinkedQueue<long[]> pendingTimeouts;
+    private final ScheduledExecutorService flushScheduler;
+    
+    public SpamDetectionEngine(JDA jda, JsonDatabase database, ThreatDetectionSystem threatDetector) {
+        this.jda = jda;
+        this.database = database;
+        this.threatDetector = threatDetector;
+        this.guildStates = new LongObjectMap<>(256);
+        this.pendingDeletes = new ConcurrentLinkedQueue<>();
+        this.pendingTimeouts = new ConcurrentLinkedQueue<>();
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SpamEngine-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        // Batch deletes and timeouts, and drop state of idle users
+        flushScheduler.scheduleAtFixedRate(this::flushActions, 1, 1, TimeUnit.SECONDS);
+        flushScheduler.scheduleAtFixedRate(this::cleanupIdleState, 60, 60, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Score a guild message. Allocation-free unless the message is spam.
+     */
+    public void onMessage(MessageReceivedEvent event) {
+        Guild guild = event.getGuild();
+        long guildId = guild.getIdLong();
+        long userId = event.getAuthor().getIdLong();
+        long channelId = event.getChannel().getIdLong();
+        long now = System.nanoTime();
+        
+        GuildState guildState = getGuildState(guild, now);
+        if (!guildState.enabled) return;
+        
+        String content = event.getMessage().getContentRaw();
+        long hash = 0x5A5A5A5A5A5A5A5AL;
+        int mentions = 0;
+        int links = 0;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                hash = hash * 0x100000001B3L + Character.toLowerCase(c);
+            }
+            if (c == '<' && i + 1 < length && content.charAt(i + 1) == '@') {
+                mentions++;
+            } else if (c == '@' && (content.startsWith("everyone", i + 1) || content.startsWith("here", i + 1))) {
+                mentions += MASS_MENTION_WEIGHT;
+            } else if (c == 'h' && content.startsWith("http", i)
+                    && (content.startsWith("://", i + 4) || content.startsWith("s://", i + 4))) {
+                links++;
+            } else if (c == 'd' && content.startsWith("discord.gg/", i)) {
+                links++;
+            }
+        }
+        hash = length == 0 ? 0 : hash ^ (hash >>> 29);
+        
+        int reason;
+        boolean channelFlood;
+        synchronized (guildState) {
+            UserState user = guildState.users.get(userId);
+            if (user == null) {
+                user = new UserState(guildState, now);
+                guildState.users.put(userId, user);
+            }
+            ChannelState channel = guildState.channels.get(channelId);
+            if (channel == null) {
+                channel = new ChannelState(guildState, now);
+                guildState.channels.put(channelId, channel);
+            }
+            
+            user.remember(event.getMessageIdLong(), channelId);
+            reason = user.score(guildState, now, hash, mentions, links);
+            channelFlood = channel.consume(guildState, now);
+        }
+        
+        if (reason != REASON_NONE) {
+            onSpam(event, guildState, reason);
+        }
+        if (channelFlood) {
+            onChannelFlood(event);
+        }
+    }
+    
+    private GuildState getGuildState(Guild guild, long now) {
+        GuildState state;
+        synchronized (guildStates) {
+            state = guildStates.get(guild.getIdLong());
+            if (state == null) {
+                state = new GuildState(guild.getId());
+                guildStates.put(guild.getIdLong(), state);
+            }
+        }
+        if (now - state.configLoadedAt > CONFIG_REFRESH_NANOS) {
+            state.reload(database.getGuildData(state.guildId), now);
+        }
+        return state;
+    }
+    
+    private void onSpam(MessageReceivedEvent event, GuildState guildState, int reason) {
+        Member member = event.getMember();
+        if (member != null && member.hasPermission(Permission.ADMINISTRATOR)) return;
+        if (threatDetector.isWhitelisted(guildState.guildId, event.getAuthor().getId())) return;
+        
+        long guildId = event.getGuild().getIdLong();
+        long userId = event.getAuthor().getIdLong();
+        boolean firstStrike;
+        long[] recent;
+        synchronized (guildState) {
+            UserState user = guildState.users.get(userId);
+            if (user == null) return;
+            long nowMillis = System.currentTimeMillis();
+            firstStrike = user.timedOutUntil < nowMillis;
+            if (firstStrike) {
+                user.timedOutUntil = nowMillis + TIMEOUT_DURATION.toMillis();
+                recent = user.drainRecent();
+            } else {
+                recent = new long[] { event.getMessageIdLong(), event.getChannel().getIdLong() };
+            }
+        }
+        
+        // Delete the burst that triggered detection, then anything sent until the timeout lands
+        for (int i = 0; i + 1 < recent.length; i += 2) {
+            pendingDeletes.add(new long[] { guildId, recent[i + 1], recent[i] });
+        }
+        
+        if (firstStrike) {
+            logger.warn("SPAM DETECTED: User {} in guild {} ({})", userId, guildId, describeReason(reason));
+            pendingTimeouts.add(new long[] { guildId, userId, reason });
+        }
+    }
+    
+    private void onChannelFlood(MessageReceivedEvent event) {
+        if (!(event.getGuildChannel() instanceof ISlowmodeChannel)) return;
+        ISlowmodeChannel channel = (ISlowmodeChannel) event.getGuildChannel();
+        if (channel.getSlowmode() >= CHANNEL_SLOWMODE_SECONDS) return;
+        
+        logger.warn("CHANNEL FLOOD: Enabling slowmode in channel {} of guild {}", channel.getId(), event.getGuild().getId());
+        channel.getManager()
+                .setSlowmode(CHANNEL_SLOWMODE_SECONDS)
+                .reason("Antinuke: Channel message flood")
+                .queue(
+                    success -> logger.info("Enabled slowmode in channel: {}", channel.getId()),
+                    error -> logger.debug("Could not enable slowmode in channel: {}", channel.getId())
+                );
+    }
+    
+    /**
+     * Send queued deletes as bulk deletes (up to 100 per channel) and queued timeouts
+     */
+    private void flushActions() {
+        try {
+            Map<Long, List<String>> deletesByChannel = new HashMap<>();
+            Map<Long, Long> channelGuilds = new HashMap<>();
+            long[] delete;
+            while ((delete = pendingDeletes.poll()) != null) {
+                deletesByChannel.computeIfAbsent(delete[1], k -> new ArrayList<>()).add(Long.toUnsignedString(delete[2]));
+                channelGuilds.put(delete[1], delete[0]);
+            }
+            
+            for (Map.Entry<Long, List<String>> entry : deletesByChannel.entrySet()) {
+                Guild guild = jda.getGuildById(channelGuilds.get(entry.getKey()));
+                if (guild == null) continue;
+                GuildMessageChannel channel = guild.getChannelById(GuildMessageChannel.class, entry.getKey());
+                if (channel == null) continue;
+                
+                List<String> ids = entry.getValue();
+                for (int i = 0; i < ids.size(); i += 100) {
+                    List<String> chunk = ids.subList(i, Math.min(ids.size(), i + 100));
+                    if (chunk.size() == 1) {
+                        channel.deleteMessageById(chunk.get(0)).queue(null, error -> {});
+                    } else {
+                        channel.deleteMessagesByIds(new ArrayList<>(chunk)).queue(
+                            success -> logger.debug("Bulk deleted {} spam messages in channel {}", chunk.size(), channel.getId()),
+                            error -> logger.debug("Could not bulk delete spam messages in channel {}", channel.getId())
+                        );
+                    }
+                }
+            }
+            
+            long[] timeout;
+            while ((timeout = pendingTimeouts.poll()) != null) {
+                Guild guild = jda.getGuildById(timeout[0]);
+                if (guild == null) continue;
+                long userId = timeout[1];
+                String reason = describeReason((int) timeout[2]);
+                guild.timeoutFor(UserSnowflake.fromId(userId), TIMEOUT_DURATION)
+                        .reason("Antinuke: Spam (" + reason + ")")
+                        .queue(
+                            success -> logger.info("Timed out spammer: {}", userId),
+                            error -> logger.debug("Could not time out spammer: {}", userId)
+                        );
+            }
+        } catch (Exception e) {
+            logger.error("Error flushing spam actions", e);
+        }
+    }
+    
+    private void cleanupIdleState() {
+        long cutoff = System.currentTimeMillis() - IDLE_STATE_MILLIS;
+        List<GuildState> states = new ArrayList<>();
+        synchronized (guildStates) {
+            guildStates.forEachValue(states::add);
+        }
+        for (GuildState state : states) {
+            synchronized (state) {
+                state.users.removeIf(user -> user.lastSeen < cutoff && user.timedOutUntil < cutoff);
+                state.channels.removeIf(channel -> channel.lastSeen < cutoff);
+            }
+        }
+    }
+    
+    public void shutdown() {
+        flushScheduler.shutdown();
+    }
+    
+    // Spam reasons
+    private static final int REASON_NONE = 0;
+    private static final int REASON_RATE = 1;
+    private static final int REASON_DUPLICATE = 2;
+    private static final int REASON_MENTIONS = 3;
+    private static final int REASON_LINKS = 4;
+    
+    private static String describeReason(int reason) {
+        switch (reason) {
+            case REASON_RATE: return "message rate";
+            case REASON_DUPLICATE: return "duplicate messages";
+            case REASON_MENTIONS: return "mass mentions";
+            case REASON_LINKS: return "link spam";
+            default: return "unknown";
+        }
+    }
+    
+    // Helper classes
+    private static class GuildState {
+        final String guildId;
+        final LongObjectMap<UserState> users = new LongObjectMap<>(64);
+        final LongObjectMap<ChannelState> channels = new LongObjectMap<>(16);
+        volatile boolean enabled;
+        volatile long configLoadedAt = Long.MIN_VALUE / 2;
+        int messageLimit;
+        int duplicateLimit;
+        int mentionLimit;
+        int linkLimit;
+        int channelLimit;
+        
+        GuildState(String guildId) {
+            this.guildId = guildId;
+        }
+        
+        void reload(JsonDatabase.GuildData guildData, long now) {
+            Map<String, Integer> thresholds = guildData.getThresholds();
+            messageLimit = thresholds.getOrDefault("spamMessages", 6);
+            duplicateLimit = thresholds.getOrDefault("spamDuplicates", 3);
+            mentionLimit = thresholds.getOrDefault("spamMentions", 8);
+            linkLimit = thresholds.getOrDefault("spamLinks", 4);
+            channelLimit = thresholds.getOrDefault("spamChannelMessages", 40);
+            enabled = guildData.isAntiNukeEnabled() && guildData.getProtections().getOrDefault("antiSpam", true);
+            configLoadedAt = now;
+        }
+    }
+    
+    private static class UserState {
+        // Token buckets refill to capacity over BUCKET_WINDOW_NANOS
+        double messageTokens;
+        double mentionTokens;
+        double linkTokens;
+        long lastRefill;
+        long lastHash;
+        int duplicates;
+        long lastSeen;
+        long timedOutUntil;
+        final long[] recent = new long[RECENT_MESSAGES * 2];
+        int recentCount;
+        int recentHead;
+        
+        UserState(GuildState guild, long now) {
+            messageTokens = guild.messageLimit;
+            mentionTokens = guild.mentionLimit;
+            linkTokens = guild.linkLimit;
+            lastRefill = now;
+        }
+        
+        int score(GuildState guild, long now, long hash, int mentions, int links) {
+            long elapsed = now - lastRefill;
+            double refill = (double) elapsed / BUCKET_WINDOW_NANOS;
+            lastRefill = now;
+            lastSeen = System.currentTimeMillis();
+            messageTokens = Math.min(guild.messageLimit, messageTokens + refill * guild.messageLimit);
+            mentionTokens = Math.min(guild.mentionLimit, mentionTokens + refill * guild.mentionLimit);
+            linkTokens = Math.min(guild.linkLimit, linkTokens + refill * guild.linkLimit);
+            
+            // Hash 0 means no text content (attachments only)
+            duplicates = hash != 0 && hash == lastHash && elapsed < BUCKET_WINDOW_NANOS ? duplicates + 1 : 0;
+            lastHash = hash;
+            
+            messageTokens -= 1;
+            mentionTokens -= mentions;
+            linkTokens -= links;
+            
+            if (mentionTokens < 0) return REASON_MENTIONS;
+            if (duplicates + 1 >= guild.duplicateLimit) return REASON_DUPLICATE;
+            if (linkTokens < 0) return REASON_LINKS;
+            if (messageTokens < 0) return REASON_RATE;
+            return REASON_NONE;
+        }
+        
+        void remember(long messageId, long channelId) {
+            recent[recentHead * 2] = messageId;
+            recent[recentHead * 2 + 1] = channelId;
+            recentHead = (recentHead + 1) % RECENT_MESSAGES;
+            recentCount = Math.min(RECENT_MESSAGES, recentCount + 1);
+        }
+        
+        long[] drainRecent() {
+            long[] drained = new long[recentCount * 2];
+            for (int i = 0; i < recentCount; i++) {
+                int index = (recentHead - 1 - i + RECENT_MESSAGES) % RECENT_MESSAGES;
+                drained[i * 2] = recent[index * 2];
+                drained[i * 2 + 1] = recent[index * 2 + 1];
+            }
+            recentCount = 0;
+            return drained;
+        }
+    }
+    
+    private static class ChannelState {
+        double tokens;
+        long lastRefill;
+        long lastSeen;
+        boolean flooded;
+        
+        ChannelState(GuildState guild, long now) {
+            tokens = guild.channelLimit;
+            lastRefill = now;
+        }
+        
+        boolean consume(GuildState guild, long now) {
+            double refill = (double) (now - lastRefill) / BUCKET_WINDOW_NANOS;
+            lastRefill = now;
+            lastSeen = System.currentTimeMillis();
+            tokens = Math.min(guild.channelLimit, tokens + refill * guild.channelLimit) - 1;
+            
+            // Report a flood once, then again only after the channel has calmed down
+            if (tokens < 0 && !flooded) {
+                flooded = true;
+                return true;
+            }
+            if (tokens >= guild.channelLimit / 2.0) {
+                flooded = false;
+            }
+            return false;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.antinuke.bot.monitoring;
 
 import com.antinuke.bot.config.BotConfig;
 import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.recovery.ContainmentSystem;
 import com.antinuke.bot.recovery.FastRecoverySystem;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.audit.ActionType;
@@ -24,17 +25,22 @@ public class ThreatDetectionSystem {
     private final JDA jda;
     private final JsonDatabase database;
     private final FastRecoverySystem recoverySystem;
+    private final ContainmentSystem containmentSystem;
     private final Map<String, Map<String, ActionTracker>> guildUserActions;
     private final Map<String, List<Long>> raidJoinTracking;
+    private final Map<String, Map<String, Long>> recentOffenders;
     private final ScheduledExecutorService cleanupScheduler;
     
-    public ThreatDetectionSystem(BotConfig config, JDA jda, JsonDatabase database, FastRecoverySystem recoverySystem) {
+    public ThreatDetectionSystem(BotConfig config, JDA jda, JsonDatabase database, FastRecoverySystem recoverySystem,
+                                 ContainmentSystem containmentSystem) {
         this.config = config;
         this.jda = jda;
         this.database = database;
         this.recoverySystem = recoverySystem;
+        this.containmentSystem = containmentSystem;
         this.guildUserActions = new ConcurrentHashMap<>();
         this.raidJoinTracking = new ConcurrentHashMap<>();
+        this.recentOffenders = new ConcurrentHashMap<>();
         this.cleanupScheduler = Executors.newScheduledThreadPool(1);
         
         // Cleanup old tracking data every minute
@@ -45,6 +51,13 @@ public class ThreatDetectionSystem {
      * Record an action and check if it's suspicious
      */
     public ThreatAssessment recordAction(String guildId, String userId, ActionType actionType, String targetId) {
+        return recordActions(guildId, userId, actionType, 1);
+    }
+    
+    /**
+     * Record several actions of one kind at once, e.g. a prune or an aggregated burst of events
+     */
+    public ThreatAssessment recordActions(String guildId, String userId, ActionType actionType, int count) {
         JsonDatabase.GuildData guildData = database.getGuildData(guildId);
         if (!guildData.isAntiNukeEnabled()) {
             return new ThreatAssessment(false, 0, "Antinuke disabled");
@@ -59,12 +72,12 @@ public class ThreatDetectionSystem {
         Map<String, ActionTracker> guildActions = guildUserActions.computeIfAbsent(guildId, k -> new ConcurrentHashMap<>());
         ActionTracker tracker = guildActions.computeIfAbsent(userId, k -> new ActionTracker());
         
-        // Record the action
-        tracker.recordAction(actionType);
+        // Record the actions
+        tracker.recordAction(actionType, count);
         
         // Check if action count exceeds threshold
         int actionCount = tracker.getActionCount(actionType, 60); // Last 60 seconds
-        int threshold = getThreshold(actionType);
+        int threshold = getThreshold(guildData, actionType);
         
         if (actionCount >= threshold) {
             logger.warn("THREAT DETECTED: User {} in guild {} performed {} {} actions in 60s (threshold: {})",
@@ -93,21 +106,16 @@ public class ThreatDetectionSystem {
             return true;
         }
         
-        // Check role whitelist
-        try {
-            Guild guild = jda.getGuildById(guildId);
-            if (guild != null) {
-                Member member = guild.retrieveMemberById(userId).complete();
-                if (member != null) {
-                    for (Role role : member.getRoles()) {
-                        if (guildData.getWhitelistedRoles().contains(role.getId())) {
-                            return true;
-                        }
-                    }
+        // Check role whitelist. Every member is cached, so this never waits on a request;
+        // it is called from gateway event threads.
+        Guild guild = jda.getGuildById(guildId);
+        Member member = guild != null ? guild.getMemberById(userId) : null;
+        if (member != null) {
+            for (Role role : member.getRoles()) {
+                if (guildData.getWhitelistedRoles().contains(role.getId())) {
+                    return true;
                 }
             }
-        } catch (Exception e) {
-            logger.debug("Error checking role whitelist for user: {}", userId);
         }
         
         return false;
@@ -140,6 +148,14 @@ public class ThreatDetectionSystem {
      * Execute punishment for malicious user
      */
     public void executePunishment(String guildId, String userId, String reason) {
+        executePunishment(guildId, userId, reason, false);
+    }
+    
+    /**
+     * Execute punishment; destructive offenders (mass deletions, bans, kicks and prunes
+     * over their threshold) also count toward a guild-wide permission freeze
+     */
+    public void executePunishment(String guildId, String userId, String reason, boolean destructive) {
         try {
             Guild guild = jda.getGuildById(guildId);
             if (guild == null) return;
@@ -191,11 +207,36 @@ public class ThreatDetectionSystem {
             // Log to configured channel
             logThreat(guild, userId, reason, punishmentType);
             
+            // Several attackers destroying in parallel - contain the whole guild
+            if (destructive) checkContainment(guild, userId);
+            
         } catch (Exception e) {
             logger.error("Error executing punishment for user: {}", userId, e);
         }
     }
     
+    /**
+     * Freeze dangerous permissions guild-wide once enough distinct users were punished
+     * for destructive actions within a minute, since punishing one account at a time
+     * cannot keep up with several compromised admin tokens. Single-action punishments
+     * such as a permission grant or a bot invite do not count.
+     */
+    private void checkContainment(Guild guild, String userId) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Map<String, Long> offenders = recentOffenders.computeIfAbsent(guild.getId(), k -> new ConcurrentHashMap<>());
+        long now = System.currentTimeMillis();
+        offenders.put(userId, now);
+        offenders.values().removeIf(timestamp -> timestamp < now - 60_000);
+        
+        int threshold = guildData.getThresholds().getOrDefault("freezeOffenders", 3);
+        if (offenders.size() >= threshold && !containmentSystem.isFrozen(guild.getId())) {
+            logger.warn("INCIDENT: {} distinct offenders in guild {} - freezing permissions", offenders.size(), guild.getId());
+            containmentSystem.freezePermissions(guild, offenders.size() + " offenders within 60s").thenAccept(result -> {
+                logger.info("Freeze result: {} - {}", result.success, result.message);
+            });
+        }
+    }
+    
     /**
      * Trigger recovery after attack
      */
@@ -228,6 +269,27 @@ public class ThreatDetectionSystem {
                     });
                     break;
                     
+                case MEMBER_ROLE_UPDATE:
+                    // Re-add roles stripped from members
+                    recoverySystem.restoreMembersRoles(guild, affectedIds).thenAccept(result -> {
+                        logger.info("Recovery result: {} - {}", result.success, result.message);
+                    });
+                    break;
+                    
+                case EMOJI_DELETE:
+                    // Re-upload deleted emojis from the asset store
+                    recoverySystem.recoverEmojis(guild, affectedIds).thenAccept(result -> {
+                        logger.info("Recovery result: {} - {}", result.success, result.message);
+                    });
+                    break;
+                    
+                case STICKER_DELETE:
+                    // Re-upload deleted stickers from the asset store
+                    recoverySystem.recoverStickers(guild, affectedIds).thenAccept(result -> {
+                        logger.info("Recovery result: {} - {}", result.success, result.message);
+                    });
+                    break;
+                    
                 default:
                     logger.debug("No recovery action defined for: {}", actionType);
             }
@@ -237,7 +299,7 @@ public class ThreatDetectionSystem {
         }
     }
     
-    private int getThreshold(ActionType actionType) {
+    private int getThreshold(JsonDatabase.GuildData guildData, ActionType actionType) {
         // Use default thresholds from config
         BotConfig.ThresholdsConfig thresholds = config.getAntiNuke().getThresholds();
         
@@ -257,6 +319,10 @@ public class ThreatDetectionSystem {
             case WEBHOOK_CREATE:
             case WEBHOOK_UPDATE:
                 return thresholds.getWebhookThreshold();
+            case PRUNE:
+                return guildData.getThresholds().getOrDefault("pruneMembers", 10);
+            case MEMBER_ROLE_UPDATE:
+                return guildData.getThresholds().getOrDefault("roleRemovals", 10);
             default:
                 return 5; // Default threshold
         }
@@ -299,6 +365,11 @@ public class ThreatDetectionSystem {
         raidJoinTracking.values().forEach(joins -> {
             joins.removeIf(timestamp -> timestamp < cutoff);
         });
+        
+        // Cleanup offender tracking
+        recentOffenders.values().forEach(offenders -> {
+            offenders.values().removeIf(timestamp -> timestamp < cutoff);
+        });
     }
     
     public void shutdown() {
@@ -306,26 +377,51 @@ public class ThreatDetectionSystem {
     }
     
     // Helper classes
+    /**
+     * Per-user action counts. Each record keeps one timestamp with its count, so a prune
+     * or an aggregated burst costs one entry however many members it covered.
+     */
     public static class ActionTracker {
-        private final Map<ActionType, List<Long>> actions = new ConcurrentHashMap<>();
+        private final Map<ActionType, ArrayDeque<long[]>> actions = new ConcurrentHashMap<>();
         
         public void recordAction(ActionType actionType) {
-            actions.computeIfAbsent(actionType, k -> new CopyOnWriteArrayList<>())
-                    .add(System.currentTimeMillis());
+            recordAction(actionType, 1);
+        }
+        
+        public void recordAction(ActionType actionType, int count) {
+            if (count <= 0) return;
+            ArrayDeque<long[]> records = actions.computeIfAbsent(actionType, k -> new ArrayDeque<>());
+            synchronized (records) {
+                records.addLast(new long[]{System.currentTimeMillis(), count});
+            }
         }
         
         public int getActionCount(ActionType actionType, int secondsWindow) {
-            List<Long> actionList = actions.get(actionType);
-            if (actionList == null) return 0;
+            ArrayDeque<long[]> records = actions.get(actionType);
+            if (records == null) return 0;
             
             long cutoff = System.currentTimeMillis() - (secondsWindow * 1000L);
-            return (int) actionList.stream()
-                    .filter(timestamp -> timestamp >= cutoff)
-                    .count();
+            long total = 0;
+            synchronized (records) {
+                // Records are appended in time order, so the newest are at the tail
+                Iterator<long[]> iterator = records.descendingIterator();
+                while (iterator.hasNext()) {
+                    long[] record = iterator.next();
+                    if (record[0] < cutoff) break;
+                    total += record[1];
+                }
+            }
+            return (int) Math.min(Integer.MAX_VALUE, total);
         }
         
         public void cleanup(long cutoff) {
-            actions.values().forEach(list -> list.removeIf(timestamp -> timestamp < cutoff));
+            actions.values().forEach(records -> {
+                synchronized (records) {
+                    while (!records.isEmpty() && records.peekFirst()[0] < cutoff) {
+                        records.pollFirst();
+                    }
+                }
+            });
         }
     }
     
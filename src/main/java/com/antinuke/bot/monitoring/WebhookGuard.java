@@ -0,0 +1,280 @@
+package com.antinuke.bot.monitoring;
+
+import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.recovery.FastRecoverySystem;
+import com.antinuke.bot.utils.LongObjectMap;
+import net.dv8tion.jda.api.audit.ActionType;
+import net.dv8tion.jda.api.audit.AuditLogChange;
+import net.dv8tion.jda.api.audit.AuditLogEntry;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook Guard - Enforces the antiWebhook protection.
+ *
+ * Keeps an in-memory registry of webhooks per guild, seeded from the recovery
+ * snapshot and kept current from the gateway audit log stream. Webhook messages
+ * are rate-tracked by webhook id (the message author id), so detection needs no
+ * REST lookup. Offending webhooks are deleted in parallel through the direct API.
+ * Interaction responses, application-owned webhooks and followed-channel crossposts
+ * are not user webhooks and are never tracked.
+ */
+public class WebhookGuard {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookGuard.class);
+    
+    private static final long BUCKET_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int MASS_MENTION_WEIGHT = 5;
+    
+    private final JsonDatabase database;
+    private final ThreatDetectionSystem threatDetector;
+    private final FastRecoverySystem recoverySystem;
+    private final DualMonitoringSystem directApi;
+    private final LongObjectMap<GuildRegistry> registries;
+    
+    public WebhookGuard(JsonDatabase database, ThreatDetectionSystem threatDetector,
+                        FastRecoverySystem recoverySystem, DualMonitoringSystem directApi) {
+        this.database = database;
+        this.threatDetector = threatDetector;
+        this.recoverySystem = recoverySystem;
+        this.directApi = directApi;
+        this.registries = new LongObjectMap<>(64);
+    }
+    
+    /**
+     * Rate-track a message sent by a webhook
+     */
+    public void onWebhookMessage(MessageReceivedEvent event) {
+        Guild guild = event.getGuild();
+        Message message = event.getMessage();
+        if (!isUserWebhook(message)) return;
+        long now = System.nanoTime();
+        
+        GuildRegistry registry = getRegistry(guild.getIdLong(), now);
+        if (!registry.enabled) return;
+        
+        long webhookId = event.getAuthor().getIdLong();
+        int weight = message.getMentions().mentionsEveryone() ? MASS_MENTION_WEIGHT : 1;
+        WebhookEntry flooded = null;
+        
+        synchronized (registry) {
+            WebhookEntry webhook = registry.webhooks.get(webhookId);
+            if (webhook == null) {
+                // Unknown webhooks are tracked right away; their metadata arrives with the audit entry
+                webhook = new WebhookEntry(webhookId, event.getChannel().getIdLong(), null, null);
+                registry.webhooks.put(webhookId, webhook);
+            }
+            if (webhook.deleting) return;
+            
+            double refill = (double) (now - webhook.lastRefill) / BUCKET_WINDOW_NANOS * registry.messageLimit;
+            webhook.tokens = Math.min(registry.messageLimit, webhook.tokens + refill);
+            webhook.lastRefill = now;
+            webhook.tokens -= weight;
+            
+            if (webhook.tokens < 0) {
+                webhook.deleting = true;
+                flooded = webhook;
+            }
+        }
+        
+        if (flooded != null) {
+            onFlood(guild, registry, flooded);
+        }
+    }
+    
+    /**
+     * Handle a WEBHOOK_CREATE, WEBHOOK_UPDATE or WEBHOOK_REMOVE audit log entry
+     */
+    public void handleAuditEntry(Guild guild, AuditLogEntry entry) {
+        GuildRegistry registry = getRegistry(guild.getIdLong(), System.nanoTime());
+        long webhookId = entry.getTargetIdLong();
+        String executorId = entry.getUserId();
+        
+        synchronized (registry) {
+            if (entry.getType() == ActionType.WEBHOOK_REMOVE) {
+                registry.webhooks.remove(webhookId);
+                return;
+            }
+            
+            WebhookEntry webhook = registry.webhooks.get(webhookId);
+            if (webhook == null) {
+                webhook = new WebhookEntry(webhookId, 0, null, null);
+                registry.webhooks.put(webhookId, webhook);
+            }
+            AuditLogChange channelChange = entry.getChangeByKey("channel_id");
+            if (channelChange != null && channelChange.getNewValue() != null) {
+                webhook.channelId = Long.parseLong(channelChange.getNewValue().toString());
+            }
+            if (entry.getType() == ActionType.WEBHOOK_CREATE) {
+                webhook.creatorId = executorId;
+            }
+        }
+        
+        if (!registry.enabled || executorId == null || isTrusted(guild, executorId)) return;
+        
+        ThreatDetectionSystem.ThreatAssessment assessment =
+                threatDetector.recordAction(guild.getId(), executorId, entry.getType(), entry.getTargetId());
+        if (assessment.isThreat) {
+            threatDetector.executePunishment(guild.getId(), executorId, assessment.reason);
+            deleteWebhooksBy(guild, registry, executorId, "Antinuke: Webhook abuse");
+        }
+    }
+    
+    /**
+     * Number of webhooks currently known for a guild
+     */
+    public int getKnownWebhooks(String guildId) {
+        GuildRegistry registry;
+        synchronized (registries) {
+            registry = registries.get(Long.parseLong(guildId));
+        }
+        if (registry == null) return 0;
+        synchronized (registry) {
+            return registry.webhooks.size();
+        }
+    }
+    
+    private void onFlood(Guild guild, GuildRegistry registry, WebhookEntry webhook) {
+        logger.warn("WEBHOOK FLOOD: Webhook {} in guild {} exceeded {} messages per 5s",
+                webhook.id, guild.getId(), registry.messageLimit);
+        
+        String creatorId = webhook.creatorId;
+        if (creatorId != null && !isTrusted(guild, creatorId)) {
+            // Everything the creator set up goes at once, not one webhook per flood
+            deleteWebhooksBy(guild, registry, creatorId, "Antinuke: Webhook flood");
+            threatDetector.executePunishment(guild.getId(), creatorId, "Webhook message flood");
+        } else {
+            deleteWebhooks(guild, registry, List.of(webhook), "Antinuke: Webhook flood");
+        }
+    }
+    
+    private void deleteWebhooksBy(Guild guild, GuildRegistry registry, String creatorId, String reason) {
+        List<WebhookEntry> targets = new ArrayList<>();
+        synchronized (registry) {
+            registry.webhooks.forEachValue(webhook -> {
+                if (creatorId.equals(webhook.creatorId)) {
+                    webhook.deleting = true;
+                    targets.add(webhook);
+                }
+            });
+        }
+        deleteWebhooks(guild, registry, targets, reason);
+    }
+    
+    /**
+     * Fire all deletions at once. The token route is used when the token is known,
+     * which does not share the bot's per-guild webhook bucket. A webhook whose
+     * deletion failed is tracked again, so its next message over the limit retries it.
+     */
+    private void deleteWebhooks(Guild guild, GuildRegistry registry, List<WebhookEntry> targets, String reason) {
+        if (targets.isEmpty()) return;
+        
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> deletions = new ArrayList<>(targets.size());
+        for (WebhookEntry webhook : targets) {
+            // Abusive webhooks must not come back with the next recovery
+            recoverySystem.forgetWebhook(guild.getId(), String.valueOf(webhook.id));
+            deletions.add(directApi.deleteWebhookDirect(String.valueOf(webhook.id), webhook.token, reason));
+        }
+        
+        CompletableFuture.allOf(deletions.toArray(new CompletableFuture[0])).thenRun(() -> {
+            int deleted = 0;
+            for (int i = 0; i < deletions.size(); i++) {
+                if (deletions.get(i).join()) {
+                    deleted++;
+                } else {
+                    synchronized (registry) {
+                        targets.get(i).deleting = false;
+                    }
+                }
+            }
+            logger.info("Deleted {}/{} webhooks in guild {} in {} ms",
+                    deleted, targets.size(), guild.getId(), System.currentTimeMillis() - start);
+        });
+    }
+    
+    private GuildRegistry getRegistry(long guildId, long now) {
+        GuildRegistry registry;
+        synchronized (registries) {
+            registry = registries.get(guildId);
+            if (registry == null) {
+                registry = new GuildRegistry();
+                registries.put(guildId, registry);
+            }
+        }
+        if (now - registry.refreshedAt > REFRESH_NANOS || registry.refreshedAt == 0) {
+            refresh(guildId, registry, now);
+        }
+        return registry;
+    }
+    
+    // Re-read the protection flags and merge webhooks captured by newer snapshots
+    private void refresh(long guildId, GuildRegistry registry, long now) {
+        String id = Long.toString(guildId);
+        JsonDatabase.GuildData guildData = database.getGuildData(id);
+        registry.enabled = guildData.isAntiNukeEnabled()
+                && guildData.getProtections().getOrDefault("antiWebhook", true);
+        registry.messageLimit = Math.max(1, guildData.getThresholds().getOrDefault("webhookMessages", 10));
+        
+        List<FastRecoverySystem.WebhookSnapshot> snapshots = recoverySystem.getCachedWebhooks(id);
+        synchronized (registry) {
+            for (FastRecoverySystem.WebhookSnapshot snapshot : snapshots) {
+                long webhookId = Long.parseLong(snapshot.getId());
+                WebhookEntry webhook = registry.webhooks.get(webhookId);
+                if (webhook == null) {
+                    long channelId = snapshot.getChannelId() != null ? Long.parseLong(snapshot.getChannelId()) : 0;
+                    registry.webhooks.put(webhookId, new WebhookEntry(webhookId, channelId, snapshot.getToken(), snapshot.getOwnerId()));
+                } else {
+                    if (webhook.token == null) webhook.token = snapshot.getToken();
+                    if (webhook.creatorId == null) webhook.creatorId = snapshot.getOwnerId();
+                }
+            }
+            registry.refreshedAt = now;
+        }
+    }
+    
+    // Slash-command responses come from the application's own webhook, whose id is the application id
+    private static boolean isUserWebhook(Message message) {
+        if (message.getInteraction() != null) return false;
+        if (message.getFlags().contains(Message.MessageFlag.IS_CROSSPOST)) return false;
+        return message.getApplicationIdLong() == 0 || message.getApplicationIdLong() != message.getAuthor().getIdLong();
+    }
+    
+    private boolean isTrusted(Guild guild, String userId) {
+        if (userId.equals(guild.getSelfMember().getId())) return true;
+        if (userId.equals(guild.getOwnerId())) return true;
+        return threatDetector.isWhitelisted(guild.getId(), userId);
+    }
+    
+    private static class GuildRegistry {
+        final LongObjectMap<WebhookEntry> webhooks = new LongObjectMap<>();
+        volatile boolean enabled;
+        volatile int messageLimit = 10;
+        volatile long refreshedAt;
+    }
+    
+    private static class WebhookEntry {
+        final long id;
+        long channelId;
+        String token;
+        String creatorId;
+        double tokens = Double.MAX_VALUE;
+        long lastRefill = System.nanoTime();
+        boolean deleting;
+        
+        WebhookEntry(long id, long channelId, String token, String creatorId) {
+            this.id = id;
+            this.channelId = channelId;
+            this.token = token;
+            this.creatorId = creatorId;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.antinuke.bot.recovery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.dv8tion.jda.api.entities.Icon;
+import net.dv8tion.jda.api.utils.FileUpload;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Asset Store - Content-addressed on-disk cache for emoji, sticker and guild images.
+ *
+ * Files are named by the SHA-256 of their content, so an image shared by several
+ * guilds or snapshots is stored once. An index maps source keys (such as
+ * "emoji:<id>") to content hashes. Downloads are streamed straight to disk and
+ * bytes are only read back when an upload is built.
+ */
+public class AssetStore {
+    private static final Logger logger = LoggerFactory.getLogger(AssetStore.class);
+    private static final String ASSETS_DIR = "database/assets";
+    private static final String TEMP_DIR = ASSETS_DIR + "/tmp";
+    private static final String INDEX_FILE = ASSETS_DIR + "/index.json";
+    
+    private final OkHttpClient httpClient;
+    private final ObjectMapper mapper;
+    private final Map<String, String> index;
+    private final Set<String> inFlight;
+    private final AtomicBoolean indexDirty;
+    private final ScheduledExecutorService indexWriter;
+    
+    public AssetStore() {
+        this.httpClient = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+        this.mapper = new ObjectMapper();
+        this.index = new ConcurrentHashMap<>();
+        this.inFlight = ConcurrentHashMap.newKeySet();
+        this.indexDirty = new AtomicBoolean(false);
+        this.indexWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AssetStore-Index");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        initializeDirectories();
+        loadIndex();
+        indexWriter.scheduleAtFixedRate(this::saveIndex, 10, 10, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Download an asset in the background unless it is already stored
+     */
+    public void prefetch(String key, String url) {
+        if (url == null || contains(key)) return;
+        if (!inFlight.add(key)) return;
+        
+        Request request = new Request.Builder().url(url).build();
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                inFlight.remove(key);
+                logger.debug("Could not download asset {}: {}", key, e.getMessage());
+            }
+            
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    if (response.isSuccessful() && response.body() != null) {
+                        String hash = storeStream(response.body().byteStream());
+                        index.put(key, hash);
+                        indexDirty.set(true);
+                    } else {
+                        logger.debug("Could not download asset {}: HTTP {}", key, response.code());
+                    }
+                } catch (IOException e) {
+                    logger.debug("Could not store asset {}: {}", key, e.getMessage());
+                } finally {
+                    inFlight.remove(key);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Check if an asset is stored on disk
+     */
+    public boolean contains(String key) {
+        String hash = index.get(key);
+        return hash != null && Files.exists(pathOf(hash));
+    }
+    
+    public String getHash(String key) {
+        return index.get(key);
+    }
+    
+    /**
+     * Build an upload icon from a stored asset. The bytes are only held until the request is sent.
+     */
+    public Icon loadIcon(String key) throws IOException {
+        return loadIcon(key, Icon.IconType.PNG);
+    }
+    
+    /**
+     * Build an upload icon, labelled with the image type its first bytes show. Stored files
+     * have no extension to go by, so the expected type is only used for unrecognised data.
+     */
+    public Icon loadIcon(String key, Icon.IconType expected) throws IOException {
+        String hash = index.get(key);
+        if (hash == null) throw new NoSuchFileException(key);
+        byte[] data = Files.readAllBytes(pathOf(hash));
+        return Icon.from(data, sniffType(data, expected));
+    }
+    
+    /**
+     * Open a stored asset as a streamed file upload
+     */
+    public FileUpload openUpload(String key, String fileName) throws IOException {
+        String hash = index.get(key);
+        if (hash == null || !Files.exists(pathOf(hash))) throw new NoSuchFileException(key);
+        return FileUpload.fromData(pathOf(hash), fileName);
+    }
+    
+    public int getAssetCount() {
+        return index.size();
+    }
+    
+    public void shutdown() {
+        indexWriter.shutdown();
+        saveIndex();
+    }
+    
+    // Stream to a temp file while hashing, then move it to its content address
+    private String storeStream(InputStream input) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        
+        Path temp = Files.createTempFile(Paths.get(TEMP_DIR), "asset", ".part");
+        try {
+            try (InputStream in = new DigestInputStream(input, digest);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            
+            String hash = toHex(digest.digest());
+            Path target = pathOf(hash);
+            if (Files.exists(target)) {
+                // Same content is already stored for another guild or snapshot
+                Files.delete(temp);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return hash;
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
+    private Path pathOf(String hash) {
+        return Paths.get(ASSETS_DIR, hash.substring(0, 2), hash);
+    }
+    
+    private void initializeDirectories() {
+        try {
+            Files.createDirectories(Paths.get(TEMP_DIR));
+        } catch (IOException e) {
+            logger.error("Failed to create asset directories", e);
+        }
+    }
+    
+    private void loadIndex() {
+        File file = new File(INDEX_FILE);
+        if (!file.exists()) return;
+        try {
+            index.putAll(mapper.readValue(file, new TypeReference<Map<String, String>>() {}));
+            logger.info("Loaded asset index ({} entries)", index.size());
+        } catch (IOException e) {
+            logger.error("Failed to load asset index", e);
+        }
+    }
+    
+    private synchronized void saveIndex() {
+        if (!indexDirty.getAndSet(false)) return;
+        try {
+            Path temp = Paths.get(INDEX_FILE + ".tmp");
+            mapper.writeValue(temp.toFile(), index);
+            Files.move(temp, Paths.get(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            indexDirty.set(true);
+            logger.error("Failed to save asset index", e);
+        }
+    }
+    
+    private static Icon.IconType sniffType(byte[] data, Icon.IconType expected) {
+        if (startsWith(data, 0, 0x89, 'P', 'N', 'G')) return Icon.IconType.PNG;
+        if (startsWith(data, 0, 'G', 'I', 'F', '8')) return Icon.IconType.GIF;
+        if (startsWith(data, 0, 0xFF, 0xD8, 0xFF)) return Icon.IconType.JPEG;
+        if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P')) return Icon.IconType.WEBP;
+        return expected;
+    }
+    
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,248 @@
+package com.antinuke.bot.recovery;
+
+import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.monitoring.PermissionGuard;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.PermissionOverride;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.StandardGuildMessageChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Containment System - Guild-wide emergency measures that cap damage while an
+ * incident is in progress, independent of punishing individual users.
+ */
+public class ContainmentSystem {
+    private static final Logger logger = LoggerFactory.getLogger(ContainmentSystem.class);
+    
+    // Permissions denied to @everyone during a lockdown
+    public static final long LOCKDOWN_PERMISSIONS = Permission.getRaw(
+            Permission.MESSAGE_SEND,
+            Permission.CREATE_INSTANT_INVITE
+    );
+    
+    // Overwrite edits use a per-channel bucket, so only the global limit (50/s) caps parallelism
+    private static final int LOCKDOWN_IN_FLIGHT = 40;
+    
+    private final JsonDatabase database;
+    private final int maxInFlight;
+    private final RequestPipeline pipeline;
+    private final Map<String, RequestBatch> lockdownProgress;
+    
+    public ContainmentSystem(JsonDatabase database, int maxInFlight, RequestPipeline pipeline) {
+        this.database = database;
+        this.maxInFlight = maxInFlight;
+        this.pipeline = pipeline;
+        this.lockdownProgress = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Strip dangerous permission bits from every non-whitelisted role.
+     * The original bitmasks are recorded in the guild data so they survive a restart.
+     */
+    public CompletableFuture<FastRecoverySystem.RecoveryResult> freezePermissions(Guild guild, String reason) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Map<String, Long> frozen = guildData.getFrozenPermissions();
+        Member self = guild.getSelfMember();
+        
+        // Plan: most dangerous roles first, then from the top of the hierarchy down
+        List<Role> targets = new ArrayList<>();
+        for (Role role : guild.getRoles()) {
+            if (role.isManaged()) continue;
+            if ((role.getPermissionsRaw() & PermissionGuard.DANGEROUS_PERMISSIONS) == 0) continue;
+            if (guildData.getWhitelistedRoles().contains(role.getId())) continue;
+            if (!self.canInteract(role)) continue;
+            targets.add(role);
+        }
+        targets.sort(Comparator
+                .comparing((Role role) -> !role.hasPermission(Permission.ADMINISTRATOR))
+                .thenComparing(Comparator.comparingInt(Role::getPosition).reversed()));
+        
+        if (targets.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                new FastRecoverySystem.RecoveryResult(true, "No roles to freeze", 0));
+        }
+        
+        logger.warn("PERMISSION FREEZE in guild: {} ({} roles) - Reason: {}", guild.getName(), targets.size(), reason);
+        
+        RequestBatch batch = new RequestBatch("freeze:" + guild.getId(), maxInFlight,
+                pipeline, RequestPipeline.Lane.CONTAINMENT);
+        for (Role role : targets) {
+            // Keep the first recorded mask if the guild is frozen twice
+            frozen.putIfAbsent(role.getId(), role.getPermissionsRaw());
+            long stripped = role.getPermissionsRaw() & ~PermissionGuard.DANGEROUS_PERMISSIONS;
+            batch.add(() -> role.getManager()
+                    .setPermissions(stripped)
+                    .reason("Antinuke: Permission freeze - " + reason));
+        }
+        database.saveGuildData(guild.getId(), guildData);
+        database.flushGuildData(guild.getId());
+        
+        return batch.start().thenApply(result -> new FastRecoverySystem.RecoveryResult(
+                result.getFailed() == 0,
+                String.format("Froze %d/%d roles in %d ms", result.getCompleted(), result.getTotal(), result.getElapsedMillis()),
+                result.getCompleted()));
+    }
+    
+    /**
+     * Restore the exact bitmasks recorded by the last freeze
+     */
+    public CompletableFuture<FastRecoverySystem.RecoveryResult> unfreezePermissions(Guild guild) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Map<String, Long> frozen = guildData.getFrozenPermissions();
+        
+        if (frozen.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                new FastRecoverySystem.RecoveryResult(false, "Permissions are not frozen", 0));
+        }
+        
+        RequestBatch batch = new RequestBatch("unfreeze:" + guild.getId(), maxInFlight,
+                pipeline, RequestPipeline.Lane.CONTAINMENT);
+        List<String> restoredIds = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : frozen.entrySet()) {
+            Role role = guild.getRoleById(entry.getKey());
+            if (role == null) continue;
+            long original = entry.getValue();
+            restoredIds.add(role.getId());
+            batch.add(() -> role.getManager()
+                    .setPermissions(original)
+                    .reason("Antinuke: Permission freeze lifted"));
+        }
+        
+        logger.info("Lifting permission freeze in guild: {} ({} roles)", guild.getName(), restoredIds.size());
+        
+        return batch.start().thenApply(result -> {
+            if (result.getFailed() == 0) {
+                frozen.clear();
+                database.saveGuildData(guild.getId(), guildData);
+            }
+            return new FastRecoverySystem.RecoveryResult(
+                    result.getFailed() == 0,
+                    String.format("Restored %d/%d roles in %d ms", result.getCompleted(), result.getTotal(), result.getElapsedMillis()),
+                    result.getCompleted());
+        });
+    }
+    
+    public boolean isFrozen(String guildId) {
+        return !database.getGuildData(guildId).getFrozenPermissions().isEmpty();
+    }
+    
+    /**
+     * Deny SEND_MESSAGES and CREATE_INSTANT_INVITE for @everyone in every text channel.
+     * The previous @everyone overwrites are recorded so the lockdown can be reverted exactly.
+     */
+    public CompletableFuture<FastRecoverySystem.RecoveryResult> lockdown(Guild guild, String reason) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Map<String, JsonDatabase.OverwriteBackup> backups = guildData.getLockdownOverwrites();
+        Role everyone = guild.getPublicRole();
+        
+        RequestBatch batch = new RequestBatch("lockdown:" + guild.getId(), LOCKDOWN_IN_FLIGHT,
+                pipeline, RequestPipeline.Lane.CONTAINMENT);
+        for (GuildChannel channel : guild.getChannels()) {
+            if (!(channel instanceof StandardGuildMessageChannel)) continue;
+            StandardGuildMessageChannel textChannel = (StandardGuildMessageChannel) channel;
+            if (!guild.getSelfMember().hasPermission(textChannel, Permission.MANAGE_PERMISSIONS)) continue;
+            
+            PermissionOverride override = textChannel.getPermissionOverride(everyone);
+            long allowed = override != null ? override.getAllowedRaw() : 0;
+            long denied = override != null ? override.getDeniedRaw() : 0;
+            if ((denied & LOCKDOWN_PERMISSIONS) == LOCKDOWN_PERMISSIONS) continue;
+            
+            // Keep the first recorded overwrite if the guild is locked down twice
+            backups.putIfAbsent(textChannel.getId(), new JsonDatabase.OverwriteBackup(override != null, allowed, denied));
+            batch.add(() -> textChannel.upsertPermissionOverride(everyone)
+                    .setPermissions(allowed & ~LOCKDOWN_PERMISSIONS, denied | LOCKDOWN_PERMISSIONS)
+                    .reason("Antinuke: Lockdown - " + reason));
+        }
+        guildData.setLockedDown(true);
+        database.saveGuildData(guild.getId(), guildData);
+        database.flushGuildData(guild.getId());
+        
+        logger.warn("LOCKDOWN in guild: {} ({} channels) - Reason: {}", guild.getName(), batch.getTotal(), reason);
+        lockdownProgress.put(guild.getId(), batch);
+        
+        return batch.start().thenApply(result -> new FastRecoverySystem.RecoveryResult(
+                result.getFailed() == 0,
+                String.format("Locked %d/%d channels in %d ms", result.getCompleted(), result.getTotal(), result.getElapsedMillis()),
+                result.getCompleted()));
+    }
+    
+    /**
+     * Put back the exact @everyone overwrites recorded by the last lockdown
+     */
+    public CompletableFuture<FastRecoverySystem.RecoveryResult> liftLockdown(Guild guild) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guild.getId());
+        Map<String, JsonDatabase.OverwriteBackup> backups = guildData.getLockdownOverwrites();
+        
+        if (backups.isEmpty()) {
+            if (!guildData.isLockedDown()) {
+                return CompletableFuture.completedFuture(
+                    new FastRecoverySystem.RecoveryResult(false, "Server is not locked down", 0));
+            }
+            // The lockdown changed no channel, so there is nothing to put back
+            guildData.setLockedDown(false);
+            database.saveGuildData(guild.getId(), guildData);
+            return CompletableFuture.completedFuture(
+                new FastRecoverySystem.RecoveryResult(true, "Lockdown lifted (no channels were changed)", 0));
+        }
+        
+        Role everyone = guild.getPublicRole();
+        RequestBatch batch = new RequestBatch("unlock:" + guild.getId(), LOCKDOWN_IN_FLIGHT,
+                pipeline, RequestPipeline.Lane.CONTAINMENT);
+        for (Map.Entry<String, JsonDatabase.OverwriteBackup> entry : backups.entrySet()) {
+            GuildChannel channel = guild.getGuildChannelById(entry.getKey());
+            if (!(channel instanceof StandardGuildMessageChannel)) continue;
+            StandardGuildMessageChannel textChannel = (StandardGuildMessageChannel) channel;
+            JsonDatabase.OverwriteBackup backup = entry.getValue();
+            
+            if (backup.isExisted()) {
+                batch.add(() -> textChannel.upsertPermissionOverride(everyone)
+                        .setPermissions(backup.getAllowed(), backup.getDenied())
+                        .reason("Antinuke: Lockdown lifted"));
+            } else {
+                PermissionOverride override = textChannel.getPermissionOverride(everyone);
+                if (override != null) {
+                    batch.add(() -> override.delete().reason("Antinuke: Lockdown lifted"));
+                }
+            }
+        }
+        
+        logger.info("Lifting lockdown in guild: {} ({} channels)", guild.getName(), batch.getTotal());
+        lockdownProgress.put(guild.getId(), batch);
+        
+        return batch.start().thenApply(result -> {
+            if (result.getFailed() == 0) {
+                backups.clear();
+                guildData.setLockedDown(false);
+                database.saveGuildData(guild.getId(), guildData);
+            }
+            return new FastRecoverySystem.RecoveryResult(
+                    result.getFailed() == 0,
+                    String.format("Unlocked %d/%d channels in %d ms", result.getCompleted(), result.getTotal(), result.getElapsedMillis()),
+                    result.getCompleted());
+        });
+    }
+    
+    public boolean isLockedDown(String guildId) {
+        JsonDatabase.GuildData guildData = database.getGuildData(guildId);
+        return guildData.isLockedDown() || !guildData.getLockdownOverwrites().isEmpty();
+    }
+    
+    /**
+     * Progress of the most recent lockdown or unlock in a guild, or null if there was none
+     */
+    public RequestBatch getLockdownProgress(String guildId) {
+        return lockdownProgress.get(guildId);
+    }
+}
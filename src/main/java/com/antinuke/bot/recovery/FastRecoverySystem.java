@@ -1,18 +1,60 @@
 package com.antinuke.bot.recovery;
 
+import com.antinuke.bot.database.JsonDatabase;
+import com.antinuke.bot.monitoring.PermissionGuard;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.audit.AuditLogChange;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.entities.channel.concrete.Category;
-import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.IAgeRestrictedChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.ICategorizableChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.IPermissionContainer;
+import net.dv8tion.jda.api.entities.channel.attribute.IPositionableChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.IPostContainer;
+import net.dv8tion.jda.api.entities.channel.attribute.IWebhookContainer;
+import net.dv8tion.jda.api.entities.channel.attribute.ISlowmodeChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
 import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.StandardGuildMessageChannel;
+import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
+import net.dv8tion.jda.api.entities.sticker.GuildSticker;
+import net.dv8tion.jda.api.entities.sticker.Sticker;
+import net.dv8tion.jda.api.managers.GuildManager;
+import net.dv8tion.jda.api.managers.RoleManager;
+import net.dv8tion.jda.api.managers.channel.ChannelManager;
+import net.dv8tion.jda.api.managers.channel.attribute.IAgeRestrictedChannelManager;
+import net.dv8tion.jda.api.managers.channel.attribute.ICategorizableChannelManager;
+import net.dv8tion.jda.api.managers.channel.attribute.IPermissionContainerManager;
+import net.dv8tion.jda.api.managers.channel.attribute.IPositionableChannelManager;
+import net.dv8tion.jda.api.managers.channel.attribute.ISlowmodeChannelManager;
+import net.dv8tion.jda.api.managers.channel.middleman.AudioChannelManager;
+import net.dv8tion.jda.api.managers.channel.middleman.StandardGuildMessageChannelManager;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.ChannelAction;
+import net.dv8tion.jda.api.requests.restaction.WebhookAction;
+import net.dv8tion.jda.api.requests.restaction.order.RoleOrderAction;
+import net.dv8tion.jda.api.utils.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -22,302 +64,1582 @@ import java.util.stream.Collectors;
 public class FastRecoverySystem {
     private static final Logger logger = LoggerFactory.getLogger(FastRecoverySystem.class);
     
+    // How long deleted objects stay in the snapshot after the re-verify pass stops seeing them
+    private static final long TOMBSTONE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Webhook audit events arriving within this window share one guild-wide refresh
+    private static final long WEBHOOK_REFRESH_DELAY_MILLIS = 2000;
+    private static final String OFF_HEAP_DIR = "database/offheap";
+    private static final Duration SNAPSHOT_TTL = Duration.ofHours(24);
+    
+    // Point-in-time history kept for /recover as-of
+    private static final long HISTORY_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final int HISTORY_MAX_VERSIONS = 500;
+    private static final long HISTORY_DELTA_BUDGET_BYTES = 64L * 1024 * 1024;
+    
+    private final JsonDatabase database;
     private final Cache<String, ServerSnapshot> snapshotCache;
-    private final ExecutorService recoveryExecutor;
-    private final ScheduledExecutorService snapshotScheduler;
+    private final RequestPipeline pipeline;
     private final int maxConcurrentOperations;
+    private final AssetStore assetStore;
+    private final HotRecovery hotRecovery;
+    private final int offHeapMemberThreshold;
+    private final SnapshotStore snapshotStore;
+    private final SnapshotHistory snapshotHistory;
+    private final Map<String, IdRemap> idRemaps;
+    private final Map<String, SnapshotDiff> lastIntegrityChecks;
+    private final Set<String> pendingWebhookRefreshes;
+    // Guilds whose webhooks were read since startup; snapshots loaded from disk may be stale
+    private final Set<String> webhooksFetched;
+    private final long cacheMaxBytes;
+    private final AtomicLong spilledSnapshots;
     
-    public FastRecoverySystem(int cacheSize, int concurrentOperations, int snapshotIntervalSeconds) {
+    public FastRecoverySystem(JsonDatabase database, long cacheMaxBytes, int concurrentOperations, int snapshotIntervalSeconds,
+                              int offHeapMemberThreshold, AssetStore assetStore, HotRecovery hotRecovery,
+                              RequestPipeline pipeline) {
+        this.database = database;
         this.maxConcurrentOperations = concurrentOperations;
+        this.pipeline = pipeline;
+        this.assetStore = assetStore;
+        this.hotRecovery = hotRecovery;
+        this.offHeapMemberThreshold = offHeapMemberThreshold;
+        this.idRemaps = new ConcurrentHashMap<>();
+        this.lastIntegrityChecks = new ConcurrentHashMap<>();
+        this.pendingWebhookRefreshes = ConcurrentHashMap.newKeySet();
+        this.webhooksFetched = ConcurrentHashMap.newKeySet();
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.spilledSnapshots = new AtomicLong();
         
-        // High-performance cache for instant recovery
+        // Sized by estimated heap bytes, so one huge guild weighs what it costs; evicted
+        // snapshots are spilled to disk and read back on their next use. Writes that only
+        // re-apply the weight keep the entry's expiry; a new snapshot restarts it.
         this.snapshotCache = Caffeine.newBuilder()
-                .maximumSize(cacheSize)
-                .expireAfterWrite(Duration.ofHours(24))
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String guildId, ServerSnapshot snapshot) -> (int) Math.min(Integer.MAX_VALUE, estimateBytes(snapshot)))
+                .expireAfter(new Expiry<String, ServerSnapshot>() {
+                    @Override
+                    public long expireAfterCreate(String guildId, ServerSnapshot snapshot, long currentTime) {
+                        return SNAPSHOT_TTL.toNanos();
+                    }
+                    
+                    @Override
+                    public long expireAfterUpdate(String guildId, ServerSnapshot snapshot, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                    
+                    @Override
+                    public long expireAfterRead(String guildId, ServerSnapshot snapshot, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .evictionListener(this::spill)
+                .removalListener((String guildId, ServerSnapshot snapshot, RemovalCause cause) -> {
+                    // Replaced snapshots hand their member roles to the new one until it has its own
+                    if (snapshot != null && cause != RemovalCause.REPLACED) {
+                        snapshot.memberRoles.close();
+                    }
+                })
                 .recordStats()
                 .build();
         
-        // Dedicated thread pool for parallel recovery operations
-        this.recoveryExecutor = Executors.newFixedThreadPool(
-                concurrentOperations,
-                r -> {
-                    Thread t = new Thread(r, "FastRecovery-Thread");
-                    t.setDaemon(true);
-                    return t;
+        clearOffHeapStores();
+        this.snapshotStore = new SnapshotStore(snapshotCache::getIfPresent);
+        this.snapshotHistory = new SnapshotHistory(snapshotCache::getIfPresent,
+                HISTORY_RETENTION_MILLIS, HISTORY_MAX_VERSIONS, HISTORY_DELTA_BUDGET_BYTES);
+    }
+    
+    /**
+     * Create a snapshot of the entire guild state.
+     * When a snapshot already exists this is the slow re-verify pass: it replaces the
+     * delta-maintained state and keeps tombstones of recently deleted objects.
+     */
+    public void createSnapshot(Guild guild) {
+        try {
+            ServerSnapshot previous = getSnapshot(guild.getId());
+            ServerSnapshot snapshot = new ServerSnapshot();
+            snapshot.guildId = guild.getId();
+            snapshot.guildName = guild.getName();
+            snapshot.timestamp = System.currentTimeMillis();
+            snapshot.version = new AtomicLong(previous != null ? previous.version.get() + 1 : 1);
+            
+            // Capture roles with all permissions and settings
+            snapshot.roles = guild.getRoles().stream()
+                    .map(this::captureRole)
+                    .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+            // A permission freeze only strips bits for the incident; the baseline keeps the recorded masks
+            Map<String, Long> frozen = database.getGuildData(guild.getId()).getFrozenPermissions();
+            for (RoleSnapshot roleSnapshot : snapshot.roles) {
+                Long original = frozen.get(roleSnapshot.id);
+                if (original != null) roleSnapshot.permissions = original;
+            }
+            
+            // Capture channels with permissions and settings
+            snapshot.channels = guild.getChannels().stream()
+                    .map(this::captureChannel)
+                    .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+            
+            // Capture members and their roles; a re-verify keeps the old map until the new one is complete
+            snapshot.memberRoles = previous != null ? previous.memberRoles : new MemberRoleIndex();
+            guild.loadMembers().onSuccess(members -> {
+                MemberRoleStore replaced = snapshot.memberRoles;
+                snapshot.memberRoles = buildMemberRoles(guild, members);
+                if (replaced != snapshot.memberRoles) {
+                    replaced.close();
                 }
-        );
+                reweigh(snapshot);
+                snapshotStore.markMemberRolesDirty(snapshot.guildId);
+            }).onError(error -> {
+                logger.debug("Could not load members for snapshot");
+            });
+            
+            // Webhooks are kept current by webhook audit events; they are only read once per guild after startup
+            snapshot.webhooks = previous != null && previous.webhooks != null ? previous.webhooks : new ConcurrentHashMap<>();
+            
+            // Capture guild-level settings
+            snapshot.settings = captureSettings(guild);
+            
+            // Capture emojis and stickers; their images are stored on disk in the background
+            snapshot.emojis = guild.getEmojis().stream()
+                    .filter(emoji -> !emoji.isManaged())
+                    .map(this::captureEmoji)
+                    .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+            snapshot.stickers = guild.getStickers().stream()
+                    .filter(sticker -> sticker.getFormatType() != Sticker.StickerFormat.LOTTIE)
+                    .map(this::captureSticker)
+                    .collect(Collectors.toCollection(CopyOnWriteArrayList::new));
+            
+            // Deleted objects stay recoverable for a while even across re-verify passes
+            if (previous != null) {
+                long cutoff = snapshot.timestamp - TOMBSTONE_TTL_MILLIS;
+                carryTombstones(previous.roles, snapshot.roles, r -> r.id, r -> r.deletedAt, cutoff);
+                carryTombstones(previous.channels, snapshot.channels, c -> c.id, c -> c.deletedAt, cutoff);
+                carryTombstones(previous.emojis, snapshot.emojis, e -> e.id, e -> e.deletedAt, cutoff);
+                carryTombstones(previous.stickers, snapshot.stickers, s -> s.id, s -> s.deletedAt, cutoff);
+            }
+            
+            // Store snapshot in cache for instant recovery
+            snapshotCache.put(guild.getId(), snapshot);
+            snapshotCache.policy().expireVariably().ifPresent(expiry -> expiry.setExpiresAfter(guild.getId(), SNAPSHOT_TTL));
+            markDirty(snapshot.guildId);
+            hotRecovery.stageAll(snapshot.guildId, grantablePermissions(guild), guild.getMaxBitrate(), snapshot);
+            if (!webhooksFetched.contains(snapshot.guildId)) {
+                refreshWebhooks(guild);
+            }
+            logger.info("{} snapshot for guild: {} (version {}, {} roles, {} channels, {} members)",
+                    previous != null ? "Re-verified" : "Created", guild.getName(), snapshot.version.get(),
+                    snapshot.roles.size(), snapshot.channels.size(), snapshot.memberRoles.size());
+                    
+        } catch (Exception e) {
+            logger.error("Error creating snapshot for guild: {}", guild.getId(), e);
+        }
+    }
+    
+    // Giant guilds keep member roles in a mapped file so they stay off the heap
+    private MemberRoleStore buildMemberRoles(Guild guild, List<Member> members) {
+        if (offHeapMemberThreshold > 0 && members.size() >= offHeapMemberThreshold) {
+            Path file = offHeapFile(guild.getId());
+            try {
+                MappedMemberRoleStore store = MappedMemberRoleStore.create(file, guild.getRoles(), members);
+                logger.info("Stored member roles of guild {} off-heap ({} members, {} KB)",
+                        guild.getName(), store.size(), store.getFileBytes() / 1024);
+                return store;
+            } catch (IOException e) {
+                logger.warn("Could not store member roles of guild {} off-heap, keeping them on the heap", guild.getId(), e);
+            }
+        }
+        
+        MemberRoleIndex memberRoles = new MemberRoleIndex(members.size());
+        members.forEach(member -> {
+            memberRoles.put(member.getIdLong(), 
+                member.getRoles().stream()
+                    .mapToLong(Role::getIdLong)
+                    .toArray());
+        });
+        return memberRoles;
+    }
+    
+    // Stores from a previous run are never reopened, since snapshots are rebuilt on startup
+    private void clearOffHeapStores() {
+        Path dir = Paths.get(OFF_HEAP_DIR);
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not clear off-heap member role stores", e);
+        }
+    }
+    
+    /**
+     * Apply a created role, or an update whose audit executor is trusted. Untrusted
+     * updates never reach the snapshot; the prior state stays until the next re-verify.
+     * Permission bits are left to the permission guard, which only accepts them into
+     * the baseline once the change is known to be safe.
+     */
+    public void upsertRole(Role role) {
+        ServerSnapshot snapshot = getSnapshot(role.getGuild().getId());
+        if (snapshot == null) return;
+        
+        RoleSnapshot updated = captureRole(role);
+        RoleSnapshot existing = findRoleSnapshot(snapshot.guildId, role.getId());
+        if (existing != null) {
+            updated.permissions = existing.permissions;
+        }
+        replaceById(snapshot.roles, updated, r -> r.id);
+        touch(snapshot);
+        hotRecovery.stage(snapshot.guildId, updated);
+    }
+    
+    /**
+     * Keep a deleted role as a tombstone so it can still be recovered
+     */
+    public void markRoleDeleted(String guildId, String roleId) {
+        RoleSnapshot existing = findRoleSnapshot(guildId, roleId);
+        if (existing != null && existing.deletedAt == 0) {
+            existing.deletedAt = System.currentTimeMillis();
+            bumpVersion(guildId);
+        }
+    }
+    
+    /**
+     * Apply a created channel, or an update whose audit executor is trusted. Like role
+     * permissions, dangerous overwrite bits keep their previous value; the permission
+     * guard reverts escalations, so an overwrite change is never taken into the baseline
+     * as it happens.
+     */
+    public void upsertChannel(GuildChannel channel) {
+        ServerSnapshot snapshot = getSnapshot(channel.getGuild().getId());
+        if (snapshot == null) return;
+        
+        ChannelSnapshot updated = captureChannel(channel);
+        for (ChannelSnapshot existing : snapshot.channels) {
+            if (!existing.id.equals(updated.id)) continue;
+            updated.roleOverwrites = keepDangerousBits(existing.roleOverwrites, updated.roleOverwrites);
+            updated.memberOverwrites = keepDangerousBits(existing.memberOverwrites, updated.memberOverwrites);
+            break;
+        }
+        replaceById(snapshot.channels, updated, c -> c.id);
+        touch(snapshot);
+        hotRecovery.stage(snapshot.guildId, updated);
+    }
+    
+    public void markChannelDeleted(String guildId, String channelId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null) return;
+        
+        for (ChannelSnapshot channelSnapshot : snapshot.channels) {
+            if (channelSnapshot.id.equals(channelId) && channelSnapshot.deletedAt == 0) {
+                channelSnapshot.deletedAt = System.currentTimeMillis();
+                touch(snapshot);
+            }
+        }
+    }
+    
+    /**
+     * Apply roles added to a member. Removals are only taken over when a trusted executor
+     * made them (see {@link #removeMemberRoles}), so a mass role strip cannot erase the
+     * data needed to undo it. Dangerous roles are left to the re-verify pass.
+     */
+    public void addMemberRoles(Member member, List<Role> added) {
+        ServerSnapshot snapshot = getSnapshot(member.getGuild().getId());
+        if (snapshot == null) return;
+        
+        long[] safeRoleIds = added.stream()
+                .filter(role -> (role.getPermissionsRaw() & PermissionGuard.DANGEROUS_PERMISSIONS) == 0)
+                .mapToLong(Role::getIdLong)
+                .toArray();
+        if (safeRoleIds.length == 0) return;
+        
+        snapshot.memberRoles.addRoles(member.getIdLong(), safeRoleIds);
+        touch(snapshot);
+        snapshotStore.markMemberRolesDirty(snapshot.guildId);
+    }
+    
+    /**
+     * Apply roles a trusted executor removed from a member, so recovery does not give them back
+     */
+    public void removeMemberRoles(String guildId, long memberId, long[] removed) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null || removed.length == 0) return;
+        
+        snapshot.memberRoles.removeRoles(memberId, removed);
+        touch(snapshot);
+        snapshotStore.markMemberRolesDirty(snapshot.guildId);
+    }
+    
+    public void upsertEmoji(RichCustomEmoji emoji) {
+        ServerSnapshot snapshot = getSnapshot(emoji.getGuild().getId());
+        if (snapshot == null || snapshot.emojis == null || emoji.isManaged()) return;
+        
+        replaceById(snapshot.emojis, captureEmoji(emoji), e -> e.id);
+        touch(snapshot);
+    }
+    
+    public void markEmojiDeleted(String guildId, String emojiId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null || snapshot.emojis == null) return;
+        
+        for (EmojiSnapshot emojiSnapshot : snapshot.emojis) {
+            if (emojiSnapshot.id.equals(emojiId) && emojiSnapshot.deletedAt == 0) {
+                emojiSnapshot.deletedAt = System.currentTimeMillis();
+                touch(snapshot);
+            }
+        }
+    }
+    
+    public void upsertSticker(GuildSticker sticker) {
+        ServerSnapshot snapshot = getSnapshot(sticker.getGuildId());
+        if (snapshot == null || snapshot.stickers == null) return;
+        if (sticker.getFormatType() == Sticker.StickerFormat.LOTTIE) return;
         
-        // Scheduled snapshots for always having recent state
-        this.snapshotScheduler = Executors.newScheduledThreadPool(1);
+        replaceById(snapshot.stickers, captureSticker(sticker), s -> s.id);
+        touch(snapshot);
+    }
+    
+    public void markStickerDeleted(String guildId, String stickerId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null || snapshot.stickers == null) return;
+        
+        for (StickerSnapshot stickerSnapshot : snapshot.stickers) {
+            if (stickerSnapshot.id.equals(stickerId) && stickerSnapshot.deletedAt == 0) {
+                stickerSnapshot.deletedAt = System.currentTimeMillis();
+                touch(snapshot);
+            }
+        }
+    }
+    
+    /**
+     * Re-read every webhook of a guild in one request and merge them into the snapshot.
+     * Webhooks that disappeared are kept as tombstones so recovery can recreate them.
+     * Calls made while a refresh is pending join it, so a burst of webhook changes
+     * costs a single request.
+     */
+    public void refreshWebhooks(Guild guild) {
+        String guildId = guild.getId();
+        if (!pendingWebhookRefreshes.add(guildId)) return;
+        
+        CompletableFuture.delayedExecutor(WEBHOOK_REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS).execute(() -> {
+            pendingWebhookRefreshes.remove(guildId);
+            try {
+                guild.retrieveWebhooks().queue(webhooks -> mergeWebhooks(guildId, webhooks),
+                        error -> logger.debug("Could not retrieve webhooks for guild: {}", guildId));
+            } catch (Exception e) {
+                logger.debug("Could not retrieve webhooks for guild {}: {}", guildId, e.getMessage());
+            }
+        });
+    }
+    
+    private void mergeWebhooks(String guildId, List<Webhook> webhooks) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null) return;
+        
+        Set<String> live = new HashSet<>();
+        for (Webhook webhook : webhooks) {
+            live.add(webhook.getId());
+            snapshot.webhooks.put(webhook.getId(), captureWebhook(webhook));
+        }
+        long now = System.currentTimeMillis();
+        long cutoff = now - TOMBSTONE_TTL_MILLIS;
+        snapshot.webhooks.values().removeIf(webhook -> webhook.deletedAt != 0 && webhook.deletedAt < cutoff);
+        for (WebhookSnapshot webhook : snapshot.webhooks.values()) {
+            if (webhook.deletedAt == 0 && !live.contains(webhook.id)) {
+                webhook.deletedAt = now;
+            }
+        }
+        webhooksFetched.add(guildId);
+        touch(snapshot);
+    }
+    
+    /**
+     * Drop a webhook from the snapshot without a tombstone, so recovery never brings it back.
+     * Used for webhooks the webhook guard deleted as abusive.
+     */
+    public void forgetWebhook(String guildId, String webhookId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot != null && snapshot.webhooks != null && snapshot.webhooks.remove(webhookId) != null) {
+            touch(snapshot);
+        }
+    }
+    
+    /**
+     * Delta version of a guild's snapshot, or 0 if there is none
+     */
+    public long getSnapshotVersion(String guildId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        return snapshot != null ? snapshot.version.get() : 0;
+    }
+    
+    private void bumpVersion(String guildId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot != null) {
+            touch(snapshot);
+        }
+    }
+    
+    // Every delta bumps the version and queues the snapshot for persistence and history
+    private void touch(ServerSnapshot snapshot) {
+        snapshot.version.incrementAndGet();
+        markDirty(snapshot.guildId);
+    }
+    
+    private void markDirty(String guildId) {
+        snapshotStore.markDirty(guildId);
+        snapshotHistory.markDirty(guildId);
+    }
+    
+    private void spill(String guildId, ServerSnapshot snapshot, RemovalCause cause) {
+        if (snapshot == null) return;
+        snapshotStore.spill(snapshot);
+        spilledSnapshots.incrementAndGet();
+        logger.debug("Spilled snapshot of guild {} to disk ({}, ~{} KB)", guildId, cause, estimateBytes(snapshot) / 1024);
+    }
+    
+    // Caffeine weighs an entry when it is written, so growth in place is re-applied by writing it again;
+    // the cache's expiry keeps the remaining time of an update, so this does not extend the entry's life
+    private void reweigh(ServerSnapshot snapshot) {
+        snapshotCache.asMap().computeIfPresent(snapshot.guildId, (guildId, cached) -> cached);
+    }
+    
+    // Rough retained size: fixed object costs plus names, overwrites and the member role store
+    static long estimateBytes(ServerSnapshot snapshot) {
+        long bytes = 256;
+        if (snapshot.roles != null) {
+            for (RoleSnapshot role : snapshot.roles) {
+                bytes += 96 + stringBytes(role.name);
+            }
+        }
+        if (snapshot.channels != null) {
+            for (ChannelSnapshot channel : snapshot.channels) {
+                bytes += 120 + stringBytes(channel.name) + stringBytes(channel.topic)
+                        + arrayBytes(channel.roleOverwrites) + arrayBytes(channel.memberOverwrites);
+            }
+        }
+        if (snapshot.webhooks != null) {
+            for (WebhookSnapshot webhook : snapshot.webhooks.values()) {
+                bytes += 160 + stringBytes(webhook.name) + stringBytes(webhook.token);
+            }
+        }
+        if (snapshot.emojis != null) {
+            for (EmojiSnapshot emoji : snapshot.emojis) {
+                bytes += 88 + stringBytes(emoji.name) + (emoji.roleIds != null ? emoji.roleIds.size() * 64L : 0);
+            }
+        }
+        if (snapshot.stickers != null) {
+            for (StickerSnapshot sticker : snapshot.stickers) {
+                bytes += 112 + stringBytes(sticker.name) + stringBytes(sticker.description) + stringBytes(sticker.fileName);
+            }
+        }
+        MemberRoleStore memberRoles = snapshot.memberRoles;
+        if (memberRoles != null) bytes += memberRoles.estimateBytes();
+        return bytes;
+    }
+    
+    private static long stringBytes(String value) {
+        return value != null ? 40 + value.length() * 2L : 0;
+    }
+    
+    private static long arrayBytes(long[] values) {
+        return values != null ? 16 + values.length * 8L : 0;
+    }
+    
+    /**
+     * Drop a guild the bot left from memory. Its snapshot stays on disk in case the bot is re-added.
+     */
+    public void releaseGuild(String guildId) {
+        ServerSnapshot snapshot = snapshotCache.getIfPresent(guildId);
+        if (snapshot != null) {
+            snapshotStore.spill(snapshot);
+        }
+        snapshotCache.invalidate(guildId);
+        snapshotHistory.remove(guildId);
+    }
+    
+    /**
+     * Estimated heap bytes of a guild's snapshot, or 0 if it is not in memory
+     */
+    public long getSnapshotBytes(String guildId) {
+        ServerSnapshot snapshot = snapshotCache.getIfPresent(guildId);
+        return snapshot != null ? estimateBytes(snapshot) : 0;
+    }
+    
+    /**
+     * Estimated heap bytes of all snapshots in memory
+     */
+    public long getCacheBytes() {
+        return snapshotCache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+    
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+    
+    public long getCachedSnapshotCount() {
+        return snapshotCache.estimatedSize();
+    }
+    
+    /**
+     * Hit, miss, load and eviction counters of the snapshot cache
+     */
+    public CacheStats getCacheStats() {
+        return snapshotCache.stats();
+    }
+    
+    /**
+     * Snapshots written to disk because they were evicted from memory
+     */
+    public long getSpilledSnapshots() {
+        return spilledSnapshots.get();
+    }
+    
+    /**
+     * Cached snapshot of a guild, read from disk on first use after a restart
+     */
+    private ServerSnapshot getSnapshot(String guildId) {
+        return snapshotCache.get(guildId, this::loadPersistedSnapshot);
+    }
+    
+    private ServerSnapshot loadPersistedSnapshot(String guildId) {
+        return snapshotStore.load(guildId, memberCount ->
+                offHeapMemberThreshold > 0 && memberCount >= offHeapMemberThreshold ? offHeapFile(guildId) : null);
+    }
+    
+    private static Path offHeapFile(String guildId) {
+        return Paths.get(OFF_HEAP_DIR, guildId + "-" + System.currentTimeMillis() + ".roles");
+    }
+    
+    /**
+     * Load every persisted snapshot in parallel so recovery is available right after a restart.
+     * Guilds that already have a snapshot in memory are left alone. Completes with the ids
+     * of the guilds that were loaded.
+     */
+    public CompletableFuture<Set<String>> warmStart() {
+        long start = System.currentTimeMillis();
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (String guildId : snapshotStore.listGuildIds()) {
+            loads.add(CompletableFuture.runAsync(() -> {
+                if (snapshotCache.getIfPresent(guildId) == null && getSnapshot(guildId) != null) {
+                    loaded.add(guildId);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenApply(v -> {
+            logger.info("Warm-loaded {} persisted snapshots in {} ms", loaded.size(), System.currentTimeMillis() - start);
+            return loaded;
+        });
+    }
+    
+    /**
+     * Ready a warm-loaded snapshot for use without capturing the guild again: stage its
+     * critical requests and fetch its webhooks once. The scheduled re-verify refreshes the rest.
+     */
+    public void resumeSnapshot(Guild guild) {
+        restageCritical(guild);
+        if (!webhooksFetched.contains(guild.getId())) {
+            refreshWebhooks(guild);
+        }
+    }
+    
+    private static <T> void replaceById(List<T> items, T item, Function<T, String> id) {
+        String itemId = id.apply(item);
+        for (int i = 0; i < items.size(); i++) {
+            if (id.apply(items.get(i)).equals(itemId)) {
+                items.set(i, item);
+                return;
+            }
+        }
+        items.add(item);
+    }
+    
+    private static <T> void carryTombstones(List<T> previous, List<T> current, Function<T, String> id,
+                                            ToLongFunction<T> deletedAt, long cutoff) {
+        if (previous == null || current == null) return;
+        Set<String> currentIds = current.stream().map(id).collect(Collectors.toSet());
+        for (T item : previous) {
+            long deleted = deletedAt.applyAsLong(item);
+            if (!currentIds.contains(id.apply(item)) && deleted != 0 && deleted >= cutoff) {
+                current.add(item);
+            }
+        }
+    }
+    
+    /**
+     * Rapidly recover deleted/modified roles
+     */
+    public CompletableFuture<RecoveryResult> recoverRoles(Guild guild, List<String> deletedRoleIds) {
+        return withHotRecovery(guild, hot -> recoverRoles(guild, getSnapshot(guild.getId()), without(deletedRoleIds, hot)));
+    }
+    
+    private CompletableFuture<RecoveryResult> recoverRoles(Guild guild, ServerSnapshot snapshot, List<String> deletedRoleIds) {
+        if (snapshot == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        return planRecovery(guild, snapshot, deletedRoleIds, Collections.emptyList(), false, null)
+                .execute()
+                .thenApply(plan -> new RecoveryResult(plan.getFailed() == 0, "Roles recovered", plan.countSucceeded("role:")));
+    }
+    
+    /**
+     * Rapidly recover deleted channels
+     */
+    public CompletableFuture<RecoveryResult> recoverChannels(Guild guild, List<String> deletedChannelIds) {
+        return withHotRecovery(guild, hot -> recoverChannels(guild, getSnapshot(guild.getId()), without(deletedChannelIds, hot)));
+    }
+    
+    private CompletableFuture<RecoveryResult> recoverChannels(Guild guild, ServerSnapshot snapshot, List<String> deletedChannelIds) {
+        if (snapshot == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        return planRecovery(guild, snapshot, Collections.emptyList(), deletedChannelIds, false, null)
+                .execute()
+                .thenApply(plan -> new RecoveryResult(plan.getFailed() == 0, "Channels recovered", plan.countSucceeded("channel:")));
+    }
+    
+    /**
+     * Rapidly restore member roles (fastest operation)
+     */
+    public CompletableFuture<RecoveryResult> restoreMemberRoles(Guild guild, String memberId) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        long[] roleIds = snapshot.memberRoles.get(Long.parseLong(memberId));
+        if (roleIds == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No roles to restore", 0));
+        }
+        
+        Member cached = guild.getMemberById(memberId);
+        CompletableFuture<Member> member = cached != null
+                ? CompletableFuture.completedFuture(cached)
+                : guild.retrieveMemberById(memberId).submit();
+        
+        // All missing roles go back in a single member update
+        return member.thenCompose(target -> {
+            List<Role> missing = missingRoles(guild, target, roleIds, null);
+            if (missing.isEmpty()) {
+                return CompletableFuture.completedFuture(new RecoveryResult(true, "No roles missing", 0));
+            }
+            return guild.modifyMemberRoles(target, missing, Collections.emptyList())
+                    .reason("Antinuke: Restoring removed roles")
+                    .submit()
+                    .thenApply(v -> {
+                        logger.info("Restored {} roles for member: {} in guild: {}", 
+                                missing.size(), memberId, guild.getName());
+                        return new RecoveryResult(true, "Roles restored", missing.size());
+                    });
+        }).exceptionally(e -> {
+            logger.error("Error restoring member roles: {}", memberId, e);
+            return new RecoveryResult(false, e.getMessage(), 0);
+        });
+    }
+    
+    /**
+     * Re-add snapshot roles to many members, one member update per member
+     */
+    public CompletableFuture<RecoveryResult> restoreMembersRoles(Guild guild, Collection<String> memberIds) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        RequestBatch batch = new RequestBatch("member-roles:" + guild.getId(), maxConcurrentOperations,
+                pipeline, RequestPipeline.Lane.MEMBERS);
+        for (String memberId : memberIds) {
+            long[] roleIds = snapshot.memberRoles.get(Long.parseLong(memberId));
+            Member member = guild.getMemberById(memberId);
+            if (roleIds == null || member == null) continue;
+            
+            List<Role> missing = missingRoles(guild, member, roleIds, null);
+            if (missing.isEmpty()) continue;
+            
+            batch.add(() -> guild.modifyMemberRoles(member, missing, Collections.emptyList())
+                    .reason("Antinuke: Restoring removed roles"));
+        }
+        
+        return batch.start().thenApply(result -> new RecoveryResult(
+                result.getFailed() == 0,
+                String.format("Restored roles of %d/%d members", result.getCompleted(), result.getTotal()),
+                result.getCompleted()));
+    }
+    
+    /**
+     * Mass unban - rapidly unban multiple users
+     */
+    public CompletableFuture<RecoveryResult> massUnban(Guild guild, List<String> userIds) {
+        RequestBatch batch = new RequestBatch("unbans:" + guild.getId(), maxConcurrentOperations,
+                pipeline, RequestPipeline.Lane.MEMBERS);
+        for (String userId : userIds) {
+            batch.add(() -> guild.unban(UserSnowflake.fromId(userId)).reason("Antinuke: Mass unban"));
+        }
+        
+        return batch.start().thenApply(result -> {
+            logger.info("Unbanned {}/{} users in guild: {}", result.getCompleted(), result.getTotal(), guild.getName());
+            return new RecoveryResult(result.getFailed() == 0, "Mass unban completed", result.getCompleted());
+        });
+    }
+    
+    /**
+     * Re-upload deleted emojis from the asset store in parallel batches
+     */
+    public CompletableFuture<RecoveryResult> recoverEmojis(Guild guild, List<String> deletedEmojiIds) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null || snapshot.emojis == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        IdRemap remap = getIdRemap(guild.getId());
+        RequestBatch batch = new RequestBatch("emojis:" + guild.getId(), maxConcurrentOperations,
+                pipeline, RequestPipeline.Lane.ASSETS);
+        for (EmojiSnapshot emojiSnapshot : snapshot.emojis) {
+            if (!deletedEmojiIds.contains(emojiSnapshot.id)) continue;
+            String key = "emoji:" + emojiSnapshot.id;
+            if (!assetStore.contains(key)) {
+                logger.warn("No stored image for emoji: {} in guild: {}", emojiSnapshot.name, guild.getName());
+                continue;
+            }
+            
+            // The image is read from disk only when this request is about to be sent
+            batch.add(() -> {
+                try {
+                    Role[] roles = emojiSnapshot.roleIds.stream()
+                            .map(roleId -> guild.getRoleById(remap.resolve(roleId)))
+                            .filter(Objects::nonNull)
+                            .toArray(Role[]::new);
+                    return remapped(guild.createEmoji(emojiSnapshot.name,
+                            assetStore.loadIcon(key, emojiSnapshot.animated ? Icon.IconType.GIF : Icon.IconType.PNG), roles)
+                            .reason("Antinuke: Emoji recovery"), remap, emojiSnapshot.id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        
+        return batch.start().thenApply(result -> new RecoveryResult(
+                result.getFailed() == 0,
+                String.format("Recovered %d/%d emojis", result.getCompleted(), result.getTotal()),
+                result.getCompleted()));
+    }
+    
+    /**
+     * Re-upload deleted stickers from the asset store in parallel batches
+     */
+    public CompletableFuture<RecoveryResult> recoverStickers(Guild guild, List<String> deletedStickerIds) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null || snapshot.stickers == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        IdRemap remap = getIdRemap(guild.getId());
+        RequestBatch batch = new RequestBatch("stickers:" + guild.getId(), maxConcurrentOperations,
+                pipeline, RequestPipeline.Lane.ASSETS);
+        for (StickerSnapshot stickerSnapshot : snapshot.stickers) {
+            if (!deletedStickerIds.contains(stickerSnapshot.id)) continue;
+            String key = "sticker:" + stickerSnapshot.id;
+            if (!assetStore.contains(key)) {
+                logger.warn("No stored image for sticker: {} in guild: {}", stickerSnapshot.name, guild.getName());
+                continue;
+            }
+            
+            // Streamed from disk by the upload itself
+            batch.add(() -> {
+                try {
+                    List<String> tags = stickerSnapshot.tags.isEmpty()
+                            ? Collections.singletonList(stickerSnapshot.name)
+                            : stickerSnapshot.tags;
+                    return remapped(guild.createSticker(stickerSnapshot.name, stickerSnapshot.description,
+                                    assetStore.openUpload(key, stickerSnapshot.fileName), tags)
+                            .reason("Antinuke: Sticker recovery"), remap, stickerSnapshot.id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        
+        return batch.start().thenApply(result -> new RecoveryResult(
+                result.getFailed() == 0,
+                String.format("Recovered %d/%d stickers", result.getCompleted(), result.getTotal()),
+                result.getCompleted()));
+    }
+    
+    /**
+     * Restore the cached guild settings with a single guild update.
+     * Only fields that differ from the snapshot are sent; images come from the asset store.
+     */
+    public CompletableFuture<RecoveryResult> revertGuildSettings(Guild guild) {
+        return revertGuildSettings(guild, null);
+    }
+    
+    /**
+     * Restore the settings an audit log entry changed, given by their audit log keys. The
+     * entry can arrive before the guild update reaches the cache, so these fields are sent
+     * whatever the cache shows. A null set reverts every field that differs from the cache.
+     */
+    public CompletableFuture<RecoveryResult> revertGuildSettings(Guild guild, Set<String> changedKeys) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null || snapshot.settings == null) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "No snapshot available", 0));
+        }
+        
+        GuildSettingsSnapshot settings = snapshot.settings;
+        GuildManager manager = guild.getManager();
+        List<String> reverted = new ArrayList<>();
+        
+        if (changed(changedKeys, "name", !settings.name.equals(guild.getName()))) {
+            manager.setName(settings.name);
+            reverted.add("name");
+        }
+        if (changed(changedKeys, "description", !Objects.equals(settings.description, guild.getDescription()))) {
+            manager.setDescription(settings.description);
+            reverted.add("description");
+        }
+        if (changed(changedKeys, "icon_hash", !Objects.equals(settings.iconId, guild.getIconId()))) {
+            Icon icon = loadGuildImage("guild-icon:", settings.iconId);
+            if (icon != null || settings.iconId == null) {
+                manager.setIcon(icon);
+                reverted.add("icon");
+            }
+        }
+        if (changed(changedKeys, "banner_hash", !Objects.equals(settings.bannerId, guild.getBannerId()))) {
+            Icon banner = loadGuildImage("guild-banner:", settings.bannerId);
+            if (banner != null || settings.bannerId == null) {
+                manager.setBanner(banner);
+                reverted.add("banner");
+            }
+        }
+        if (changed(changedKeys, "splash_hash", !Objects.equals(settings.splashId, guild.getSplashId()))) {
+            Icon splash = loadGuildImage("guild-splash:", settings.splashId);
+            if (splash != null || settings.splashId == null) {
+                manager.setSplash(splash);
+                reverted.add("splash");
+            }
+        }
+        if (changed(changedKeys, "verification_level", settings.verificationLevel != guild.getVerificationLevel())) {
+            manager.setVerificationLevel(settings.verificationLevel);
+            reverted.add("verification level");
+        }
+        if (changed(changedKeys, "default_message_notifications", settings.notificationLevel != guild.getDefaultNotificationLevel())) {
+            manager.setDefaultNotificationLevel(settings.notificationLevel);
+            reverted.add("notification level");
+        }
+        if (changed(changedKeys, "explicit_content_filter", settings.explicitContentLevel != guild.getExplicitContentLevel())) {
+            manager.setExplicitContentLevel(settings.explicitContentLevel);
+            reverted.add("content filter");
+        }
+        if (changed(changedKeys, "afk_timeout", settings.afkTimeout != guild.getAfkTimeout())) {
+            manager.setAfkTimeout(settings.afkTimeout);
+            reverted.add("afk timeout");
+        }
+        if (changed(changedKeys, "afk_channel_id", !Objects.equals(settings.afkChannelId, idOf(guild.getAfkChannel())))) {
+            manager.setAfkChannel(settings.afkChannelId != null ? guild.getVoiceChannelById(settings.afkChannelId) : null);
+            reverted.add("afk channel");
+        }
+        if (changed(changedKeys, "system_channel_id", !Objects.equals(settings.systemChannelId, idOf(guild.getSystemChannel())))) {
+            manager.setSystemChannel(settings.systemChannelId != null ? guild.getTextChannelById(settings.systemChannelId) : null);
+            reverted.add("system channel");
+        }
+        if (changed(changedKeys, "rules_channel_id", !Objects.equals(settings.rulesChannelId, idOf(guild.getRulesChannel())))
+                && settings.rulesChannelId != null) {
+            manager.setRulesChannel(guild.getTextChannelById(settings.rulesChannelId));
+            reverted.add("rules channel");
+        }
+        if (changed(changedKeys, "vanity_url_code", !Objects.equals(settings.vanityCode, guild.getVanityCode()))) {
+            // The vanity URL endpoint is not available to bots
+            logger.warn("Vanity URL of guild {} changed from {} and must be restored manually",
+                    guild.getName(), settings.vanityCode);
+        }
+        
+        if (reverted.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(true, "Settings already match the snapshot", 0));
+        }
+        
+        String changes = String.join(", ", reverted);
+        return manager.reason("Antinuke: Reverting server settings").submit()
+                .thenApply(v -> {
+                    logger.info("Reverted settings of guild: {} ({})", guild.getName(), changes);
+                    return new RecoveryResult(true, "Reverted " + changes, reverted.size());
+                })
+                .exceptionally(error -> {
+                    logger.error("Failed to revert settings of guild: {}", guild.getName(), error);
+                    return new RecoveryResult(false, error.getMessage(), 0);
+                });
+    }
+    
+    /**
+     * Accept the current guild settings into the cached snapshot
+     */
+    public void refreshCachedSettings(Guild guild) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot != null) {
+            snapshot.settings = captureSettings(guild);
+            touch(snapshot);
+        }
+    }
+    
+    /**
+     * Accept a trusted settings change into the cached snapshot. The changed fields take
+     * their new values from the audit log entry, since the cache may not show them yet.
+     */
+    public void acceptSettingsChanges(Guild guild, Map<String, AuditLogChange> changes) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null) return;
+        
+        GuildSettingsSnapshot settings = captureSettings(guild);
+        for (AuditLogChange change : changes.values()) {
+            applySettingsChange(guild, settings, change.getKey(), change.getNewValue());
+        }
+        snapshot.settings = settings;
+        touch(snapshot);
+    }
+    
+    /**
+     * Ids of snapshot emojis that no longer exist in the guild
+     */
+    public List<String> getMissingEmojiIds(Guild guild) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null || snapshot.emojis == null) return Collections.emptyList();
+        IdRemap remap = getIdRemap(guild.getId());
+        return snapshot.emojis.stream()
+                .map(emoji -> emoji.id)
+                .filter(id -> guild.getEmojiById(remap.resolve(id)) == null)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Ids of snapshot stickers that no longer exist in the guild
+     */
+    public List<String> getMissingStickerIds(Guild guild) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null || snapshot.stickers == null) return Collections.emptyList();
+        IdRemap remap = getIdRemap(guild.getId());
+        return snapshot.stickers.stream()
+                .map(sticker -> sticker.id)
+                .filter(id -> guild.getStickerById(remap.resolve(id)) == null)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Full server recovery - recovers everything
+     */
+    public CompletableFuture<RecoveryResult> fullServerRecovery(Guild guild) {
+        return fullServerRecovery(guild, new RecoveryProgress("full:" + guild.getId()));
+    }
+    
+    /**
+     * Full server recovery that reports live counters to the given progress model
+     */
+    public CompletableFuture<RecoveryResult> fullServerRecovery(Guild guild, RecoveryProgress progress) {
+        return fullServerRecovery(guild, getSnapshot(guild.getId()), Long.MAX_VALUE, progress);
+    }
+    
+    /**
+     * Full recovery to the state the guild was in at the given time. Permissions of
+     * roles that still exist are also reverted, which undoes slow permission edits.
+     */
+    public CompletableFuture<RecoveryResult> recoverAsOf(Guild guild, long timestamp) {
+        return recoverAsOf(guild, timestamp, new RecoveryProgress("as-of:" + guild.getId()));
+    }
+    
+    public CompletableFuture<RecoveryResult> recoverAsOf(Guild guild, long timestamp, RecoveryProgress progress) {
+        ServerSnapshot current = getSnapshot(guild.getId());
+        ServerSnapshot historic = current != null ? snapshotHistory.materialize(guild.getId(), timestamp, current) : null;
+        if (historic == null) {
+            progress.finish();
+            return CompletableFuture.completedFuture(
+                new RecoveryResult(false, "Snapshot history does not reach back that far", 0));
+        }
+        logger.info("Recovering guild {} to version {} from {}", guild.getName(), historic.version.get(),
+                Instant.ofEpochMilli(historic.timestamp));
+        return fullServerRecovery(guild, historic, timestamp, progress);
+    }
+    
+    /**
+     * Plan a full recovery from the current snapshot and estimate its requests and
+     * duration without sending anything. Returns null if there is no snapshot.
+     */
+    public RecoveryEstimate dryRun(Guild guild) {
+        return dryRun(guild, RecoveryEstimate.Limits.defaults());
+    }
+    
+    public RecoveryEstimate dryRun(Guild guild, RecoveryEstimate.Limits limits) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        return snapshot != null ? estimateFullRecovery(guild, snapshot, Long.MAX_VALUE, limits) : null;
+    }
+    
+    /**
+     * Estimate of a recovery to the given time, or null if the history does not reach back that far
+     */
+    public RecoveryEstimate dryRunAsOf(Guild guild, long timestamp) {
+        ServerSnapshot current = getSnapshot(guild.getId());
+        ServerSnapshot historic = current != null ? snapshotHistory.materialize(guild.getId(), timestamp, current) : null;
+        return historic != null ? estimateFullRecovery(guild, historic, timestamp, RecoveryEstimate.Limits.defaults()) : null;
+    }
+    
+    // Missing critical objects go out first from their staged requests and leave the bulk plan, as in a real run
+    private RecoveryEstimate estimateFullRecovery(Guild guild, ServerSnapshot snapshot, long asOf, RecoveryEstimate.Limits limits) {
+        Set<String> critical = hotRecovery.getMissing(guild, getIdRemap(guild.getId()));
+        return planFullRecovery(guild, snapshot, asOf, critical).estimate(limits).withCritical(critical.size(), limits);
+    }
+    
+    /**
+     * Rebuild the pre-built requests of a guild's critical roles and channels
+     */
+    public void restageCritical(Guild guild) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot != null) {
+            hotRecovery.stageAll(guild.getId(), grantablePermissions(guild), guild.getMaxBitrate(), snapshot);
+        }
+    }
+    
+    public List<HotRecovery.StagedRequest> getStagedCritical(String guildId) {
+        return hotRecovery.getStaged(guildId);
     }
     
     /**
-     * Create a snapshot of the entire guild state
+     * Recreate missing critical roles and channels from their pre-built requests
      */
-    public void createSnapshot(Guild guild) {
-        try {
-            ServerSnapshot snapshot = new ServerSnapshot();
-            snapshot.guildId = guild.getId();
-            snapshot.guildName = guild.getName();
-            snapshot.timestamp = System.currentTimeMillis();
-            
-            // Capture roles with all permissions and settings
-            snapshot.roles = guild.getRoles().stream()
-                    .map(this::captureRole)
-                    .collect(Collectors.toList());
-            
-            // Capture channels with permissions and settings
-            snapshot.channels = guild.getChannels().stream()
-                    .map(this::captureChannel)
-                    .collect(Collectors.toList());
-            
-            // Capture members and their roles
-            snapshot.memberRoles = new ConcurrentHashMap<>();
-            guild.loadMembers().onSuccess(members -> {
-                members.forEach(member -> {
-                    snapshot.memberRoles.put(member.getId(), 
-                        member.getRoles().stream()
-                            .map(Role::getId)
-                            .collect(Collectors.toList()));
-                });
-            }).onError(error -> {
-                logger.debug("Could not load members for snapshot");
-            });
-            
-            // Capture webhooks
-            snapshot.webhooks = new CopyOnWriteArrayList<>();
-            for (TextChannel channel : guild.getTextChannels()) {
-                try {
-                    channel.retrieveWebhooks().queue(webhooks -> {
-                        webhooks.forEach(webhook -> {
-                            snapshot.webhooks.add(captureWebhook(webhook));
-                        });
-                    });
-                } catch (Exception e) {
-                    logger.debug("Could not retrieve webhooks for channel: {}", channel.getId());
-                }
-            }
-            
-            // Store snapshot in cache for instant recovery
-            snapshotCache.put(guild.getId(), snapshot);
-            logger.info("Created snapshot for guild: {} ({} roles, {} channels, {} members)",
-                    guild.getName(), snapshot.roles.size(), snapshot.channels.size(), snapshot.memberRoles.size());
-                    
-        } catch (Exception e) {
-            logger.error("Error creating snapshot for guild: {}", guild.getId(), e);
+    public CompletableFuture<HotRecovery.Result> restoreCritical(Guild guild) {
+        return hotRecovery.restore(guild, getIdRemap(guild.getId()));
+    }
+    
+    // Critical objects go out first as pre-built requests; bulk recovery skips them and completes them afterwards
+    private CompletableFuture<RecoveryResult> withHotRecovery(Guild guild,
+                                                             Function<HotRecovery.Result, CompletableFuture<RecoveryResult>> bulk) {
+        return restoreCritical(guild).thenCompose(hot -> bulk.apply(hot).thenCompose(result -> {
+            if (hot.isEmpty()) return CompletableFuture.completedFuture(result);
+            return completeHotRecovery(guild, hot).thenApply(plan -> new RecoveryResult(
+                    result.success && hot.getFailed() == 0 && plan.getFailed() == 0,
+                    String.format("%s; %d critical objects restored in %d ms", result.message,
+                            hot.getRecreated().size(), hot.getElapsedMillis()),
+                    result.itemsRecovered + hot.getRecreated().size()));
+        }));
+    }
+    
+    private static List<String> without(List<String> ids, HotRecovery.Result hot) {
+        if (hot.getRecreated().isEmpty()) return ids;
+        return ids.stream().filter(id -> !hot.getRecreated().containsKey(id)).collect(Collectors.toList());
+    }
+    
+    // Recreated critical roles go back to their position, critical channels get the parent and overwrites their request left out
+    private CompletableFuture<RecoveryPlan> completeHotRecovery(Guild guild, HotRecovery.Result hot) {
+        RecoveryPlan plan = new RecoveryPlan("hot-recovery:" + guild.getId(), maxConcurrentOperations, pipeline);
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null) return plan.execute();
+        
+        IdRemap remap = getIdRemap(guild.getId());
+        List<RoleSnapshot> roles = snapshot.roles.stream()
+                .filter(role -> hot.getRecreated().containsKey(role.id))
+                .collect(Collectors.toList());
+        if (!roles.isEmpty()) {
+            plan.add("role-positions", RequestPipeline.Lane.ROLES, "role-positions", p -> orderRoles(guild, roles, remap, p));
+        }
+        for (ChannelSnapshot channelSnapshot : snapshot.channels) {
+            if (!hot.getIncomplete().contains(channelSnapshot.id)) continue;
+            plan.add("channel-edit:" + channelSnapshot.id, RequestPipeline.Lane.CHANNELS, "channels",
+                    p -> completeChannel(guild, channelSnapshot, remap, p));
+        }
+        return plan.execute();
+    }
+    
+    private RestAction<?> completeChannel(Guild guild, ChannelSnapshot snapshot, IdRemap remap, RecoveryPlan plan) {
+        GuildChannel channel = guild.getGuildChannelById(remap.resolve(snapshot.id));
+        if (channel == null) return null;
+        
+        ChannelManager<?, ?> manager = channel.getManager();
+        if (snapshot.parentId != null && manager instanceof ICategorizableChannelManager<?, ?> categorizable) {
+            Category parent = guild.getCategoryById(remap.resolve(snapshot.parentId));
+            if (parent != null) categorizable.setParent(parent);
+        }
+        if (manager instanceof IPermissionContainerManager<?, ?> permissionManager && channel instanceof IPermissionContainer container) {
+            restoreOverwrites(guild, container, permissionManager, snapshot, plan);
         }
+        return manager.reason("Antinuke: Completing critical channel");
     }
     
     /**
-     * Rapidly recover deleted/modified roles
+     * Oldest time /recover can restore to, or 0 if there is no history
      */
-    public CompletableFuture<RecoveryResult> recoverRoles(Guild guild, List<String> deletedRoleIds) {
-        ServerSnapshot snapshot = snapshotCache.getIfPresent(guild.getId());
+    public long getHistoryStart(String guildId) {
+        return snapshotHistory.getOldestTimestamp(guildId);
+    }
+    
+    public int getHistoryVersions(String guildId) {
+        return snapshotHistory.getVersionCount(guildId);
+    }
+    
+    private CompletableFuture<RecoveryResult> fullServerRecovery(Guild guild, ServerSnapshot snapshot, long asOf,
+                                                                 RecoveryProgress progress) {
         if (snapshot == null) {
+            progress.finish();
             return CompletableFuture.completedFuture(
                 new RecoveryResult(false, "No snapshot available", 0));
         }
         
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        AtomicInteger recovered = new AtomicInteger(0);
+        logger.info("Starting full server recovery for: {}", guild.getName());
         
-        for (String roleId : deletedRoleIds) {
-            RoleSnapshot roleSnapshot = snapshot.roles.stream()
-                    .filter(r -> r.id.equals(roleId))
-                    .findFirst()
-                    .orElse(null);
-            
-            if (roleSnapshot != null) {
-                CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                    try {
-                        guild.createRole()
-                                .setName(roleSnapshot.name)
-                                .setColor(roleSnapshot.color)
-                                .setPermissions(roleSnapshot.permissions)
-                                .setHoisted(roleSnapshot.hoisted)
-                                .setMentionable(roleSnapshot.mentionable)
-                                .queue(role -> {
-                                    recovered.incrementAndGet();
-                                    logger.info("Recovered role: {} in guild: {}", role.getName(), guild.getName());
-                                });
-                    } catch (Exception e) {
-                        logger.error("Error recovering role: {}", roleSnapshot.name, e);
-                    }
-                }, recoveryExecutor);
-                futures.add(future);
-            }
-        }
+        return withHotRecovery(guild, hot -> planFullRecovery(guild, snapshot, asOf, hot.getRecreated().keySet())
+                .track(progress)
+                .execute()
+                .thenApply(plan -> {
+                    progress.finish();
+                    int recovered = plan.countSucceeded("role:") + plan.countSucceeded("channel:")
+                            + plan.countSucceeded("member:") + plan.countSucceeded("role-edit:")
+                            + plan.countSucceeded("channel-edit:") + plan.countSucceeded("webhook:");
+                    logger.info("Full server recovery completed for: {} ({} items recovered, {} requests in {} ms)", 
+                            guild.getName(), recovered, plan.getRequestCount(), plan.getElapsedMillis());
+                    return new RecoveryResult(plan.getFailed() == 0, String.format(
+                            "Full recovery completed (%d requests, %d failed, %d retried, %.1f s)",
+                            plan.getRequestCount(), plan.getFailed(), progress.getRetried(),
+                            plan.getElapsedMillis() / 1000.0), recovered);
+                }));
+    }
+    
+    // Everything a full recovery sends, shared by the real run and the dry run. asOf is the
+    // time a historic snapshot was rebuilt for, or Long.MAX_VALUE for the latest one. Objects
+    // in skip were just recreated and may not have reached the cache yet.
+    private RecoveryPlan planFullRecovery(Guild guild, ServerSnapshot snapshot, long asOf, Set<String> skip) {
+        boolean revertModified = asOf != Long.MAX_VALUE;
+        // Objects already recreated earlier in the incident count as present under their new id
+        SnapshotDiff diff = SnapshotDiff.compare(snapshot, guild, getIdRemap(guild.getId()));
+        logger.info("Recovery diff for {}: {}", guild.getName(), diff.summarize());
         
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> new RecoveryResult(true, "Roles recovered", recovered.get()));
+        List<String> roleIds = new ArrayList<>(diff.getMissingIds(SnapshotDiff.Target.ROLE));
+        List<String> channelIds = new ArrayList<>(diff.getMissingIds(SnapshotDiff.Target.CHANNEL));
+        roleIds.removeAll(skip);
+        channelIds.removeAll(skip);
+        RecoveryPlan recovery = planRecovery(guild, snapshot, roleIds, channelIds, true, revertModified ? diff : null);
+        planWebhooks(guild, snapshot, recovery, asOf);
+        return recovery;
     }
     
     /**
-     * Rapidly recover deleted channels
+     * Compile recovery into a dependency graph: roles before their positions and before
+     * member role restores, categories before the channels inside them. Role positions
+     * are set last in one request; channel positions travel with their create request.
+     * With a diff to revert, every modified role and channel also gets one edit that
+     * sends only the fields that differ.
      */
-    public CompletableFuture<RecoveryResult> recoverChannels(Guild guild, List<String> deletedChannelIds) {
-        ServerSnapshot snapshot = snapshotCache.getIfPresent(guild.getId());
-        if (snapshot == null) {
-            return CompletableFuture.completedFuture(
-                new RecoveryResult(false, "No snapshot available", 0));
+    private RecoveryPlan planRecovery(Guild guild, ServerSnapshot snapshot, Collection<String> roleIds,
+                                      Collection<String> channelIds, boolean restoreMembers, SnapshotDiff revert) {
+        RecoveryPlan plan = new RecoveryPlan("recovery:" + guild.getId(), maxConcurrentOperations, pipeline);
+        IdRemap remap = getIdRemap(guild.getId());
+        
+        Map<String, RoleSnapshot> rolesById = new HashMap<>();
+        snapshot.roles.forEach(role -> rolesById.put(role.id, role));
+        List<String> roleSteps = new ArrayList<>();
+        List<RoleSnapshot> recreated = new ArrayList<>();
+        for (String roleId : new LinkedHashSet<>(roleIds)) {
+            RoleSnapshot roleSnapshot = rolesById.get(roleId);
+            if (roleSnapshot == null) continue;
+            
+            plan.add("role:" + roleId, RequestPipeline.Lane.ROLES, "roles", p -> remapped(guild.createRole()
+                    .setName(roleSnapshot.name)
+                    .setColor(roleSnapshot.color)
+                    .setPermissions(roleSnapshot.permissions)
+                    .setHoisted(roleSnapshot.hoisted)
+                    .setMentionable(roleSnapshot.mentionable)
+                    .reason("Antinuke: Recovering deleted role"), remap, roleId));
+            roleSteps.add("role:" + roleId);
+            recreated.add(roleSnapshot);
+        }
+        
+        // Roles that still exist but were moved go back in the same ordering request
+        List<RoleSnapshot> positioned = new ArrayList<>(recreated);
+        if (revert != null) {
+            Member self = guild.getSelfMember();
+            for (SnapshotDiff.Change change : revert.get(SnapshotDiff.Kind.MODIFIED, SnapshotDiff.Target.ROLE)) {
+                RoleSnapshot roleSnapshot = rolesById.get(change.getId());
+                Role role = guild.getRoleById(change.getLiveId());
+                if (roleSnapshot == null || role == null || role.isManaged() || !self.canInteract(role)) continue;
+                if (change.hasField("position") && !role.isPublicRole()) positioned.add(roleSnapshot);
+                
+                plan.add("role-edit:" + roleSnapshot.id, RequestPipeline.Lane.ROLES, "roles",
+                        p -> editRole(guild, role, roleSnapshot, change));
+                roleSteps.add("role-edit:" + roleSnapshot.id);
+            }
+        }
+        if (!positioned.isEmpty()) {
+            plan.add("role-positions", RequestPipeline.Lane.ROLES, "role-positions", p -> orderRoles(guild, positioned, remap, p), roleSteps);
         }
         
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        AtomicInteger recovered = new AtomicInteger(0);
+        // Channel overwrites and member restores both name roles, so they wait for every role step
+        plan.barrier("roles-ready", roleSteps);
         
-        for (String channelId : deletedChannelIds) {
-            ChannelSnapshot channelSnapshot = snapshot.channels.stream()
-                    .filter(c -> c.id.equals(channelId))
-                    .findFirst()
-                    .orElse(null);
+        Map<String, ChannelSnapshot> channelsById = new HashMap<>();
+        snapshot.channels.forEach(channel -> channelsById.put(channel.id, channel));
+        Set<String> channelSet = new LinkedHashSet<>(channelIds);
+        for (String channelId : channelSet) {
+            ChannelSnapshot channelSnapshot = channelsById.get(channelId);
+            if (channelSnapshot == null) continue;
             
-            if (channelSnapshot != null) {
-                CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                    try {
-                        restoreChannel(guild, channelSnapshot);
-                        recovered.incrementAndGet();
-                    } catch (Exception e) {
-                        logger.error("Error recovering channel: {}", channelSnapshot.name, e);
-                    }
-                }, recoveryExecutor);
-                futures.add(future);
+            List<String> dependsOn = channelSnapshot.parentId != null && channelSet.contains(channelSnapshot.parentId)
+                    ? List.of("roles-ready", "channel:" + channelSnapshot.parentId)
+                    : List.of("roles-ready");
+            plan.add("channel:" + channelId, RequestPipeline.Lane.CHANNELS, "channels", p -> createChannel(guild, channelSnapshot, remap, p), dependsOn);
+        }
+        if (revert != null) {
+            for (SnapshotDiff.Change change : revert.get(SnapshotDiff.Kind.MODIFIED, SnapshotDiff.Target.CHANNEL)) {
+                ChannelSnapshot channelSnapshot = channelsById.get(change.getId());
+                GuildChannel channel = guild.getGuildChannelById(change.getLiveId());
+                if (channelSnapshot == null || channel == null) continue;
+                
+                // A channel moved out of a deleted category waits for the category to be recreated
+                List<String> dependsOn = change.hasField("parent") && channelSet.contains(channelSnapshot.parentId)
+                        ? List.of("roles-ready", "channel:" + channelSnapshot.parentId)
+                        : List.of("roles-ready");
+                plan.add("channel-edit:" + channelSnapshot.id, RequestPipeline.Lane.CHANNELS, "channels",
+                        p -> editChannel(guild, channel, channelSnapshot, change, remap, p), dependsOn);
+            }
+        }
+        
+        if (restoreMembers) {
+            Set<Long> recreatedIds = recreated.stream().map(role -> Long.parseLong(role.id)).collect(Collectors.toSet());
+            for (long memberId : snapshot.memberRoles.memberIds()) {
+                // Members that still hold every role they had would send nothing, so they get no step
+                if (!needsRoles(guild, snapshot, memberId, recreatedIds)) continue;
+                plan.add("member:" + memberId, RequestPipeline.Lane.MEMBERS, "members", p -> restoreMemberAction(guild, snapshot, memberId, p), "roles-ready");
             }
         }
+        return plan;
+    }
+    
+    // Deleted webhooks go back into their channel once it exists; recreated ones get a new URL.
+    // Restoring to an earlier time leaves out webhooks created after it or already deleted by then.
+    private void planWebhooks(Guild guild, ServerSnapshot snapshot, RecoveryPlan plan, long asOf) {
+        if (snapshot.webhooks == null) return;
+        IdRemap remap = getIdRemap(guild.getId());
+        for (WebhookSnapshot webhookSnapshot : snapshot.webhooks.values()) {
+            if (webhookSnapshot.deletedAt == 0 || !webhookSnapshot.incoming) continue;
+            if (TimeUtil.getTimeCreated(Long.parseLong(webhookSnapshot.id)).toInstant().toEpochMilli() > asOf) continue;
+            if (asOf != Long.MAX_VALUE && webhookSnapshot.deletedAt <= asOf) continue;
+            // Already recreated earlier in the incident
+            WebhookSnapshot current = snapshot.webhooks.get(remap.resolve(webhookSnapshot.id));
+            if (current != null && current.deletedAt == 0) continue;
+            
+            plan.add("webhook:" + webhookSnapshot.id, RequestPipeline.Lane.ASSETS, "webhooks",
+                    p -> createWebhook(guild, webhookSnapshot, remap, p), "channel:" + webhookSnapshot.channelId);
+        }
+    }
+    
+    private RestAction<?> createWebhook(Guild guild, WebhookSnapshot snapshot, IdRemap remap, RecoveryPlan plan) {
+        GuildChannel channel = guild.getGuildChannelById(remap.resolve(snapshot.channelId));
+        if (channel == null) channel = plan.getResult("channel:" + snapshot.channelId);
+        if (!(channel instanceof IWebhookContainer container)) return null;
         
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> new RecoveryResult(true, "Channels recovered", recovered.get()));
+        WebhookAction action = container.createWebhook(snapshot.name);
+        Icon avatar = loadGuildImage("webhook-avatar:", snapshot.avatarId);
+        if (avatar != null) action.setAvatar(avatar);
+        return remapped(action.reason("Antinuke: Recovering deleted webhook"), remap, snapshot.id);
     }
     
     /**
-     * Rapidly restore member roles (fastest operation)
+     * Old-to-new id table of the objects recovery recreated in a guild
      */
-    public CompletableFuture<RecoveryResult> restoreMemberRoles(Guild guild, String memberId) {
-        ServerSnapshot snapshot = snapshotCache.getIfPresent(guild.getId());
-        if (snapshot == null) {
-            return CompletableFuture.completedFuture(
-                new RecoveryResult(false, "No snapshot available", 0));
+    public IdRemap getIdRemap(String guildId) {
+        return idRemaps.computeIfAbsent(guildId, id -> new IdRemap());
+    }
+    
+    /**
+     * Current id of a role that may have been recreated since the snapshot was taken
+     */
+    public String resolveRoleId(String guildId, String roleId) {
+        IdRemap remap = idRemaps.get(guildId);
+        return remap != null ? remap.resolve(roleId) : roleId;
+    }
+    
+    // Record the new id under the old one as soon as the create request succeeds
+    private static <T extends ISnowflake> RestAction<T> remapped(RestAction<T> action, IdRemap remap, String oldId) {
+        return action.onSuccess(created -> remap.put(oldId, created.getId()));
+    }
+    
+    // Old ids resolve through the remap; roles recreated by a running plan also through its results
+    private Role resolveRole(Guild guild, RecoveryPlan plan, long roleId) {
+        Role role = guild.getRoleById(getIdRemap(guild.getId()).resolve(roleId));
+        return role != null || plan == null ? role : plan.getResult("role:" + roleId);
+    }
+    
+    // Snapshot roles the member lacks and the bot is allowed to hand out
+    private List<Role> missingRoles(Guild guild, Member member, long[] roleIds, RecoveryPlan plan) {
+        Member self = guild.getSelfMember();
+        List<Role> missing = new ArrayList<>();
+        for (long roleId : roleIds) {
+            Role role = resolveRole(guild, plan, roleId);
+            if (role == null || role.isManaged() || role.isPublicRole() || !self.canInteract(role)) continue;
+            if (!member.getRoles().contains(role) && !missing.contains(role)) missing.add(role);
+        }
+        return missing;
+    }
+    
+    private boolean needsRoles(Guild guild, ServerSnapshot snapshot, long memberId, Set<Long> recreatedRoleIds) {
+        Member member = guild.getMemberById(memberId);
+        long[] roleIds = snapshot.memberRoles.get(memberId);
+        if (member == null || roleIds == null) return false;
+        for (long roleId : roleIds) {
+            if (recreatedRoleIds.contains(roleId)) return true;
         }
+        return !missingRoles(guild, member, roleIds, null).isEmpty();
+    }
+    
+    private RestAction<?> restoreMemberAction(Guild guild, ServerSnapshot snapshot, long memberId, RecoveryPlan plan) {
+        Member member = guild.getMemberById(memberId);
+        long[] roleIds = snapshot.memberRoles.get(memberId);
+        if (member == null || roleIds == null) return null;
         
-        List<String> roleIds = snapshot.memberRoles.get(memberId);
-        if (roleIds == null || roleIds.isEmpty()) {
-            return CompletableFuture.completedFuture(
-                new RecoveryResult(false, "No roles to restore", 0));
+        List<Role> missing = missingRoles(guild, member, roleIds, plan);
+        if (missing.isEmpty()) return null;
+        
+        return guild.modifyMemberRoles(member, missing, Collections.emptyList())
+                .reason("Antinuke: Restoring member roles");
+    }
+    
+    // One create request carrying every captured attribute and permission overwrite
+    private RestAction<?> createChannel(Guild guild, ChannelSnapshot snapshot, IdRemap remap, RecoveryPlan plan) {
+        Category parent = null;
+        if (snapshot.parentId != null) {
+            parent = guild.getCategoryById(remap.resolve(snapshot.parentId));
+            if (parent == null) parent = plan.getResult("channel:" + snapshot.parentId);
         }
         
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Member member = guild.retrieveMemberById(memberId).complete();
-                List<Role> rolesToAdd = roleIds.stream()
-                        .map(guild::getRoleById)
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-                
-                // Batch role addition for speed
-                for (Role role : rolesToAdd) {
-                    guild.addRoleToMember(member, role).queue();
-                }
-                
-                logger.info("Restored {} roles for member: {} in guild: {}", 
-                        rolesToAdd.size(), memberId, guild.getName());
-                return new RecoveryResult(true, "Roles restored", rolesToAdd.size());
-                
-            } catch (Exception e) {
-                logger.error("Error restoring member roles: {}", memberId, e);
-                return new RecoveryResult(false, e.getMessage(), 0);
+        ChannelAction<? extends GuildChannel> action;
+        switch (snapshot.type) {
+            case "TEXT" -> action = guild.createTextChannel(snapshot.name, parent);
+            case "NEWS" -> action = guild.createNewsChannel(snapshot.name, parent);
+            case "VOICE" -> action = guild.createVoiceChannel(snapshot.name, parent);
+            case "STAGE" -> action = guild.createStageChannel(snapshot.name, parent);
+            case "FORUM" -> action = guild.createForumChannel(snapshot.name, parent);
+            case "MEDIA" -> action = guild.createMediaChannel(snapshot.name, parent);
+            case "CATEGORY" -> action = guild.createCategory(snapshot.name);
+            default -> {
+                logger.debug("Cannot recreate channel {} of type {}", snapshot.name, snapshot.type);
+                return null;
             }
-        }, recoveryExecutor);
+        }
+        
+        action.setPosition(snapshot.position);
+        if (snapshot.topic != null) action.setTopic(snapshot.topic);
+        if (snapshot.nsfw) action.setNSFW(true);
+        if (snapshot.slowmode > 0) action.setSlowmode(snapshot.slowmode);
+        if (snapshot.bitrate > 0) action.setBitrate(Math.min(snapshot.bitrate, guild.getMaxBitrate()));
+        if (snapshot.userLimit > 0) action.setUserlimit(snapshot.userLimit);
+        
+        long grantable = grantablePermissions(guild);
+        long[] roleOverwrites = snapshot.roleOverwrites != null ? snapshot.roleOverwrites : new long[0];
+        for (int i = 0; i + 2 < roleOverwrites.length; i += 3) {
+            Role role = resolveRole(guild, plan, roleOverwrites[i]);
+            if (role == null) continue;
+            action.addRolePermissionOverride(role.getIdLong(), roleOverwrites[i + 1] & grantable, roleOverwrites[i + 2] & grantable);
+        }
+        long[] memberOverwrites = snapshot.memberOverwrites != null ? snapshot.memberOverwrites : new long[0];
+        for (int i = 0; i + 2 < memberOverwrites.length; i += 3) {
+            action.addMemberPermissionOverride(memberOverwrites[i], memberOverwrites[i + 1] & grantable, memberOverwrites[i + 2] & grantable);
+        }
+        return remapped(action.reason("Antinuke: Recovering deleted channel"), remap, snapshot.id);
     }
     
-    /**
-     * Mass unban - rapidly unban multiple users
-     */
-    public CompletableFuture<RecoveryResult> massUnban(Guild guild, List<String> userIds) {
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        AtomicInteger unbanned = new AtomicInteger(0);
+    // Put every snapshot overwrite back and drop the ones added since, all in the same update
+    private void restoreOverwrites(Guild guild, IPermissionContainer container, IPermissionContainerManager<?, ?> manager,
+                                   ChannelSnapshot snapshot, RecoveryPlan plan) {
+        // Snapshots from before overwrites were recorded have none, so leave the live ones alone
+        if (snapshot.roleOverwrites == null && snapshot.memberOverwrites == null) return;
         
-        for (String userId : userIds) {
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                try {
-                    guild.unban(UserSnowflake.fromId(userId)).queue(
-                        success -> {
-                            unbanned.incrementAndGet();
-                            logger.info("Unbanned user: {} in guild: {}", userId, guild.getName());
-                        },
-                        error -> logger.debug("Could not unban user: {}", userId)
-                    );
-                } catch (Exception e) {
-                    logger.debug("Error unbanning user: {}", userId);
-                }
-            }, recoveryExecutor);
-            futures.add(future);
+        long grantable = grantablePermissions(guild);
+        Set<Long> kept = new HashSet<>();
+        long[] roleOverwrites = snapshot.roleOverwrites != null ? snapshot.roleOverwrites : new long[0];
+        for (int i = 0; i + 2 < roleOverwrites.length; i += 3) {
+            Role role = resolveRole(guild, plan, roleOverwrites[i]);
+            if (role == null) continue;
+            manager.putRolePermissionOverride(role.getIdLong(), roleOverwrites[i + 1] & grantable, roleOverwrites[i + 2] & grantable);
+            kept.add(role.getIdLong());
+        }
+        long[] memberOverwrites = snapshot.memberOverwrites != null ? snapshot.memberOverwrites : new long[0];
+        for (int i = 0; i + 2 < memberOverwrites.length; i += 3) {
+            manager.putMemberPermissionOverride(memberOverwrites[i], memberOverwrites[i + 1] & grantable, memberOverwrites[i + 2] & grantable);
+            kept.add(memberOverwrites[i]);
+        }
+        for (PermissionOverride override : container.getPermissionOverrides()) {
+            if (!kept.contains(override.getIdLong())) manager.removePermissionOverride(override.getIdLong());
+        }
+    }
+    
+    // Overwrites may only allow or deny what the bot holds itself, unless it is an administrator
+    private static long grantablePermissions(Guild guild) {
+        Member self = guild.getSelfMember();
+        return self.hasPermission(Permission.ADMINISTRATOR) ? Permission.ALL_PERMISSIONS : Permission.getRaw(self.getPermissions());
+    }
+    
+    // Move recreated and moved roles back to their old positions, below the bot's own highest role
+    private RestAction<?> orderRoles(Guild guild, List<RoleSnapshot> positioned, IdRemap remap, RecoveryPlan plan) {
+        List<Role> selfRoles = guild.getSelfMember().getRoles();
+        int ceiling = selfRoles.isEmpty() ? 0 : selfRoles.get(0).getPosition();
+        
+        RoleOrderAction order = guild.modifyRolePositions(true);
+        boolean moved = false;
+        List<RoleSnapshot> ascending = new ArrayList<>(positioned);
+        ascending.sort(Comparator.comparingInt(role -> role.position));
+        for (RoleSnapshot roleSnapshot : ascending) {
+            Role role = guild.getRoleById(remap.resolve(roleSnapshot.id));
+            if (role == null) role = plan.getResult("role:" + roleSnapshot.id);
+            if (role == null) continue;
+            try {
+                order.selectPosition(role).moveTo(Math.max(0, Math.min(roleSnapshot.position, ceiling - 1)));
+                moved = true;
+            } catch (IllegalArgumentException e) {
+                logger.debug("Could not position recovered role {}: {}", role.getName(), e.getMessage());
+            }
         }
+        return moved ? order : null;
+    }
+    
+    // One role update carrying only the fields the diff found changed
+    private RestAction<?> editRole(Guild guild, Role role, RoleSnapshot snapshot, SnapshotDiff.Change change) {
+        RoleManager manager = role.getManager();
+        boolean edited = false;
+        if (change.hasField("name")) { manager.setName(snapshot.name); edited = true; }
+        if (change.hasField("color")) { manager.setColor(snapshot.color); edited = true; }
+        if (change.hasField("permissions")) { manager.setPermissions(snapshot.permissions); edited = true; }
+        if (change.hasField("hoisted")) { manager.setHoisted(snapshot.hoisted); edited = true; }
+        if (change.hasField("mentionable")) { manager.setMentionable(snapshot.mentionable); edited = true; }
+        if (!edited) return null;
         
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                .thenApply(v -> new RecoveryResult(true, "Mass unban completed", unbanned.get()));
+        RestAction<?> edit = manager.reason("Antinuke: Restoring role from history");
+        if (change.hasField("permissions")) {
+            edit = edit.onSuccess(v -> updateCachedRolePermissions(guild.getId(), snapshot.id, snapshot.permissions));
+        }
+        return edit;
+    }
+    
+    // One channel update carrying only the fields the diff found changed
+    private RestAction<?> editChannel(Guild guild, GuildChannel channel, ChannelSnapshot snapshot,
+                                      SnapshotDiff.Change change, IdRemap remap, RecoveryPlan plan) {
+        ChannelManager<?, ?> manager = channel.getManager();
+        boolean edited = false;
+        if (change.hasField("name")) {
+            manager.setName(snapshot.name);
+            edited = true;
+        }
+        if (change.hasField("position") && manager instanceof IPositionableChannelManager<?, ?> positionable) {
+            positionable.setPosition(snapshot.position);
+            edited = true;
+        }
+        if (change.hasField("parent") && manager instanceof ICategorizableChannelManager<?, ?> categorizable) {
+            Category parent = null;
+            if (snapshot.parentId != null) {
+                parent = guild.getCategoryById(remap.resolve(snapshot.parentId));
+                if (parent == null) parent = plan.getResult("channel:" + snapshot.parentId);
+            }
+            if (parent != null || snapshot.parentId == null) {
+                categorizable.setParent(parent);
+                edited = true;
+            }
+        }
+        // This JDA version can only edit the topic of text and news channels
+        if (change.hasField("topic") && manager instanceof StandardGuildMessageChannelManager<?, ?> messageManager) {
+            messageManager.setTopic(snapshot.topic);
+            edited = true;
+        }
+        if (change.hasField("nsfw") && manager instanceof IAgeRestrictedChannelManager<?, ?> ageRestricted) {
+            ageRestricted.setNSFW(snapshot.nsfw);
+            edited = true;
+        }
+        if (change.hasField("slowmode") && manager instanceof ISlowmodeChannelManager<?, ?> slowmodeManager) {
+            slowmodeManager.setSlowmode(snapshot.slowmode);
+            edited = true;
+        }
+        if (manager instanceof AudioChannelManager<?, ?> audioManager) {
+            if (change.hasField("bitrate")) {
+                audioManager.setBitrate(Math.min(snapshot.bitrate, guild.getMaxBitrate()));
+                edited = true;
+            }
+            if (change.hasField("userLimit")) {
+                audioManager.setUserLimit(snapshot.userLimit);
+                edited = true;
+            }
+        }
+        if (change.hasField("overwrites") && manager instanceof IPermissionContainerManager<?, ?> permissionManager
+                && channel instanceof IPermissionContainer container) {
+            restoreOverwrites(guild, container, permissionManager, snapshot, plan);
+            edited = true;
+        }
+        return edited ? manager.reason("Antinuke: Restoring channel from history") : null;
     }
     
     /**
-     * Full server recovery - recovers everything
+     * Compare a guild's snapshot with its live cache and repair drift in the snapshot.
+     * Objects whose create or delete event was missed are captured or tombstoned.
+     * Modified roles and channels are left alone, since nothing says who changed them;
+     * the full re-verify pass takes them over. No request is sent, so this is cheap
+     * enough to run between full re-verify passes.
      */
-    public CompletableFuture<RecoveryResult> fullServerRecovery(Guild guild) {
-        ServerSnapshot snapshot = snapshotCache.getIfPresent(guild.getId());
-        if (snapshot == null) {
-            return CompletableFuture.completedFuture(
-                new RecoveryResult(false, "No snapshot available", 0));
-        }
+    public SnapshotDiff checkIntegrity(Guild guild) {
+        ServerSnapshot snapshot = getSnapshot(guild.getId());
+        if (snapshot == null) return null;
         
-        AtomicInteger totalRecovered = new AtomicInteger(0);
-        
-        return CompletableFuture.runAsync(() -> {
-            try {
-                logger.info("Starting full server recovery for: {}", guild.getName());
-                
-                // Step 1: Recover roles first (needed for channels)
-                List<String> currentRoleIds = guild.getRoles().stream()
-                        .map(Role::getId)
-                        .collect(Collectors.toList());
-                        
-                List<String> missingRoles = snapshot.roles.stream()
-                        .map(r -> r.id)
-                        .filter(id -> !currentRoleIds.contains(id))
-                        .collect(Collectors.toList());
-                
-                if (!missingRoles.isEmpty()) {
-                    RecoveryResult roleResult = recoverRoles(guild, missingRoles).get();
-                    totalRecovered.addAndGet(roleResult.itemsRecovered);
+        SnapshotDiff diff = SnapshotDiff.compare(snapshot, guild, getIdRemap(guild.getId()));
+        int repaired = 0;
+        for (SnapshotDiff.Change change : diff.getChanges()) {
+            if (change.getKind() == SnapshotDiff.Kind.MISSING) {
+                if (change.isTombstoned()) continue;
+                switch (change.getTarget()) {
+                    case ROLE -> markRoleDeleted(guild.getId(), change.getId());
+                    case CHANNEL -> markChannelDeleted(guild.getId(), change.getId());
+                    case EMOJI -> markEmojiDeleted(guild.getId(), change.getId());
+                    case STICKER -> markStickerDeleted(guild.getId(), change.getId());
                 }
-                
-                // Step 2: Recover channels
-                List<String> currentChannelIds = guild.getChannels().stream()
-                        .map(GuildChannel::getId)
-                        .collect(Collectors.toList());
-                        
-                List<String> missingChannels = snapshot.channels.stream()
-                        .map(c -> c.id)
-                        .filter(id -> !currentChannelIds.contains(id))
-                        .collect(Collectors.toList());
-                
-                if (!missingChannels.isEmpty()) {
-                    RecoveryResult channelResult = recoverChannels(guild, missingChannels).get();
-                    totalRecovered.addAndGet(channelResult.itemsRecovered);
+                repaired++;
+                continue;
+            }
+            if (change.getKind() == SnapshotDiff.Kind.MODIFIED && (change.getTarget() == SnapshotDiff.Target.ROLE
+                    || change.getTarget() == SnapshotDiff.Target.CHANNEL)) {
+                continue;
+            }
+            
+            String liveId = change.getLiveId();
+            switch (change.getTarget()) {
+                case ROLE -> {
+                    Role role = guild.getRoleById(liveId);
+                    if (role != null) upsertRole(role);
+                }
+                case CHANNEL -> {
+                    GuildChannel channel = guild.getGuildChannelById(liveId);
+                    if (channel != null) upsertChannel(channel);
+                }
+                case EMOJI -> {
+                    RichCustomEmoji emoji = guild.getEmojiById(liveId);
+                    if (emoji != null) upsertEmoji(emoji);
+                }
+                case STICKER -> {
+                    GuildSticker sticker = guild.getStickerById(liveId);
+                    if (sticker != null) upsertSticker(sticker);
                 }
-                
-                // Step 3: Restore member roles (concurrent for all members)
-                List<CompletableFuture<RecoveryResult>> memberFutures = new ArrayList<>();
-                snapshot.memberRoles.keySet().forEach(memberId -> {
-                    memberFutures.add(restoreMemberRoles(guild, memberId));
-                });
-                
-                CompletableFuture.allOf(memberFutures.toArray(new CompletableFuture[0])).get();
-                
-                logger.info("Full server recovery completed for: {} ({} items recovered)", 
-                        guild.getName(), totalRecovered.get());
-                        
-            } catch (Exception e) {
-                logger.error("Error during full server recovery: {}", guild.getId(), e);
             }
-        }, recoveryExecutor).thenApply(v -> 
-            new RecoveryResult(true, "Full recovery completed", totalRecovered.get()));
+            repaired++;
+        }
+        
+        if (repaired > 0) {
+            reweigh(snapshot);
+            logger.warn("Snapshot of guild {} had drifted from the live state ({}); repaired {} objects",
+                    guild.getName(), diff.summarize(), repaired);
+        }
+        lastIntegrityChecks.put(guild.getId(), diff);
+        return diff;
+    }
+    
+    /**
+     * Result of the most recent integrity check of a guild, or null if none ran yet
+     */
+    public SnapshotDiff getLastIntegrityCheck(String guildId) {
+        return lastIntegrityChecks.get(guildId);
     }
     
     // Helper methods
@@ -338,63 +1660,251 @@ public class FastRecoverySystem {
         snapshot.id = channel.getId();
         snapshot.name = channel.getName();
         snapshot.type = channel.getType().name();
-        snapshot.position = 0; // Position not available in this JDA version
-        
-        if (channel instanceof Category) {
-            snapshot.parentId = null;
-        } else {
-            snapshot.parentId = null; // Parent category not easily accessible
+        if (channel instanceof IPositionableChannel positionable) {
+            snapshot.position = positionable.getPositionRaw();
+        }
+        if (channel instanceof ICategorizableChannel categorizable) {
+            snapshot.parentId = categorizable.getParentCategoryId();
+        }
+        if (channel instanceof StandardGuildMessageChannel messageChannel) {
+            snapshot.topic = messageChannel.getTopic();
+        } else if (channel instanceof IPostContainer postContainer) {
+            snapshot.topic = postContainer.getTopic();
+        }
+        if (channel instanceof IAgeRestrictedChannel ageRestricted) {
+            snapshot.nsfw = ageRestricted.isNSFW();
+        }
+        if (channel instanceof ISlowmodeChannel slowmodeChannel) {
+            snapshot.slowmode = slowmodeChannel.getSlowmode();
+        }
+        if (channel instanceof AudioChannel audio) {
+            snapshot.bitrate = audio.getBitrate();
+            snapshot.userLimit = audio.getUserLimit();
+        }
+        if (channel instanceof IPermissionContainer container) {
+            List<PermissionOverride> overrides = container.getPermissionOverrides();
+            snapshot.roleOverwrites = encodeOverwrites(overrides, true);
+            snapshot.memberOverwrites = encodeOverwrites(overrides, false);
         }
         
         return snapshot;
     }
     
+    // Take the safe bits of every overwrite from the live state and the dangerous ones from
+    // the baseline. Overwrites that only held dangerous bits survive their removal.
+    private static long[] keepDangerousBits(long[] baseline, long[] live) {
+        if (baseline == null || live == null) return live;
+        
+        Map<Long, long[]> merged = new LinkedHashMap<>();
+        for (int i = 0; i + 2 < live.length; i += 3) {
+            merged.put(live[i], new long[]{live[i + 1] & ~PermissionGuard.DANGEROUS_PERMISSIONS,
+                    live[i + 2] & ~PermissionGuard.DANGEROUS_PERMISSIONS});
+        }
+        for (int i = 0; i + 2 < baseline.length; i += 3) {
+            long allow = baseline[i + 1] & PermissionGuard.DANGEROUS_PERMISSIONS;
+            long deny = baseline[i + 2] & PermissionGuard.DANGEROUS_PERMISSIONS;
+            if (allow == 0 && deny == 0) continue;
+            long[] bits = merged.computeIfAbsent(baseline[i], id -> new long[2]);
+            bits[0] |= allow;
+            bits[1] |= deny;
+        }
+        
+        long[] encoded = new long[merged.size() * 3];
+        int length = 0;
+        for (Map.Entry<Long, long[]> entry : merged.entrySet()) {
+            encoded[length++] = entry.getKey();
+            encoded[length++] = entry.getValue()[0];
+            encoded[length++] = entry.getValue()[1];
+        }
+        return encoded;
+    }
+    
+    private static long[] encodeOverwrites(List<PermissionOverride> overrides, boolean roles) {
+        long[] encoded = new long[overrides.size() * 3];
+        int length = 0;
+        for (PermissionOverride override : overrides) {
+            if (override.isRoleOverride() != roles) continue;
+            encoded[length++] = override.getIdLong();
+            encoded[length++] = override.getAllowedRaw();
+            encoded[length++] = override.getDeniedRaw();
+        }
+        return Arrays.copyOf(encoded, length);
+    }
+    
     private WebhookSnapshot captureWebhook(Webhook webhook) {
         WebhookSnapshot snapshot = new WebhookSnapshot();
         snapshot.id = webhook.getId();
         snapshot.name = webhook.getName();
         snapshot.channelId = webhook.getChannel().getId();
+        snapshot.incoming = webhook.getType() == WebhookType.INCOMING;
         snapshot.token = webhook.getToken();
+        snapshot.ownerId = webhook.getOwnerAsUser() != null ? webhook.getOwnerAsUser().getId() : null;
+        snapshot.avatarId = webhook.getDefaultUser().getAvatarId();
+        if (snapshot.avatarId != null) {
+            assetStore.prefetch("webhook-avatar:" + snapshot.avatarId, webhook.getDefaultUser().getAvatarUrl());
+        }
+        return snapshot;
+    }
+    
+    private GuildSettingsSnapshot captureSettings(Guild guild) {
+        GuildSettingsSnapshot snapshot = new GuildSettingsSnapshot();
+        snapshot.name = guild.getName();
+        snapshot.description = guild.getDescription();
+        snapshot.iconId = guild.getIconId();
+        snapshot.bannerId = guild.getBannerId();
+        snapshot.splashId = guild.getSplashId();
+        snapshot.vanityCode = guild.getVanityCode();
+        snapshot.verificationLevel = guild.getVerificationLevel();
+        snapshot.notificationLevel = guild.getDefaultNotificationLevel();
+        snapshot.explicitContentLevel = guild.getExplicitContentLevel();
+        snapshot.afkTimeout = guild.getAfkTimeout();
+        snapshot.afkChannelId = idOf(guild.getAfkChannel());
+        snapshot.systemChannelId = idOf(guild.getSystemChannel());
+        snapshot.rulesChannelId = idOf(guild.getRulesChannel());
+        
+        // Images are keyed by their Discord hash, so an unchanged icon is never downloaded twice
+        if (snapshot.iconId != null) assetStore.prefetch("guild-icon:" + snapshot.iconId, guild.getIconUrl());
+        if (snapshot.bannerId != null) assetStore.prefetch("guild-banner:" + snapshot.bannerId, guild.getBannerUrl());
+        if (snapshot.splashId != null) assetStore.prefetch("guild-splash:" + snapshot.splashId, guild.getSplashUrl());
         return snapshot;
     }
     
-    private void restoreChannel(Guild guild, ChannelSnapshot snapshot) {
+    private static boolean changed(Set<String> changedKeys, String key, boolean differsFromCache) {
+        return changedKeys != null ? changedKeys.contains(key) : differsFromCache;
+    }
+    
+    private void applySettingsChange(Guild guild, GuildSettingsSnapshot settings, String key, Object value) {
+        String text = value != null ? value.toString() : null;
         try {
-            switch (snapshot.type) {
-                case "TEXT":
-                    guild.createTextChannel(snapshot.name)
-                            .setPosition(snapshot.position)
-                            .queue();
-                    break;
-                case "VOICE":
-                    guild.createVoiceChannel(snapshot.name)
-                            .setPosition(snapshot.position)
-                            .queue();
-                    break;
-                case "CATEGORY":
-                    guild.createCategory(snapshot.name)
-                            .setPosition(snapshot.position)
-                            .queue();
-                    break;
-            }
-            logger.info("Restored channel: {} in guild: {}", snapshot.name, guild.getName());
-        } catch (Exception e) {
-            logger.error("Error restoring channel: {}", snapshot.name, e);
+            switch (key) {
+                case "name" -> settings.name = text;
+                case "description" -> settings.description = text;
+                case "icon_hash" -> {
+                    settings.iconId = text;
+                    if (text != null) assetStore.prefetch("guild-icon:" + text, imageUrl(Guild.ICON_URL, guild, text));
+                }
+                case "banner_hash" -> {
+                    settings.bannerId = text;
+                    if (text != null) assetStore.prefetch("guild-banner:" + text, imageUrl(Guild.BANNER_URL, guild, text));
+                }
+                case "splash_hash" -> {
+                    settings.splashId = text;
+                    if (text != null) assetStore.prefetch("guild-splash:" + text, String.format(Guild.SPLASH_URL, guild.getId(), text));
+                }
+                case "vanity_url_code" -> settings.vanityCode = text;
+                case "verification_level" -> settings.verificationLevel = Guild.VerificationLevel.fromKey(Integer.parseInt(text));
+                case "default_message_notifications" -> settings.notificationLevel = Guild.NotificationLevel.fromKey(Integer.parseInt(text));
+                case "explicit_content_filter" -> settings.explicitContentLevel = Guild.ExplicitContentLevel.fromKey(Integer.parseInt(text));
+                case "afk_timeout" -> settings.afkTimeout = Guild.Timeout.fromKey(Integer.parseInt(text));
+                case "afk_channel_id" -> settings.afkChannelId = text;
+                case "system_channel_id" -> settings.systemChannelId = text;
+                case "rules_channel_id" -> settings.rulesChannelId = text;
+                default -> { }
+            }
+        } catch (IllegalArgumentException e) {
+            // Keep what the cache showed for values this version does not understand
+            logger.debug("Ignoring audit log value {} = {} of guild {}", key, value, guild.getId());
+        }
+    }
+    
+    private static String imageUrl(String format, Guild guild, String hash) {
+        return String.format(format, guild.getId(), hash, hash.startsWith("a_") ? "gif" : "png");
+    }
+    
+    private Icon loadGuildImage(String prefix, String imageId) {
+        if (imageId == null || !assetStore.contains(prefix + imageId)) return null;
+        try {
+            // Discord marks animated image hashes with an a_ prefix
+            return assetStore.loadIcon(prefix + imageId, imageId.startsWith("a_") ? Icon.IconType.GIF : Icon.IconType.PNG);
+        } catch (IOException e) {
+            logger.warn("Could not load stored image {}{}", prefix, imageId);
+            return null;
+        }
+    }
+    
+    private static String idOf(GuildChannel channel) {
+        return channel != null ? channel.getId() : null;
+    }
+    
+    private EmojiSnapshot captureEmoji(RichCustomEmoji emoji) {
+        EmojiSnapshot snapshot = new EmojiSnapshot();
+        snapshot.id = emoji.getId();
+        snapshot.name = emoji.getName();
+        snapshot.animated = emoji.isAnimated();
+        snapshot.roleIds = emoji.getRoles().stream()
+                .map(Role::getId)
+                .collect(Collectors.toList());
+        assetStore.prefetch("emoji:" + snapshot.id, emoji.getImageUrl());
+        return snapshot;
+    }
+    
+    private StickerSnapshot captureSticker(GuildSticker sticker) {
+        StickerSnapshot snapshot = new StickerSnapshot();
+        snapshot.id = sticker.getId();
+        snapshot.name = sticker.getName();
+        snapshot.description = sticker.getDescription();
+        snapshot.tags = new ArrayList<>(sticker.getTags());
+        snapshot.fileName = sticker.getId() + "." + sticker.getFormatType().getExtension();
+        assetStore.prefetch("sticker:" + snapshot.id, sticker.getIconUrl());
+        return snapshot;
+    }
+    
+    /**
+     * Get the cached permission bits of a role, or null if the role is not in the snapshot
+     */
+    public Long getCachedRolePermissions(String guildId, String roleId) {
+        RoleSnapshot roleSnapshot = findRoleSnapshot(guildId, roleId);
+        return roleSnapshot != null ? roleSnapshot.permissions : null;
+    }
+    
+    /**
+     * Whether a role's permissions are currently stripped by a permission freeze
+     */
+    public boolean isPermissionFrozen(String guildId, String roleId) {
+        return database.getGuildData(guildId).getFrozenPermissions().containsKey(roleId);
+    }
+    
+    /**
+     * Accept a permission change into the cached role state
+     */
+    public void updateCachedRolePermissions(String guildId, String roleId, long permissions) {
+        RoleSnapshot roleSnapshot = findRoleSnapshot(guildId, roleId);
+        if (roleSnapshot != null) {
+            roleSnapshot.permissions = permissions;
+            markDirty(guildId);
+            hotRecovery.stage(guildId, roleSnapshot);
+        }
+    }
+    
+    /**
+     * Get the webhooks captured in the latest snapshot
+     */
+    public List<WebhookSnapshot> getCachedWebhooks(String guildId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null || snapshot.webhooks == null) return Collections.emptyList();
+        List<WebhookSnapshot> webhooks = new ArrayList<>();
+        for (WebhookSnapshot webhook : snapshot.webhooks.values()) {
+            if (webhook.deletedAt == 0) webhooks.add(webhook);
         }
+        return webhooks;
     }
     
-    public void scheduleSnapshots(Guild guild, int intervalSeconds) {
-        snapshotScheduler.scheduleAtFixedRate(
-                () -> createSnapshot(guild),
-                0,
-                intervalSeconds,
-                TimeUnit.SECONDS
-        );
+    private RoleSnapshot findRoleSnapshot(String guildId, String roleId) {
+        ServerSnapshot snapshot = getSnapshot(guildId);
+        if (snapshot == null || snapshot.roles == null) return null;
+        
+        for (RoleSnapshot roleSnapshot : snapshot.roles) {
+            if (roleSnapshot.id.equals(roleId)) {
+                return roleSnapshot;
+            }
+        }
+        return null;
     }
     
     public void shutdown() {
-        recoveryExecutor.shutdown();
-        snapshotScheduler.shutdown();
+        snapshotStore.shutdown();
+        snapshotHistory.shutdown();
+        hotRecovery.shutdown();
     }
     
     // Data classes
@@ -402,10 +1912,31 @@ public class FastRecoverySystem {
         String guildId;
         String guildName;
         long timestamp;
+        AtomicLong version;
         List<RoleSnapshot> roles;
         List<ChannelSnapshot> channels;
-        Map<String, List<String>> memberRoles;
-        List<WebhookSnapshot> webhooks;
+        volatile MemberRoleStore memberRoles;
+        // Indexed by webhook id
+        Map<String, WebhookSnapshot> webhooks;
+        List<EmojiSnapshot> emojis;
+        List<StickerSnapshot> stickers;
+        GuildSettingsSnapshot settings;
+    }
+    
+    public static class GuildSettingsSnapshot {
+        String name;
+        String description;
+        String iconId;
+        String bannerId;
+        String splashId;
+        String vanityCode;
+        Guild.VerificationLevel verificationLevel;
+        Guild.NotificationLevel notificationLevel;
+        Guild.ExplicitContentLevel explicitContentLevel;
+        Guild.Timeout afkTimeout;
+        String afkChannelId;
+        String systemChannelId;
+        String rulesChannelId;
     }
     
     public static class RoleSnapshot {
@@ -416,6 +1947,7 @@ public class FastRecoverySystem {
         boolean hoisted;
         boolean mentionable;
         int position;
+        long deletedAt;
     }
     
     public static class ChannelSnapshot {
@@ -424,13 +1956,52 @@ public class FastRecoverySystem {
         String type;
         String parentId;
         int position;
+        String topic;
+        boolean nsfw;
+        int slowmode;
+        int bitrate;
+        int userLimit;
+        // Permission overwrites as flat (targetId, allow, deny) triples
+        long[] roleOverwrites;
+        long[] memberOverwrites;
+        long deletedAt;
+    }
+    
+    public static class EmojiSnapshot {
+        String id;
+        String name;
+        boolean animated;
+        List<String> roleIds;
+        long deletedAt;
+    }
+    
+    public static class StickerSnapshot {
+        String id;
+        String name;
+        String description;
+        List<String> tags;
+        String fileName;
+        long deletedAt;
     }
     
     public static class WebhookSnapshot {
         String id;
         String name;
         String channelId;
+        // Channel follower webhooks have no token and cannot be recreated
+        boolean incoming;
+        // Only known once captured since startup; snapshot files leave it out
         String token;
+        // User who created the webhook, so a flood can be pinned on them
+        String ownerId;
+        String avatarId;
+        long deletedAt;
+        
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public String getChannelId() { return channelId; }
+        public String getToken() { return token; }
+        public String getOwnerId() { return ownerId; }
     }
     
     public static class RecoveryResult {
@@ -0,0 +1,433 @@
+package com.antinuke.bot.recovery;
+
+import com.antinuke.bot.database.JsonDatabase;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.channel.ChannelType;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hot Recovery - Pre-built create requests for the objects a guild cannot be without.
+ *
+ * Admins mark a few roles and channels as critical. Their create request bodies are
+ * serialized whenever their snapshot changes, so restoring them needs no snapshot
+ * lookup, plan or JDA action: the bodies go straight to Discord's REST API in
+ * parallel, ahead of the request pipeline and bulk recovery. Only what depends on
+ * the live guild is picked at send time, from pre-serialized fragments: the parent
+ * category if it still exists and the overwrites of roles that still exist. Parts
+ * left out there are completed after bulk recovery.
+ */
+public class HotRecovery {
+    private static final Logger logger = LoggerFactory.getLogger(HotRecovery.class);
+    private static final String DISCORD_API_BASE = "https://discord.com/api/v10";
+    private static final MediaType JSON = MediaType.get("application/json");
+    
+    public static final int MAX_CRITICAL_OBJECTS = 25;
+    // A critical restore retries a rate limit once, and only if it clears quickly
+    private static final long MAX_RETRY_AFTER_MILLIS = 2000;
+    // How long bulk recovery waits for the gateway to deliver what was recreated
+    private static final long CACHE_WAIT_MILLIS = 2000;
+    private static final long CACHE_POLL_MILLIS = 25;
+    private static final Set<String> CHANNEL_TYPES = Set.of("TEXT", "NEWS", "VOICE", "STAGE", "FORUM", "MEDIA", "CATEGORY");
+    
+    private final JsonDatabase database;
+    private final String botToken;
+    private final OkHttpClient httpClient;
+    private final ObjectMapper mapper;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, GuildStage> stages;
+    private final Map<String, CompletableFuture<Result>> running;
+    
+    public HotRecovery(JsonDatabase database, String botToken) {
+        this.database = database;
+        this.botToken = botToken;
+        Dispatcher dispatcher = new Dispatcher();
+        // Every critical request of a guild goes out at once
+        dispatcher.setMaxRequestsPerHost(MAX_CRITICAL_OBJECTS * 2);
+        this.httpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .build();
+        this.mapper = new ObjectMapper();
+        this.stages = new ConcurrentHashMap<>();
+        this.running = new ConcurrentHashMap<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HotRecovery");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    public Set<String> getCriticalIds(String guildId) {
+        return database.getGuildData(guildId).getCriticalIds();
+    }
+    
+    public boolean isCritical(String guildId, String id) {
+        return getCriticalIds(guildId).contains(id);
+    }
+    
+    /**
+     * Rebuild every critical request of a guild. The permission mask and bitrate cap are
+     * kept for later single-object updates.
+     */
+    void stageAll(String guildId, long grantable, int maxBitrate, FastRecoverySystem.ServerSnapshot snapshot) {
+        GuildStage stage = stages.computeIfAbsent(guildId, id -> new GuildStage());
+        stage.grantable = grantable;
+        stage.maxBitrate = maxBitrate;
+        
+        Set<String> critical = getCriticalIds(guildId);
+        stage.requests.keySet().retainAll(critical);
+        if (critical.isEmpty()) return;
+        for (FastRecoverySystem.RoleSnapshot role : snapshot.roles) {
+            if (critical.contains(role.id)) stage(guildId, role);
+        }
+        for (FastRecoverySystem.ChannelSnapshot channel : snapshot.channels) {
+            if (critical.contains(channel.id)) stage(guildId, channel);
+        }
+    }
+    
+    /**
+     * Rebuild the request of one role if it is critical
+     */
+    void stage(String guildId, FastRecoverySystem.RoleSnapshot role) {
+        GuildStage stage = stages.get(guildId);
+        if (stage == null || !isCritical(guildId, role.id)) return;
+        
+        ObjectNode body = mapper.createObjectNode()
+                .put("name", role.name)
+                // Discord rejects a role with permissions the bot does not have itself
+                .put("permissions", Long.toString(role.permissions & stage.grantable))
+                .put("color", role.color != null ? role.color.getRGB() & 0xFFFFFF : 0)
+                .put("hoist", role.hoisted)
+                .put("mentionable", role.mentionable);
+        stage.requests.put(role.id, new StagedRequest("role", role.id, role.name,
+                "/guilds/" + guildId + "/roles", head(body), null, new long[0], new byte[0][], new byte[0]));
+    }
+    
+    /**
+     * Rebuild the request of one channel if it is critical
+     */
+    void stage(String guildId, FastRecoverySystem.ChannelSnapshot channel) {
+        GuildStage stage = stages.get(guildId);
+        if (stage == null || !isCritical(guildId, channel.id) || !CHANNEL_TYPES.contains(channel.type)) return;
+        
+        String type = channel.type;
+        ObjectNode body = mapper.createObjectNode()
+                .put("name", channel.name)
+                .put("type", ChannelType.valueOf(type).getId())
+                .put("position", channel.position);
+        if (channel.topic != null && Set.of("TEXT", "NEWS", "FORUM", "MEDIA").contains(type)) body.put("topic", channel.topic);
+        if (channel.nsfw && !type.equals("CATEGORY")) body.put("nsfw", true);
+        if (channel.slowmode > 0 && !type.equals("NEWS") && !type.equals("CATEGORY")) body.put("rate_limit_per_user", channel.slowmode);
+        if (channel.bitrate > 0) body.put("bitrate", Math.min(channel.bitrate, stage.maxBitrate));
+        if (channel.userLimit > 0) body.put("user_limit", channel.userLimit);
+        
+        long[] roleOverwrites = channel.roleOverwrites != null ? channel.roleOverwrites : new long[0];
+        long[] roleTargets = new long[roleOverwrites.length / 3];
+        byte[][] roleFragments = new byte[roleTargets.length][];
+        for (int i = 0; i < roleTargets.length; i++) {
+            roleTargets[i] = roleOverwrites[i * 3];
+            roleFragments[i] = overwrite(roleOverwrites[i * 3], 0, roleOverwrites[i * 3 + 1] & stage.grantable,
+                    roleOverwrites[i * 3 + 2] & stage.grantable);
+        }
+        ByteArrayOutputStream memberFragments = new ByteArrayOutputStream();
+        long[] memberOverwrites = channel.memberOverwrites != null ? channel.memberOverwrites : new long[0];
+        for (int i = 0; i + 2 < memberOverwrites.length; i += 3) {
+            memberFragments.writeBytes(overwrite(memberOverwrites[i], 1, memberOverwrites[i + 1] & stage.grantable,
+                    memberOverwrites[i + 2] & stage.grantable));
+        }
+        stage.requests.put(channel.id, new StagedRequest("channel", channel.id, channel.name,
+                "/guilds/" + guildId + "/channels", head(body), type.equals("CATEGORY") ? null : channel.parentId,
+                roleTargets, roleFragments, memberFragments.toByteArray()));
+    }
+    
+    /**
+     * Critical requests currently staged for a guild
+     */
+    public List<StagedRequest> getStaged(String guildId) {
+        GuildStage stage = stages.get(guildId);
+        return stage != null ? new ArrayList<>(stage.requests.values()) : Collections.emptyList();
+    }
+    
+    /**
+     * Ids of the staged critical objects that are missing from the guild, which a restore would send
+     */
+    public Set<String> getMissing(Guild guild, IdRemap remap) {
+        GuildStage stage = stages.get(guild.getId());
+        if (stage == null) return Collections.emptySet();
+        Set<String> missing = new HashSet<>();
+        for (StagedRequest request : stage.requests.values()) {
+            if (isMissing(guild, remap, request)) missing.add(request.id);
+        }
+        return missing;
+    }
+    
+    /**
+     * Send the staged request of every critical object that is missing from the guild.
+     * The future completes once the recreated objects are in JDA's cache, or after a
+     * short wait, so bulk recovery started after it sees them. Concurrent callers for
+     * the same guild share one restore.
+     */
+    public CompletableFuture<Result> restore(Guild guild, IdRemap remap) {
+        GuildStage stage = stages.get(guild.getId());
+        if (stage == null || stage.requests.isEmpty()) {
+            return CompletableFuture.completedFuture(new Result());
+        }
+        
+        CompletableFuture<Result> restore = new CompletableFuture<>();
+        CompletableFuture<Result> existing = running.putIfAbsent(guild.getId(), restore);
+        if (existing != null) return existing;
+        restore.whenComplete((result, error) -> running.remove(guild.getId(), restore));
+        
+        long startedAt = System.currentTimeMillis();
+        Result result = new Result();
+        List<CompletableFuture<?>> sends = new ArrayList<>();
+        for (StagedRequest request : stage.requests.values()) {
+            if (!isMissing(guild, remap, request)) continue;
+            
+            byte[] body = request.body(guild, remap, result.incomplete);
+            sends.add(send(request, body, 1).handle((newId, error) -> {
+                if (error != null) {
+                    result.failed.incrementAndGet();
+                    result.incomplete.remove(request.id);
+                    logger.warn("Hot recovery of critical {} {} failed: {}", request.kind, request.name, error.getMessage());
+                } else {
+                    remap.put(request.id, newId);
+                    result.recreated.put(request.id, newId);
+                    promote(guild.getId(), stage, request.id, newId);
+                }
+                return null;
+            }));
+        }
+        if (sends.isEmpty()) {
+            restore.complete(result);
+            return restore;
+        }
+        
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).whenComplete((done, error) -> {
+            result.elapsedMillis = System.currentTimeMillis() - startedAt;
+            logger.info("Hot recovery of guild {} sent {} critical requests in {} ms ({} failed)",
+                    guild.getName(), sends.size(), result.elapsedMillis, result.failed.get());
+            awaitCached(guild, result, System.currentTimeMillis() + CACHE_WAIT_MILLIS, restore);
+        });
+        return restore;
+    }
+    
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    private static boolean isMissing(Guild guild, IdRemap remap, StagedRequest request) {
+        String currentId = remap.resolve(request.id);
+        return request.kind.equals("role")
+                ? guild.getRoleById(currentId) == null
+                : guild.getGuildChannelById(currentId) == null;
+    }
+    
+    // The recreated object is the critical one from now on. Runs on request callback threads,
+    // so it relies on GuildData keeping the critical ids in a concurrent set.
+    private void promote(String guildId, GuildStage stage, String oldId, String newId) {
+        stage.requests.remove(oldId);
+        JsonDatabase.GuildData guildData = database.getGuildData(guildId);
+        if (guildData.getCriticalIds().remove(oldId)) {
+            guildData.getCriticalIds().add(newId);
+            database.saveGuildData(guildId, guildData);
+        }
+    }
+    
+    private void awaitCached(Guild guild, Result result, long deadline, CompletableFuture<Result> restore) {
+        boolean cached = result.recreated.values().stream()
+                .allMatch(id -> guild.getRoleById(id) != null || guild.getGuildChannelById(id) != null);
+        if (cached || System.currentTimeMillis() >= deadline) {
+            restore.complete(result);
+            return;
+        }
+        scheduler.schedule(() -> awaitCached(guild, result, deadline, restore), CACHE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    // POST a staged body; completes with the id of the created object
+    private CompletableFuture<String> send(StagedRequest staged, byte[] body, int attempt) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Request request = new Request.Builder()
+                .url(DISCORD_API_BASE + staged.path)
+                .header("Authorization", "Bot " + botToken)
+                .header("X-Audit-Log-Reason", "Antinuke: Hot recovery of critical " + staged.kind)
+                .post(RequestBody.create(body, JSON))
+                .build();
+        
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.completeExceptionally(e);
+            }
+            
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    if (response.code() == 429 && attempt == 1) {
+                        long retryAfter = retryAfterMillis(response);
+                        if (retryAfter <= MAX_RETRY_AFTER_MILLIS) {
+                            scheduler.schedule(() -> send(staged, body, attempt + 1).whenComplete((id, error) -> {
+                                if (error != null) future.completeExceptionally(error); else future.complete(id);
+                            }), retryAfter, TimeUnit.MILLISECONDS);
+                            return;
+                        }
+                    }
+                    String text = response.body() != null ? response.body().string() : "";
+                    if (!response.isSuccessful()) {
+                        future.completeExceptionally(new IOException("HTTP " + response.code() + ": " + text));
+                        return;
+                    }
+                    future.complete(mapper.readTree(text).get("id").asText());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+    
+    private static long retryAfterMillis(Response response) {
+        String header = response.header("Retry-After");
+        try {
+            return header != null ? (long) (Double.parseDouble(header) * 1000) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    // A JSON object without its closing brace, so fragments can be appended at send time
+    private byte[] head(ObjectNode body) {
+        try {
+            byte[] json = mapper.writeValueAsBytes(body);
+            return Arrays.copyOf(json, json.length - 1);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize critical request", e);
+        }
+    }
+    
+    private static byte[] overwrite(long targetId, int type, long allow, long deny) {
+        return String.format("{\"id\":\"%d\",\"type\":%d,\"allow\":\"%d\",\"deny\":\"%d\"},", targetId, type, allow, deny)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+    
+    // Swap the leading id of a staged overwrite fragment, keeping its type and bits
+    private static byte[] retarget(byte[] fragment, long oldId, long newId) {
+        int skip = ("{\"id\":\"" + oldId).length();
+        byte[] prefix = ("{\"id\":\"" + newId).getBytes(StandardCharsets.UTF_8);
+        byte[] result = Arrays.copyOf(prefix, prefix.length + fragment.length - skip);
+        System.arraycopy(fragment, skip, result, prefix.length, fragment.length - skip);
+        return result;
+    }
+    
+    private static class GuildStage {
+        final Map<String, StagedRequest> requests = new ConcurrentHashMap<>();
+        volatile long grantable;
+        volatile int maxBitrate;
+    }
+    
+    public static class StagedRequest {
+        final String kind;
+        final String id;
+        final String name;
+        final String path;
+        final byte[] head;
+        final String parentId;
+        final long[] roleTargets;
+        final byte[][] roleFragments;
+        // Overwrite fragments end in a comma; the last one is trimmed when the body is assembled
+        final byte[] memberFragments;
+        final long stagedAt = System.currentTimeMillis();
+        
+        StagedRequest(String kind, String id, String name, String path, byte[] head, String parentId,
+                      long[] roleTargets, byte[][] roleFragments, byte[] memberFragments) {
+            this.kind = kind;
+            this.id = id;
+            this.name = name;
+            this.path = path;
+            this.head = head;
+            this.parentId = parentId;
+            this.roleTargets = roleTargets;
+            this.roleFragments = roleFragments;
+            this.memberFragments = memberFragments;
+        }
+        
+        // Append the live-dependent fragments; ids of channels sent without some of them go to incomplete
+        byte[] body(Guild guild, IdRemap remap, Set<String> incomplete) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + memberFragments.length + 512);
+            out.writeBytes(head);
+            if (kind.equals("channel")) {
+                if (parentId != null) {
+                    String parent = remap.resolve(parentId);
+                    if (guild.getCategoryById(parent) != null) {
+                        out.writeBytes((",\"parent_id\":\"" + parent + "\"").getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        incomplete.add(id);
+                    }
+                }
+                ByteArrayOutputStream overwrites = new ByteArrayOutputStream();
+                for (int i = 0; i < roleTargets.length; i++) {
+                    // Overwrites of deleted roles name an id Discord would reject; recreated ones get their new id
+                    long target = remap.resolve(roleTargets[i]);
+                    if (guild.getRoleById(target) == null) {
+                        incomplete.add(id);
+                    } else if (target == roleTargets[i]) {
+                        overwrites.writeBytes(roleFragments[i]);
+                    } else {
+                        overwrites.writeBytes(retarget(roleFragments[i], roleTargets[i], target));
+                    }
+                }
+                overwrites.writeBytes(memberFragments);
+                byte[] list = overwrites.toByteArray();
+                out.writeBytes(",\"permission_overwrites\":[".getBytes(StandardCharsets.UTF_8));
+                out.write(list, 0, Math.max(0, list.length - 1));
+                out.write(']');
+            }
+            out.write('}');
+            return out.toByteArray();
+        }
+        
+        public String getKind() { return kind; }
+        public String getId() { return id; }
+        public String getName() { return name; }
+        public long getStagedAt() { return stagedAt; }
+        
+        public int getBodyBytes() {
+            int bytes = head.length + memberFragments.length;
+            for (byte[] fragment : roleFragments) bytes += fragment.length;
+            return bytes;
+        }
+    }
+    
+    public static class Result {
+        final Map<String, String> recreated = new ConcurrentHashMap<>();
+        final Set<String> incomplete = ConcurrentHashMap.newKeySet();
+        final AtomicInteger failed = new AtomicInteger();
+        volatile long elapsedMillis;
+        
+        /**
+         * Old-to-new ids of the critical objects that were recreated
+         */
+        public Map<String, String> getRecreated() { return recreated; }
+        
+        /**
+         * Recreated channels whose parent or some role overwrites still have to be restored
+         */
+        public Set<String> getIncomplete() { return incomplete; }
+        public int getFailed() { return failed.get(); }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public boolean isEmpty() { return recreated.isEmpty() && failed.get() == 0; }
+    }
+}
@@ -0,0 +1,74 @@
+package com.antinuke.bot.recovery;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id Remap - Old-to-new ids of the objects recovery recreated in one guild.
+ *
+ * A recreated role, channel, emoji or sticker gets a new snowflake while snapshots,
+ * member role lists and permission overwrites still name the old one. Everything
+ * that restores references resolves ids through this table. An object recreated
+ * twice in the same incident chains old -> middle -> new; lookups follow the chain.
+ * Entries expire after a day, matching the snapshot history window.
+ */
+public class IdRemap {
+    private static final long ENTRY_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // Guards against cycles if an id ever maps back onto itself through a chain
+    private static final int MAX_CHAIN = 8;
+    
+    private final Map<String, Entry> mappings = new ConcurrentHashMap<>();
+    private volatile long lastPrune = System.currentTimeMillis();
+    
+    /**
+     * Record that the object with oldId was recreated as newId
+     */
+    public void put(String oldId, String newId) {
+        if (oldId == null || newId == null || oldId.equals(newId)) return;
+        mappings.put(oldId, new Entry(newId));
+        
+        long now = System.currentTimeMillis();
+        if (now - lastPrune > PRUNE_INTERVAL_MILLIS) {
+            lastPrune = now;
+            long cutoff = now - ENTRY_TTL_MILLIS;
+            mappings.values().removeIf(entry -> entry.createdAt < cutoff);
+        }
+    }
+    
+    /**
+     * Current id of an object, or the id itself if it was never recreated
+     */
+    public String resolve(String id) {
+        String current = id;
+        for (int i = 0; i < MAX_CHAIN; i++) {
+            Entry entry = mappings.get(current);
+            if (entry == null) break;
+            current = entry.newId;
+        }
+        return current;
+    }
+    
+    public long resolve(long id) {
+        if (mappings.isEmpty()) return id;
+        return Long.parseLong(resolve(Long.toString(id)));
+    }
+    
+    public boolean isRemapped(String oldId) {
+        return mappings.containsKey(oldId);
+    }
+    
+    public int size() {
+        return mappings.size();
+    }
+    
+    private static class Entry {
+        final String newId;
+        final long createdAt = System.currentTimeMillis();
+        
+        Entry(String newId) {
+            this.newId = newId;
+        }
+    }
+}
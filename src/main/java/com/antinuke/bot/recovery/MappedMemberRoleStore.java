@@ -0,0 +1,264 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Mapped Member Role Store - Off-heap member roles for very large guilds.
+ *
+ * The file holds a role dictionary, the member ids sorted ascending, and one
+ * fixed-width role bitset per member. It is mapped read-only and read in place:
+ * a lookup binary-searches the id array and decodes one record, so the heap only
+ * holds the returned array. Roles added or removed after the snapshot go to small heap overlays.
+ *
+ * Layout (big-endian): a 24-byte header (magic, version, memberCount, roleCount,
+ * wordsPerRecord, padding), roleIds[roleCount], memberIds[memberCount],
+ * records[memberCount][wordsPerRecord].
+ */
+public class MappedMemberRoleStore implements MemberRoleStore {
+    private static final Logger logger = LoggerFactory.getLogger(MappedMemberRoleStore.class);
+    
+    private static final int MAGIC = 0x414E4D52;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final long[] roleIds;
+    private final int memberCount;
+    private final int words;
+    private final int membersOffset;
+    private final int recordsOffset;
+    private final MemberRoleIndex overlay;
+    // Mapped roles taken from a member since the file was written
+    private final MemberRoleIndex removed;
+    
+    private MappedMemberRoleStore(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a member role store: " + file);
+        }
+        this.memberCount = buffer.getInt(8);
+        int roleCount = buffer.getInt(12);
+        this.words = buffer.getInt(16);
+        
+        // The dictionary is tiny (a guild has at most 250 roles), so it is kept on the heap
+        this.roleIds = new long[roleCount];
+        for (int i = 0; i < roleCount; i++) {
+            roleIds[i] = buffer.getLong(HEADER_BYTES + i * 8);
+        }
+        this.membersOffset = HEADER_BYTES + roleCount * 8;
+        this.recordsOffset = membersOffset + memberCount * 8;
+        this.overlay = new MemberRoleIndex();
+        this.removed = new MemberRoleIndex();
+    }
+    
+    /**
+     * Write the roles of the given members to a file and map it
+     */
+    public static MappedMemberRoleStore create(Path file, List<Role> guildRoles, List<Member> members) throws IOException {
+        long[] roleIds = guildRoles.stream().filter(role -> !role.isPublicRole()).mapToLong(Role::getIdLong).toArray();
+        Arrays.sort(roleIds);
+        
+        List<Member> sorted = new ArrayList<>(members.size());
+        for (Member member : members) {
+            if (!member.getRoles().isEmpty()) sorted.add(member);
+        }
+        sorted.sort(Comparator.comparingLong(Member::getIdLong));
+        long[] memberIds = sorted.stream().mapToLong(Member::getIdLong).toArray();
+        
+        return write(file, roleIds, memberIds,
+                index -> sorted.get(index).getRoles().stream().mapToLong(Role::getIdLong).toArray());
+    }
+    
+    /**
+     * Write a store file and map it. roleIds and memberIds must be sorted; rolesAt returns
+     * the roles of the member at an index and is called once per member in index order,
+     * so it may read them from a stream.
+     */
+    static MappedMemberRoleStore write(Path file, long[] roleIds, long[] memberIds,
+                                               IntFunction<long[]> rolesAt) throws IOException {
+        int words = Math.max(1, (roleIds.length + 63) / 64);
+        
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+            out.putInt(MAGIC).putInt(VERSION).putInt(memberIds.length).putInt(roleIds.length).putInt(words).putInt(0);
+            for (long roleId : roleIds) {
+                out = ensure(channel, out, 8).putLong(roleId);
+            }
+            for (long memberId : memberIds) {
+                out = ensure(channel, out, 8).putLong(memberId);
+            }
+            
+            long[] bits = new long[words];
+            for (int i = 0; i < memberIds.length; i++) {
+                Arrays.fill(bits, 0);
+                for (long roleId : rolesAt.apply(i)) {
+                    int ordinal = Arrays.binarySearch(roleIds, roleId);
+                    if (ordinal >= 0) bits[ordinal >>> 6] |= 1L << (ordinal & 63);
+                }
+                for (long word : bits) {
+                    out = ensure(channel, out, 8).putLong(word);
+                }
+            }
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+    
+    /**
+     * Map an existing store file read-only
+     */
+    public static MappedMemberRoleStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedMemberRoleStore(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    @Override
+    public long[] get(long memberId) {
+        long[] added = overlay.get(memberId);
+        int index = indexOf(memberId);
+        if (index < 0) return added;
+        long[] taken = removed.get(memberId);
+        
+        int base = recordsOffset + index * words * 8;
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(buffer.getLong(base + w * 8));
+        }
+        long[] result = new long[count + (added != null ? added.length : 0)];
+        int size = 0;
+        for (int w = 0; w < words; w++) {
+            long word = buffer.getLong(base + w * 8);
+            while (word != 0) {
+                long roleId = roleIds[(w << 6) + Long.numberOfTrailingZeros(word)];
+                if (taken == null || !contains(taken, taken.length, roleId)) result[size++] = roleId;
+                word &= word - 1;
+            }
+        }
+        if (added != null) {
+            for (long roleId : added) {
+                if (!contains(result, size, roleId)) result[size++] = roleId;
+            }
+        }
+        if (size == 0) return null;
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+    
+    @Override
+    public void addRoles(long memberId, long[] added) {
+        synchronized (removed) {
+            removed.removeRoles(memberId, added);
+            overlay.addRoles(memberId, added);
+        }
+    }
+    
+    @Override
+    public void removeRoles(long memberId, long[] roleIds) {
+        synchronized (removed) {
+            overlay.removeRoles(memberId, roleIds);
+            if (indexOf(memberId) >= 0) removed.addRoles(memberId, roleIds);
+        }
+    }
+    
+    @Override
+    public long[] memberIds() {
+        long[] extra = overlay.memberIds();
+        long[] result = new long[memberCount + extra.length];
+        for (int i = 0; i < memberCount; i++) {
+            result[i] = buffer.getLong(membersOffset + i * 8);
+        }
+        int size = memberCount;
+        for (long memberId : extra) {
+            if (indexOf(memberId) < 0) result[size++] = memberId;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+    
+    @Override
+    public int size() {
+        int size = memberCount;
+        for (long memberId : overlay.memberIds()) {
+            if (indexOf(memberId) < 0) size++;
+        }
+        return size;
+    }
+    
+    public long getFileBytes() {
+        return buffer.capacity();
+    }
+    
+    // Only the role dictionary and the overlay of later changes live on the heap
+    @Override
+    public long estimateBytes() {
+        return (long) roleIds.length * 8 + overlay.estimateBytes() + removed.estimateBytes();
+    }
+    
+    /**
+     * Delete the backing file. The mapping itself is released once the store is unreachable.
+     */
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Could not delete member role store {}: {}", file, e.getMessage());
+        }
+    }
+    
+    private int indexOf(long memberId) {
+        int low = 0;
+        int high = memberCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long current = buffer.getLong(membersOffset + mid * 8);
+            if (current < memberId) {
+                low = mid + 1;
+            } else if (current > memberId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean contains(long[] values, int size, long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+    
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            out.clear();
+        }
+        return out;
+    }
+}
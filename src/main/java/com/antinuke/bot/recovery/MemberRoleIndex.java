@@ -0,0 +1,280 @@
+package com.antinuke.bot.recovery;
+
+import com.antinuke.bot.utils.LongObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * Member Role Index - Compact per-guild record of which roles each member holds.
+ *
+ * Role ids are dictionary-encoded into 16-bit ordinals, and each member's roles are
+ * stored as a length-prefixed run of ordinals in one shared char pool. Members are
+ * found through an open-addressing table of primitive long ids, so a lookup is O(1)
+ * and a member costs a few dozen bytes instead of a map entry, a String and a List.
+ * Members without roles are not stored. All methods are synchronized.
+ */
+public class MemberRoleIndex implements MemberRoleStore {
+    private static final int MAX_ROLES = Character.MAX_VALUE;
+    
+    // Role dictionary: ordinal -> role id, and role id -> ordinal
+    private long[] roleIds;
+    private final LongObjectMap<Integer> ordinals;
+    
+    // Member table: memberKeys[slot] -> offset of that member's run in pool
+    private long[] memberKeys;
+    private int[] offsets;
+    private int members;
+    private int mask;
+    
+    private char[] pool;
+    private int poolSize;
+    private int wasted;
+    
+    public MemberRoleIndex() {
+        this(16);
+    }
+    
+    public MemberRoleIndex(int expectedMembers) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedMembers * 3 / 2)) << 1;
+        this.roleIds = new long[16];
+        this.ordinals = new LongObjectMap<>(64);
+        this.memberKeys = new long[capacity];
+        this.offsets = new int[capacity];
+        this.mask = capacity - 1;
+        this.pool = new char[Math.max(16, expectedMembers * 3)];
+    }
+    
+    /**
+     * Replace the roles recorded for a member
+     */
+    public synchronized void put(long memberId, long[] memberRoleIds) {
+        int slot = find(memberId);
+        if (memberRoleIds.length == 0) {
+            if (memberKeys[slot] == memberId) {
+                wasted += pool[offsets[slot]] + 1;
+                removeSlot(slot);
+            }
+            return;
+        }
+        
+        int offset = append(memberRoleIds);
+        if (memberKeys[slot] == memberId) {
+            wasted += pool[offsets[slot]] + 1;
+            offsets[slot] = offset;
+        } else {
+            memberKeys[slot] = memberId;
+            offsets[slot] = offset;
+            if (++members * 3 > memberKeys.length * 2) {
+                resize(memberKeys.length << 1);
+            }
+        }
+        compactIfWasteful();
+    }
+    
+    /**
+     * Add roles to those already recorded for a member
+     */
+    @Override
+    public synchronized void addRoles(long memberId, long[] added) {
+        long[] current = get(memberId);
+        if (current == null) {
+            put(memberId, added);
+            return;
+        }
+        
+        long[] merged = new long[current.length + added.length];
+        System.arraycopy(current, 0, merged, 0, current.length);
+        int count = current.length;
+        for (long roleId : added) {
+            boolean present = false;
+            for (int i = 0; i < count; i++) {
+                if (merged[i] == roleId) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) merged[count++] = roleId;
+        }
+        if (count > current.length) {
+            long[] trimmed = new long[count];
+            System.arraycopy(merged, 0, trimmed, 0, count);
+            put(memberId, trimmed);
+        }
+    }
+    
+    /**
+     * Remove roles from those recorded for a member
+     */
+    @Override
+    public synchronized void removeRoles(long memberId, long[] removed) {
+        long[] current = get(memberId);
+        if (current == null) return;
+        
+        long[] kept = new long[current.length];
+        int count = 0;
+        for (long roleId : current) {
+            boolean drop = false;
+            for (long removedId : removed) {
+                if (removedId == roleId) {
+                    drop = true;
+                    break;
+                }
+            }
+            if (!drop) kept[count++] = roleId;
+        }
+        if (count < current.length) {
+            put(memberId, Arrays.copyOf(kept, count));
+        }
+    }
+    
+    /**
+     * Role ids recorded for a member, or null if the member has none
+     */
+    @Override
+    public synchronized long[] get(long memberId) {
+        int slot = find(memberId);
+        if (memberKeys[slot] != memberId) return null;
+        
+        int offset = offsets[slot];
+        int length = pool[offset];
+        long[] result = new long[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = roleIds[pool[offset + 1 + i]];
+        }
+        return result;
+    }
+    
+    public synchronized boolean contains(long memberId) {
+        return memberKeys[find(memberId)] == memberId;
+    }
+    
+    /**
+     * Ids of all members with recorded roles
+     */
+    @Override
+    public synchronized long[] memberIds() {
+        long[] result = new long[members];
+        int count = 0;
+        for (long key : memberKeys) {
+            if (key != 0) result[count++] = key;
+        }
+        return result;
+    }
+    
+    @Override
+    public synchronized int size() {
+        return members;
+    }
+    
+    public synchronized int roleCount() {
+        return ordinals.size();
+    }
+    
+    /**
+     * Approximate heap used by the index's arrays
+     */
+    @Override
+    public synchronized long estimateBytes() {
+        return (long) memberKeys.length * 8 + (long) offsets.length * 4 + (long) pool.length * 2 + (long) roleIds.length * 8;
+    }
+    
+    private int ordinalOf(long roleId) {
+        Integer ordinal = ordinals.get(roleId);
+        if (ordinal != null) return ordinal;
+        
+        int next = ordinals.size();
+        if (next >= MAX_ROLES) {
+            throw new IllegalStateException("Too many distinct roles in member role index");
+        }
+        if (next == roleIds.length) {
+            long[] grown = new long[roleIds.length << 1];
+            System.arraycopy(roleIds, 0, grown, 0, next);
+            roleIds = grown;
+        }
+        roleIds[next] = roleId;
+        ordinals.put(roleId, next);
+        return next;
+    }
+    
+    private int append(long[] memberRoleIds) {
+        ensurePool(poolSize + memberRoleIds.length + 1);
+        int offset = poolSize;
+        pool[poolSize++] = (char) memberRoleIds.length;
+        for (long roleId : memberRoleIds) {
+            pool[poolSize++] = (char) ordinalOf(roleId);
+        }
+        return offset;
+    }
+    
+    private void ensurePool(int required) {
+        if (required <= pool.length) return;
+        char[] grown = new char[Math.max(required, pool.length + (pool.length >> 1))];
+        System.arraycopy(pool, 0, grown, 0, poolSize);
+        pool = grown;
+    }
+    
+    // Updates leave their old runs behind; rewrite the pool once half of it is dead
+    private void compactIfWasteful() {
+        if (wasted < 1024 || wasted * 2 < poolSize) return;
+        
+        char[] compacted = new char[Math.max(16, poolSize - wasted)];
+        int size = 0;
+        for (int slot = 0; slot < memberKeys.length; slot++) {
+            if (memberKeys[slot] == 0) continue;
+            int offset = offsets[slot];
+            int length = pool[offset] + 1;
+            System.arraycopy(pool, offset, compacted, size, length);
+            offsets[slot] = size;
+            size += length;
+        }
+        pool = compacted;
+        poolSize = size;
+        wasted = 0;
+    }
+    
+    private int find(long memberId) {
+        int index = slot(memberId);
+        while (memberKeys[index] != 0 && memberKeys[index] != memberId) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+    
+    // Backward-shift deletion, as in LongObjectMap
+    private void removeSlot(int index) {
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (memberKeys[next] != 0) {
+            int home = slot(memberKeys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                memberKeys[gap] = memberKeys[next];
+                offsets[gap] = offsets[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        memberKeys[gap] = 0;
+        offsets[gap] = 0;
+        members--;
+    }
+    
+    private void resize(int capacity) {
+        long[] oldKeys = memberKeys;
+        int[] oldOffsets = offsets;
+        memberKeys = new long[capacity];
+        offsets = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = find(oldKeys[i]);
+                memberKeys[index] = oldKeys[i];
+                offsets[index] = oldOffsets[i];
+            }
+        }
+    }
+    
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
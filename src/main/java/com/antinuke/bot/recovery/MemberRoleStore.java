@@ -0,0 +1,43 @@
+package com.antinuke.bot.recovery;
+
+/**
+ * Member Role Store - Which roles each member of a guild held at snapshot time.
+ *
+ * Implemented on the heap by {@link MemberRoleIndex} and off-heap by
+ * {@link MappedMemberRoleStore} for very large guilds.
+ */
+public interface MemberRoleStore {
+    
+    /**
+     * Role ids recorded for a member, or null if the member has none
+     */
+    long[] get(long memberId);
+    
+    /**
+     * Add roles to those already recorded for a member
+     */
+    void addRoles(long memberId, long[] roleIds);
+    
+    /**
+     * Remove roles from those recorded for a member
+     */
+    void removeRoles(long memberId, long[] roleIds);
+    
+    /**
+     * Ids of all members with recorded roles
+     */
+    long[] memberIds();
+    
+    int size();
+    
+    /**
+     * Approximate heap held by the store; off-heap data is not counted
+     */
+    long estimateBytes();
+    
+    /**
+     * Release any resources held outside the heap
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,135 @@
+package com.antinuke.bot.recovery;
+
+import java.util.*;
+
+/**
+ * Recovery Estimate - What a recovery plan would send, computed without sending it.
+ *
+ * Every step with a route bucket counts as one request, so the counts are an upper
+ * bound: steps that find nothing left to do at run time send nothing. The duration
+ * replays the plan against a model of Discord's rate limits: each bucket allows a
+ * number of requests per window, the pipeline keeps at most a few requests of a
+ * bucket and 50 overall in flight, and every request takes a fixed round trip.
+ * Retries are not modelled, so a server under load takes longer than estimated.
+ * Critical objects restored from pre-built requests count in their own "critical"
+ * bucket; they are all sent at once before the plan starts.
+ */
+public class RecoveryEstimate {
+    private final int steps;
+    private final int requests;
+    private final int depth;
+    private final long estimatedMillis;
+    private final Map<String, Integer> requestsByBucket;
+    
+    RecoveryEstimate(int steps, int requests, int depth, long estimatedMillis, Map<String, Integer> requestsByBucket) {
+        this.steps = steps;
+        this.requests = requests;
+        this.depth = depth;
+        this.estimatedMillis = estimatedMillis;
+        this.requestsByBucket = Collections.unmodifiableMap(requestsByBucket);
+    }
+    
+    public int getStepCount() { return steps; }
+    public int getRequestCount() { return requests; }
+    public long getEstimatedMillis() { return estimatedMillis; }
+    public Map<String, Integer> getRequestsByBucket() { return requestsByBucket; }
+    
+    /**
+     * Requests sent to one bucket, such as "roles" or "members"
+     */
+    public int getRequestCount(String bucket) {
+        return requestsByBucket.getOrDefault(bucket, 0);
+    }
+    
+    /**
+     * Length of the longest dependency chain in requests; no schedule is shorter than
+     * this many round trips
+     */
+    public int getDepth() { return depth; }
+    
+    /**
+     * Multi-line summary for command replies
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder(String.format("%d requests, about %s, longest chain %d requests",
+                requests, formatDuration(estimatedMillis), depth));
+        requestsByBucket.forEach((bucket, count) -> text.append(String.format("\n• %s: %d", bucket, count)));
+        return text.toString();
+    }
+    
+    // Critical requests go out in parallel ahead of the plan, which costs one more round trip
+    RecoveryEstimate withCritical(int critical, Limits limits) {
+        if (critical == 0) return this;
+        Map<String, Integer> buckets = new LinkedHashMap<>();
+        buckets.put("critical", critical);
+        buckets.putAll(requestsByBucket);
+        return new RecoveryEstimate(steps + critical, requests + critical, depth + 1,
+                estimatedMillis + limits.getLatencyMillis(), buckets);
+    }
+    
+    private static String formatDuration(long millis) {
+        long seconds = (millis + 999) / 1000;
+        if (seconds < 60) return seconds + " s";
+        if (seconds < 3600) return String.format("%d min %d s", seconds / 60, seconds % 60);
+        return String.format("%d h %d min", seconds / 3600, seconds % 3600 / 60);
+    }
+    
+    /**
+     * Rate limits the estimate assumes. Discord does not document per-route bucket sizes
+     * and reports them only in response headers; the defaults are what guild write
+     * routes usually report and can be replaced per bucket.
+     */
+    public static class Limits {
+        // Discord's global limit, also the pipeline's in-flight cap
+        static final int GLOBAL_PER_SECOND = 50;
+        
+        private final Map<String, long[]> buckets = new HashMap<>();
+        private long[] fallback = {5, 5_000};
+        private long latencyMillis = 300;
+        
+        public static Limits defaults() {
+            return new Limits()
+                    .bucket("roles", 10, 10_000)
+                    .bucket("role-positions", 1, 1_000)
+                    .bucket("channels", 5, 5_000)
+                    .bucket("members", 10, 10_000)
+                    .bucket("webhooks", 5, 5_000);
+        }
+        
+        /**
+         * Allow at most the given requests to a bucket in every window
+         */
+        public Limits bucket(String bucket, int requests, long windowMillis) {
+            buckets.put(bucket, new long[]{Math.max(1, requests), Math.max(1, windowMillis)});
+            return this;
+        }
+        
+        /**
+         * Limit of buckets that were not configured
+         */
+        public Limits fallback(int requests, long windowMillis) {
+            fallback = new long[]{Math.max(1, requests), Math.max(1, windowMillis)};
+            return this;
+        }
+        
+        /**
+         * Round trip of one request
+         */
+        public Limits latency(long millis) {
+            latencyMillis = Math.max(1, millis);
+            return this;
+        }
+        
+        int requestsPerWindow(String bucket) {
+            return (int) buckets.getOrDefault(bucket, fallback)[0];
+        }
+        
+        long windowMillis(String bucket) {
+            return buckets.getOrDefault(bucket, fallback)[1];
+        }
+        
+        long getLatencyMillis() {
+            return latencyMillis;
+        }
+    }
+}
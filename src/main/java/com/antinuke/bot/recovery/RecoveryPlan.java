@@ -0,0 +1,370 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Recovery Plan - Runs recovery requests as a dependency graph.
+ *
+ * Each step names the steps it depends on, its pipeline lane and the route bucket
+ * it is sent to. A step is handed to the request pipeline as soon as all of its
+ * dependencies have finished, where it is limited only by the requests already in
+ * flight for its bucket, so independent work (members waiting on roles, children
+ * waiting on their own category) never waits on unrelated steps. Nothing blocks a
+ * thread: steps are chained on request completion. A failed step still releases
+ * its dependents, which fall back to whatever already exists.
+ */
+public class RecoveryPlan {
+    private static final Logger logger = LoggerFactory.getLogger(RecoveryPlan.class);
+    
+    private final String name;
+    private final int maxInFlightPerBucket;
+    private final RequestPipeline pipeline;
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private final Map<String, Object> results = new ConcurrentHashMap<>();
+    private final Set<String> succeeded = ConcurrentHashMap.newKeySet();
+    private final CompletableFuture<RecoveryPlan> future = new CompletableFuture<>();
+    private RecoveryProgress progress;
+    private int remaining;
+    private int completed;
+    private int failed;
+    private int requests;
+    private long startedAt;
+    private long finishedAt;
+    
+    public RecoveryPlan(String name, int maxInFlightPerBucket, RequestPipeline pipeline) {
+        this.name = name;
+        this.maxInFlightPerBucket = Math.max(1, maxInFlightPerBucket);
+        this.pipeline = pipeline;
+    }
+    
+    /**
+     * Add a step. The action is called once the dependencies are done and may return
+     * null when there is nothing to send; its result is stored under the step's key.
+     * Dependencies that are not part of the plan are ignored.
+     */
+    public synchronized RecoveryPlan add(String key, RequestPipeline.Lane lane, String bucket,
+                                         Function<RecoveryPlan, RestAction<?>> action, Collection<String> dependsOn) {
+        if (steps.containsKey(key)) {
+            throw new IllegalArgumentException("Duplicate recovery step: " + key);
+        }
+        steps.put(key, new Step(key, lane, bucket, action, dependsOn));
+        return this;
+    }
+    
+    public RecoveryPlan add(String key, RequestPipeline.Lane lane, String bucket,
+                            Function<RecoveryPlan, RestAction<?>> action, String... dependsOn) {
+        return add(key, lane, bucket, action, Arrays.asList(dependsOn));
+    }
+    
+    /**
+     * Add a step that only waits for its dependencies, so others can depend on a whole group
+     */
+    public RecoveryPlan barrier(String key, Collection<String> dependsOn) {
+        return add(key, null, null, plan -> null, dependsOn);
+    }
+    
+    /**
+     * Report planned and finished steps, requests in flight and retries to a progress model
+     */
+    public synchronized RecoveryPlan track(RecoveryProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+    
+    public boolean contains(String key) {
+        return steps.containsKey(key);
+    }
+    
+    /**
+     * Result of a finished step, or null if it failed, sent nothing, or has not run
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getResult(String key) {
+        return (T) results.get(key);
+    }
+    
+    /**
+     * Estimate the requests and duration of this plan under the default rate limits
+     */
+    public RecoveryEstimate estimate() {
+        return estimate(RecoveryEstimate.Limits.defaults());
+    }
+    
+    /**
+     * Replay the plan offline against a rate-limit model. No action is built and nothing
+     * is sent, so this can run before execute() or instead of it.
+     */
+    public synchronized RecoveryEstimate estimate(RecoveryEstimate.Limits limits) {
+        return new Replay(limits).run();
+    }
+    
+    /**
+     * Start every step whose dependencies are satisfied
+     */
+    public CompletableFuture<RecoveryPlan> execute() {
+        List<Step> ready = new ArrayList<>();
+        synchronized (this) {
+            startedAt = System.currentTimeMillis();
+            remaining = steps.size();
+            if (progress != null) {
+                progress.addPlanned((int) steps.values().stream().filter(step -> step.bucket != null).count());
+            }
+            for (Step step : steps.values()) {
+                for (String dependency : step.dependsOn) {
+                    Step parent = steps.get(dependency);
+                    if (parent != null && parent != step) {
+                        parent.dependents.add(step);
+                        step.pending++;
+                    }
+                }
+            }
+            for (Step step : steps.values()) {
+                if (step.pending == 0) ready.add(step);
+            }
+            if (remaining == 0) {
+                finish();
+                return future;
+            }
+            if (ready.isEmpty()) {
+                throw new IllegalStateException("Recovery plan '" + name + "' has a dependency cycle");
+            }
+        }
+        run(ready);
+        return future;
+    }
+    
+    // Steps that finish without a request are completed in this loop rather than by recursion
+    private void run(List<Step> launch) {
+        ArrayDeque<Step> queue = new ArrayDeque<>(launch);
+        while (!queue.isEmpty()) {
+            Step step = queue.pollFirst();
+            RestAction<?> action;
+            try {
+                action = step.action.apply(this);
+            } catch (Exception e) {
+                logger.debug("Could not build recovery step {} of plan '{}'", step.key, name, e);
+                queue.addAll(done(step, false));
+                continue;
+            }
+            if (action == null) {
+                queue.addAll(done(step, true));
+                continue;
+            }
+            
+            synchronized (this) {
+                requests++;
+            }
+            pipeline.submit(step.lane, name + ":" + step.bucket, maxInFlightPerBucket, progress, () -> action).whenComplete((result, error) -> {
+                if (error != null) {
+                    logger.debug("Recovery step {} of plan '{}' failed: {}", step.key, name, error.getMessage());
+                    run(done(step, false));
+                } else {
+                    if (result != null) results.put(step.key, result);
+                    succeeded.add(step.key);
+                    run(done(step, true));
+                }
+            });
+        }
+    }
+    
+    // Record a finished step and return the steps it made runnable
+    private List<Step> done(Step step, boolean success) {
+        List<Step> launch = new ArrayList<>();
+        synchronized (this) {
+            if (success) completed++; else failed++;
+            remaining--;
+            if (progress != null && step.bucket != null) progress.itemDone(success);
+            
+            for (Step dependent : step.dependents) {
+                if (--dependent.pending == 0) launch.add(dependent);
+            }
+            if (remaining == 0) {
+                finish();
+            }
+        }
+        return launch;
+    }
+    
+    private void finish() {
+        finishedAt = System.currentTimeMillis();
+        logger.info("Recovery plan '{}' finished: {} steps, {} requests, {} failed in {} ms",
+                name, steps.size(), requests, failed, finishedAt - startedAt);
+        future.complete(this);
+    }
+    
+    /**
+     * Number of steps with the given key prefix whose request succeeded
+     */
+    public int countSucceeded(String keyPrefix) {
+        int count = 0;
+        for (String key : succeeded) {
+            if (key.startsWith(keyPrefix)) count++;
+        }
+        return count;
+    }
+    
+    public String getName() { return name; }
+    public synchronized int getStepCount() { return steps.size(); }
+    public synchronized int getCompleted() { return completed; }
+    public synchronized int getFailed() { return failed; }
+    public synchronized int getRequestCount() { return requests; }
+    
+    public synchronized long getElapsedMillis() {
+        if (startedAt == 0) return 0;
+        return (finishedAt != 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+    
+    // Event-driven replay of the dependency graph on a simulated clock
+    private class Replay {
+        final RecoveryEstimate.Limits limits;
+        final Map<String, List<Step>> dependents = new HashMap<>();
+        final Map<String, Integer> pending = new HashMap<>();
+        final Map<String, Integer> chain = new HashMap<>();
+        final Map<String, SimulatedBucket> buckets = new LinkedHashMap<>();
+        final Map<String, Integer> requestsByBucket = new LinkedHashMap<>();
+        final ArrayDeque<Step> released = new ArrayDeque<>();
+        final ArrayDeque<Long> globalSends = new ArrayDeque<>();
+        final PriorityQueue<Map.Entry<Long, Step>> responses = new PriorityQueue<>(Map.Entry.comparingByKey());
+        long now;
+        int inFlight;
+        int finished;
+        int sent;
+        int depth;
+        
+        Replay(RecoveryEstimate.Limits limits) {
+            this.limits = limits;
+        }
+        
+        RecoveryEstimate run() {
+            for (Step step : steps.values()) {
+                int count = 0;
+                for (String dependency : step.dependsOn) {
+                    if (steps.containsKey(dependency) && !dependency.equals(step.key)) {
+                        dependents.computeIfAbsent(dependency, key -> new ArrayList<>()).add(step);
+                        count++;
+                    }
+                }
+                pending.put(step.key, count);
+                if (count == 0) released.add(step);
+            }
+            
+            while (true) {
+                queueReleased();
+                long wakeAt = send();
+                if (!responses.isEmpty()) wakeAt = Math.min(wakeAt, responses.peek().getKey());
+                if (wakeAt == Long.MAX_VALUE) break;
+                
+                now = wakeAt;
+                while (!responses.isEmpty() && responses.peek().getKey() <= now) {
+                    Step step = responses.poll().getValue();
+                    buckets.get(step.bucket).inFlight--;
+                    inFlight--;
+                    finish(step);
+                }
+            }
+            if (finished < steps.size()) {
+                throw new IllegalStateException("Recovery plan '" + name + "' has a dependency cycle");
+            }
+            return new RecoveryEstimate(steps.size(), sent, depth, now, requestsByBucket);
+        }
+        
+        // Barriers finish on the spot; request steps wait in their bucket
+        private void queueReleased() {
+            while (!released.isEmpty()) {
+                Step step = released.pollFirst();
+                if (step.bucket == null) {
+                    finish(step);
+                } else {
+                    buckets.computeIfAbsent(step.bucket, bucket -> new SimulatedBucket(step.lane,
+                            limits.requestsPerWindow(bucket), limits.windowMillis(bucket))).ready.add(step);
+                }
+            }
+        }
+        
+        // Send what the limits allow now, in lane order, and return when a rate window next opens
+        private long send() {
+            long wakeAt = Long.MAX_VALUE;
+            prune(globalSends, 1000);
+            List<SimulatedBucket> ordered = new ArrayList<>(buckets.values());
+            ordered.sort(Comparator.comparing(bucket -> bucket.lane));
+            for (SimulatedBucket bucket : ordered) {
+                prune(bucket.sends, bucket.windowMillis);
+                while (!bucket.ready.isEmpty() && bucket.inFlight < maxInFlightPerBucket
+                        && bucket.sends.size() < bucket.requestsPerWindow
+                        && inFlight < RecoveryEstimate.Limits.GLOBAL_PER_SECOND
+                        && globalSends.size() < RecoveryEstimate.Limits.GLOBAL_PER_SECOND) {
+                    Step step = bucket.ready.pollFirst();
+                    bucket.sends.addLast(now);
+                    globalSends.addLast(now);
+                    bucket.inFlight++;
+                    inFlight++;
+                    sent++;
+                    requestsByBucket.merge(step.bucket, 1, Integer::sum);
+                    responses.add(Map.entry(now + limits.getLatencyMillis(), step));
+                }
+                if (!bucket.ready.isEmpty() && bucket.sends.size() >= bucket.requestsPerWindow) {
+                    wakeAt = Math.min(wakeAt, bucket.sends.peekFirst() + bucket.windowMillis);
+                }
+            }
+            if (globalSends.size() >= RecoveryEstimate.Limits.GLOBAL_PER_SECOND) {
+                wakeAt = Math.min(wakeAt, globalSends.peekFirst() + 1000);
+            }
+            return wakeAt;
+        }
+        
+        private void prune(ArrayDeque<Long> sends, long windowMillis) {
+            while (!sends.isEmpty() && sends.peekFirst() + windowMillis <= now) sends.pollFirst();
+        }
+        
+        private void finish(Step step) {
+            finished++;
+            int length = chain.getOrDefault(step.key, 0) + (step.bucket != null ? 1 : 0);
+            depth = Math.max(depth, length);
+            for (Step dependent : dependents.getOrDefault(step.key, List.of())) {
+                chain.merge(dependent.key, length, Math::max);
+                if (pending.merge(dependent.key, -1, Integer::sum) == 0) released.add(dependent);
+            }
+        }
+    }
+    
+    private static class SimulatedBucket {
+        final RequestPipeline.Lane lane;
+        final int requestsPerWindow;
+        final long windowMillis;
+        final ArrayDeque<Step> ready = new ArrayDeque<>();
+        final ArrayDeque<Long> sends = new ArrayDeque<>();
+        int inFlight;
+        
+        SimulatedBucket(RequestPipeline.Lane lane, int requestsPerWindow, long windowMillis) {
+            this.lane = lane;
+            this.requestsPerWindow = requestsPerWindow;
+            this.windowMillis = windowMillis;
+        }
+    }
+    
+    private static class Step {
+        final String key;
+        final RequestPipeline.Lane lane;
+        final String bucket;
+        final Function<RecoveryPlan, RestAction<?>> action;
+        final Collection<String> dependsOn;
+        final List<Step> dependents = new ArrayList<>();
+        int pending;
+        
+        Step(String key, RequestPipeline.Lane lane, String bucket, Function<RecoveryPlan, RestAction<?>> action,
+             Collection<String> dependsOn) {
+            this.key = key;
+            this.lane = lane;
+            this.bucket = bucket;
+            this.action = action;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
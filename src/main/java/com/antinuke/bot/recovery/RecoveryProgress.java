@@ -0,0 +1,164 @@
+package com.antinuke.bot.recovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Recovery Progress - Live counters of one recovery job.
+ *
+ * The recovery plan reports planned and finished items, the request pipeline
+ * reports requests in flight and retries. The ETA is the remaining items divided
+ * by a smoothed rate of finished items per second. A watcher is called at most
+ * once per update interval and never after the job finished, so a status message
+ * can be edited without racing the final result.
+ */
+public class RecoveryProgress {
+    private static final Logger logger = LoggerFactory.getLogger(RecoveryProgress.class);
+    
+    public static final long UPDATE_INTERVAL_MILLIS = 2000;
+    // Weight of the newest sample in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final long RATE_SAMPLE_MILLIS = 500;
+    
+    private static final ScheduledExecutorService updater = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "RecoveryProgress-Updates");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final String name;
+    private final long startedAt = System.currentTimeMillis();
+    private int planned;
+    private int inFlight;
+    private int done;
+    private int failed;
+    private int retried;
+    private long finishedAt;
+    private double itemsPerSecond;
+    private long sampledAt = startedAt;
+    private int sampledItems;
+    private Consumer<RecoveryProgress> watcher;
+    private ScheduledFuture<?> pendingUpdate;
+    private long lastUpdateAt;
+    
+    public RecoveryProgress(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Call the watcher with the current state, at most once per update interval
+     */
+    public synchronized RecoveryProgress watch(Consumer<RecoveryProgress> watcher) {
+        this.watcher = watcher;
+        return this;
+    }
+    
+    synchronized void addPlanned(int items) {
+        planned += items;
+        changed();
+    }
+    
+    synchronized void requestStarted() {
+        inFlight++;
+        changed();
+    }
+    
+    synchronized void requestFinished() {
+        inFlight = Math.max(0, inFlight - 1);
+    }
+    
+    synchronized void requestRetried() {
+        retried++;
+        changed();
+    }
+    
+    synchronized void itemDone(boolean success) {
+        if (success) done++; else failed++;
+        sampleRate(System.currentTimeMillis());
+        changed();
+    }
+    
+    /**
+     * Mark the job finished. Pending watcher calls are dropped; the caller reports the result.
+     */
+    public synchronized void finish() {
+        if (finishedAt != 0) return;
+        finishedAt = System.currentTimeMillis();
+        if (pendingUpdate != null) {
+            pendingUpdate.cancel(false);
+            pendingUpdate = null;
+        }
+    }
+    
+    public String getName() { return name; }
+    public synchronized int getPlanned() { return planned; }
+    public synchronized int getInFlight() { return inFlight; }
+    public synchronized int getDone() { return done; }
+    public synchronized int getFailed() { return failed; }
+    public synchronized int getRetried() { return retried; }
+    public synchronized boolean isFinished() { return finishedAt != 0; }
+    
+    public synchronized long getElapsedMillis() {
+        return (finishedAt != 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+    
+    /**
+     * Estimated time until every planned item is finished, or -1 while there is no rate yet
+     */
+    public synchronized long getEtaMillis() {
+        int remaining = planned - done - failed;
+        if (remaining <= 0) return 0;
+        double rate = itemsPerSecond;
+        if (rate <= 0) {
+            long elapsed = System.currentTimeMillis() - startedAt;
+            if (done + failed == 0 || elapsed == 0) return -1;
+            rate = (done + failed) * 1000.0 / elapsed;
+        }
+        return (long) (remaining / rate * 1000);
+    }
+    
+    /**
+     * One-line summary for status messages
+     */
+    public synchronized String describe() {
+        long eta = getEtaMillis();
+        return String.format("%d/%d items done, %d in flight, %d failed, %d retried - %s",
+                done, planned, inFlight, failed, retried,
+                finishedAt != 0 ? String.format("finished in %.1f s", getElapsedMillis() / 1000.0)
+                        : eta < 0 ? "estimating time left" : String.format("about %d s left", (eta + 999) / 1000));
+    }
+    
+    // Fold the items finished since the last sample into the smoothed rate
+    private void sampleRate(long now) {
+        long window = now - sampledAt;
+        if (window < RATE_SAMPLE_MILLIS) return;
+        int finished = done + failed;
+        double sample = (finished - sampledItems) * 1000.0 / window;
+        itemsPerSecond = itemsPerSecond == 0 ? sample : RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * itemsPerSecond;
+        sampledAt = now;
+        sampledItems = finished;
+    }
+    
+    private void changed() {
+        if (watcher == null || finishedAt != 0 || pendingUpdate != null) return;
+        long delay = Math.max(0, lastUpdateAt + UPDATE_INTERVAL_MILLIS - System.currentTimeMillis());
+        pendingUpdate = updater.schedule(this::notifyWatcher, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private synchronized void notifyWatcher() {
+        pendingUpdate = null;
+        if (finishedAt != 0) return;
+        lastUpdateAt = System.currentTimeMillis();
+        try {
+            watcher.accept(this);
+        } catch (Exception e) {
+            logger.debug("Progress watcher of {} failed: {}", name, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Request Batch - Runs a planned list of requests with a bounded number in flight.
+ *
+ * All requests are handed to the request pipeline in plan order on one route whose
+ * in-flight limit is the batch limit, so JDA's per-bucket queues never hold more
+ * than that and the global rate limit is not flooded. Counts only move when
+ * Discord has answered a request, after any retries.
+ */
+public class RequestBatch {
+    private static final Logger logger = LoggerFactory.getLogger(RequestBatch.class);
+    
+    private final String name;
+    private final List<Supplier<RestAction<?>>> requests = new ArrayList<>();
+    private final int maxInFlight;
+    private final RequestPipeline pipeline;
+    private final RequestPipeline.Lane lane;
+    private final AtomicInteger completed = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final CompletableFuture<RequestBatch> future = new CompletableFuture<>();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    
+    public RequestBatch(String name, int maxInFlight, RequestPipeline pipeline, RequestPipeline.Lane lane) {
+        this.name = name;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.pipeline = pipeline;
+        this.lane = lane;
+    }
+    
+    /**
+     * Add a request to the plan. The action is only built when it is about to be sent.
+     */
+    public RequestBatch add(Supplier<RestAction<?>> request) {
+        requests.add(request);
+        return this;
+    }
+    
+    /**
+     * Start sending the planned requests
+     */
+    public CompletableFuture<RequestBatch> start() {
+        startedAt = System.currentTimeMillis();
+        if (requests.isEmpty()) {
+            finish();
+            return future;
+        }
+        
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            pipeline.submit(lane, name, maxInFlight, requests.get(i)).whenComplete((result, error) -> {
+                if (error != null) {
+                    failed.incrementAndGet();
+                    logger.debug("Request {} of batch '{}' failed: {}", index, name, error.getMessage());
+                } else {
+                    completed.incrementAndGet();
+                }
+                if (completed.get() + failed.get() >= requests.size()) {
+                    finish();
+                }
+            });
+        }
+        return future;
+    }
+    
+    private synchronized void finish() {
+        if (finishedAt == 0) {
+            finishedAt = System.currentTimeMillis();
+            logger.info("Batch '{}' finished: {}/{} succeeded in {} ms",
+                    name, completed.get(), requests.size(), getElapsedMillis());
+        }
+        future.complete(this);
+    }
+    
+    public String getName() { return name; }
+    public int getTotal() { return requests.size(); }
+    public int getCompleted() { return completed.get(); }
+    public int getFailed() { return failed.get(); }
+    public boolean isFinished() { return finishedAt != 0; }
+    public long getStartedAt() { return startedAt; }
+    
+    public long getElapsedMillis() {
+        if (startedAt == 0) return 0;
+        long end = finishedAt != 0 ? finishedAt : System.currentTimeMillis();
+        return end - startedAt;
+    }
+    
+    public CompletableFuture<RequestBatch> getFuture() { return future; }
+}
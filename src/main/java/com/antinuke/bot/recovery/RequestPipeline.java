@@ -0,0 +1,223 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.exceptions.RateLimitedException;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Request Pipeline - Shared scheduler for every containment and recovery request.
+ *
+ * Requests are sent with submit() and their futures complete when Discord answered,
+ * so callers count real results. Waiting requests sit in priority lanes: containment
+ * goes out before role recreation, roles before channels, channels before member
+ * updates, and emoji or sticker uploads last. A request only starts while its route and the pipeline as a whole are
+ * below their in-flight limits, which keeps JDA's rate-limit queues short. Requests
+ * that hit a rate limit or a server error are retried with exponential backoff.
+ */
+public class RequestPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(RequestPipeline.class);
+    
+    // Discord's global limit is 50 requests per second; more in flight only queues inside JDA
+    private static final int MAX_IN_FLIGHT = 50;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    
+    public enum Lane {
+        CONTAINMENT,
+        ROLES,
+        CHANNELS,
+        MEMBERS,
+        ASSETS
+    }
+    
+    private final int maxPerRoute;
+    private final List<Map<String, ArrayDeque<Job<?>>>> lanes;
+    private final Map<String, Integer> routeInFlight;
+    private final ScheduledExecutorService retryScheduler;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private int inFlight;
+    private int queued;
+    
+    public RequestPipeline(int maxPerRoute) {
+        this.maxPerRoute = Math.max(1, maxPerRoute);
+        this.lanes = new ArrayList<>();
+        for (int i = 0; i < Lane.values().length; i++) {
+            lanes.add(new LinkedHashMap<>());
+        }
+        this.routeInFlight = new HashMap<>();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RequestPipeline-Retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Queue a request. The action is built when it is about to be sent and again for
+     * each retry; a null action completes with null without sending anything. Routes
+     * name the Discord bucket the request lands in, such as "<guildId>:roles".
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, String route, Supplier<? extends RestAction<? extends T>> request) {
+        return submit(lane, route, maxPerRoute, request);
+    }
+    
+    /**
+     * Queue a request on a route with its own in-flight limit
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, String route, int routeLimit,
+                                           Supplier<? extends RestAction<? extends T>> request) {
+        return submit(lane, route, routeLimit, null, request);
+    }
+    
+    /**
+     * Queue a request that reports its sends and retries to a recovery job's progress
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, String route, int routeLimit, RecoveryProgress progress,
+                                           Supplier<? extends RestAction<? extends T>> request) {
+        Job<T> job = new Job<>(lane, route, Math.max(1, routeLimit), progress, request);
+        synchronized (this) {
+            enqueue(job);
+        }
+        dispatch();
+        return job.future;
+    }
+    
+    public synchronized int getInFlight() { return inFlight; }
+    public synchronized int getQueued() { return queued; }
+    public long getCompleted() { return completed.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getRetried() { return retried.get(); }
+    
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+    }
+    
+    private void enqueue(Job<?> job) {
+        lanes.get(job.lane.ordinal()).computeIfAbsent(job.route, route -> new ArrayDeque<>()).addLast(job);
+        queued++;
+    }
+    
+    // Start queued jobs in lane order for as long as limits allow
+    private void dispatch() {
+        List<Job<?>> launch = new ArrayList<>();
+        synchronized (this) {
+            for (Map<String, ArrayDeque<Job<?>>> lane : lanes) {
+                Iterator<Map.Entry<String, ArrayDeque<Job<?>>>> routes = lane.entrySet().iterator();
+                while (routes.hasNext() && inFlight < MAX_IN_FLIGHT) {
+                    Map.Entry<String, ArrayDeque<Job<?>>> entry = routes.next();
+                    ArrayDeque<Job<?>> jobs = entry.getValue();
+                    int running = routeInFlight.getOrDefault(entry.getKey(), 0);
+                    while (!jobs.isEmpty() && running < jobs.peekFirst().routeLimit && inFlight < MAX_IN_FLIGHT) {
+                        launch.add(jobs.pollFirst());
+                        running++;
+                        inFlight++;
+                        queued--;
+                    }
+                    if (running > 0) routeInFlight.put(entry.getKey(), running);
+                    if (jobs.isEmpty()) routes.remove();
+                }
+            }
+        }
+        launch.forEach(this::send);
+    }
+    
+    private <T> void send(Job<T> job) {
+        RestAction<? extends T> action;
+        try {
+            action = job.request.get();
+        } catch (Exception e) {
+            release(job);
+            failed.incrementAndGet();
+            job.future.completeExceptionally(e);
+            dispatch();
+            return;
+        }
+        if (action == null) {
+            release(job);
+            job.future.complete(null);
+            dispatch();
+            return;
+        }
+        
+        job.attempts++;
+        if (job.progress != null) job.progress.requestStarted();
+        action.submit().whenComplete((result, error) -> {
+            release(job);
+            if (job.progress != null) job.progress.requestFinished();
+            if (error == null) {
+                completed.incrementAndGet();
+                job.future.complete(result);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                long delay = retryDelay(cause, job.attempts);
+                if (delay >= 0) {
+                    retried.incrementAndGet();
+                    if (job.progress != null) job.progress.requestRetried();
+                    logger.debug("Retrying request on route {} in {} ms (attempt {}): {}",
+                            job.route, delay, job.attempts + 1, cause.getMessage());
+                    retryScheduler.schedule(() -> {
+                        synchronized (this) {
+                            enqueue(job);
+                        }
+                        dispatch();
+                    }, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    failed.incrementAndGet();
+                    job.future.completeExceptionally(cause);
+                }
+            }
+            dispatch();
+        });
+    }
+    
+    private synchronized void release(Job<?> job) {
+        inFlight--;
+        routeInFlight.computeIfPresent(job.route, (route, running) -> running > 1 ? running - 1 : null);
+    }
+    
+    // Backoff for rate limits and server errors, or -1 if the request should not be retried
+    private static long retryDelay(Throwable error, int attempts) {
+        if (attempts >= MAX_ATTEMPTS) return -1;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempts - 1));
+        long jitter = ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS);
+        if (error instanceof RateLimitedException rateLimited) {
+            return Math.max(rateLimited.getRetryAfter(), backoff) + jitter;
+        }
+        if (error instanceof ErrorResponseException response) {
+            int status = response.getResponse() != null ? response.getResponse().code : 0;
+            if (response.isServerError() || status == 429 || status >= 500) {
+                return backoff + jitter;
+            }
+        }
+        return -1;
+    }
+    
+    private static class Job<T> {
+        final Lane lane;
+        final String route;
+        final int routeLimit;
+        final RecoveryProgress progress;
+        final Supplier<? extends RestAction<? extends T>> request;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        int attempts;
+        
+        Job(Lane lane, String route, int routeLimit, RecoveryProgress progress,
+            Supplier<? extends RestAction<? extends T>> request) {
+            this.lane = lane;
+            this.route = route;
+            this.routeLimit = routeLimit;
+            this.progress = progress;
+            this.request = request;
+        }
+    }
+}
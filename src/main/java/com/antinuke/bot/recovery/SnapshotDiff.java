@@ -0,0 +1,279 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.PermissionOverride;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.channel.attribute.IAgeRestrictedChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.ICategorizableChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.IPermissionContainer;
+import net.dv8tion.jda.api.entities.channel.attribute.IPositionableChannel;
+import net.dv8tion.jda.api.entities.channel.attribute.IPostContainer;
+import net.dv8tion.jda.api.entities.channel.attribute.ISlowmodeChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.StandardGuildMessageChannel;
+import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
+import net.dv8tion.jda.api.entities.sticker.GuildSticker;
+import net.dv8tion.jda.api.entities.sticker.Sticker;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Snapshot Diff - Typed change set between a snapshot and the live guild cache.
+ *
+ * Live objects are indexed by id once, then every snapshot object is looked up
+ * under its current id (through the id remap), so a diff is linear in the number
+ * of objects. An old entry whose recreated object has its own entry in the snapshot
+ * is skipped, so the live object is compared once. Each change is MISSING (in the snapshot, gone from the guild),
+ * MODIFIED (with the names of the fields that differ) or EXTRA (in the guild, not
+ * in the snapshot). Recovery turns it into the minimal set of creates and edits;
+ * the periodic integrity check uses it to find snapshot drift without any request.
+ */
+public class SnapshotDiff {
+    
+    public enum Kind {
+        MISSING,
+        MODIFIED,
+        EXTRA
+    }
+    
+    public enum Target {
+        ROLE,
+        CHANNEL,
+        EMOJI,
+        STICKER
+    }
+    
+    private final String guildId;
+    private final long createdAt = System.currentTimeMillis();
+    private final List<Change> changes = new ArrayList<>();
+    
+    private SnapshotDiff(String guildId) {
+        this.guildId = guildId;
+    }
+    
+    /**
+     * Compare a snapshot with what the guild cache holds right now
+     */
+    public static SnapshotDiff compare(FastRecoverySystem.ServerSnapshot snapshot, Guild guild, IdRemap remap) {
+        SnapshotDiff diff = new SnapshotDiff(guild.getId());
+        
+        Map<String, Role> roles = new HashMap<>();
+        guild.getRoles().forEach(role -> roles.put(role.getId(), role));
+        Set<String> roleIds = snapshot.roles.stream().map(role -> role.id).collect(Collectors.toSet());
+        for (FastRecoverySystem.RoleSnapshot expected : snapshot.roles) {
+            String liveId = remap.resolve(expected.id);
+            if (superseded(expected.id, liveId, roleIds)) continue;
+            Role role = roles.remove(liveId);
+            if (role == null) {
+                diff.add(Kind.MISSING, Target.ROLE, expected.id, null, Collections.emptySet(), expected.deletedAt != 0);
+                continue;
+            }
+            Set<String> fields = new LinkedHashSet<>();
+            if (!Objects.equals(expected.name, role.getName())) fields.add("name");
+            if (!Objects.equals(expected.color, role.getColor())) fields.add("color");
+            if (expected.permissions != role.getPermissionsRaw()) fields.add("permissions");
+            if (expected.hoisted != role.isHoisted()) fields.add("hoisted");
+            if (expected.mentionable != role.isMentionable()) fields.add("mentionable");
+            if (expected.position != role.getPosition()) fields.add("position");
+            diff.addIfModified(Target.ROLE, expected.id, liveId, fields);
+        }
+        roles.values().forEach(role -> diff.add(Kind.EXTRA, Target.ROLE, role.getId(), role.getId(), Collections.emptySet(), false));
+        
+        Map<String, GuildChannel> channels = new HashMap<>();
+        guild.getChannels().forEach(channel -> channels.put(channel.getId(), channel));
+        Set<String> channelIds = snapshot.channels.stream().map(channel -> channel.id).collect(Collectors.toSet());
+        for (FastRecoverySystem.ChannelSnapshot expected : snapshot.channels) {
+            String liveId = remap.resolve(expected.id);
+            if (superseded(expected.id, liveId, channelIds)) continue;
+            GuildChannel channel = channels.remove(liveId);
+            if (channel == null) {
+                diff.add(Kind.MISSING, Target.CHANNEL, expected.id, null, Collections.emptySet(), expected.deletedAt != 0);
+                continue;
+            }
+            Set<String> fields = new LinkedHashSet<>();
+            if (!Objects.equals(expected.name, channel.getName())) fields.add("name");
+            if (!Objects.equals(expected.type, channel.getType().name())) fields.add("type");
+            if (channel instanceof IPositionableChannel positionable && expected.position != positionable.getPositionRaw()) {
+                fields.add("position");
+            }
+            if (channel instanceof ICategorizableChannel categorizable) {
+                String expectedParent = expected.parentId != null ? remap.resolve(expected.parentId) : null;
+                if (!Objects.equals(expectedParent, categorizable.getParentCategoryId())) fields.add("parent");
+            }
+            String topic = channel instanceof StandardGuildMessageChannel messageChannel ? messageChannel.getTopic()
+                    : channel instanceof IPostContainer postContainer ? postContainer.getTopic() : null;
+            if (!Objects.equals(expected.topic, topic)) fields.add("topic");
+            if (channel instanceof IAgeRestrictedChannel ageRestricted && expected.nsfw != ageRestricted.isNSFW()) {
+                fields.add("nsfw");
+            }
+            if (channel instanceof ISlowmodeChannel slowmodeChannel && expected.slowmode != slowmodeChannel.getSlowmode()) {
+                fields.add("slowmode");
+            }
+            if (channel instanceof AudioChannel audio) {
+                if (expected.bitrate != audio.getBitrate()) fields.add("bitrate");
+                if (expected.userLimit != audio.getUserLimit()) fields.add("userLimit");
+            }
+            // Snapshots written before overwrites were captured have none to compare
+            if (channel instanceof IPermissionContainer container && expected.roleOverwrites != null
+                    && !overwrites(expected, remap).equals(overwrites(container))) {
+                fields.add("overwrites");
+            }
+            diff.addIfModified(Target.CHANNEL, expected.id, liveId, fields);
+        }
+        channels.values().forEach(channel -> diff.add(Kind.EXTRA, Target.CHANNEL, channel.getId(), channel.getId(), Collections.emptySet(), false));
+        
+        if (snapshot.emojis != null) {
+            Map<String, RichCustomEmoji> emojis = new HashMap<>();
+            guild.getEmojis().stream().filter(emoji -> !emoji.isManaged()).forEach(emoji -> emojis.put(emoji.getId(), emoji));
+            Set<String> emojiIds = snapshot.emojis.stream().map(emoji -> emoji.id).collect(Collectors.toSet());
+            for (FastRecoverySystem.EmojiSnapshot expected : snapshot.emojis) {
+                String liveId = remap.resolve(expected.id);
+                if (superseded(expected.id, liveId, emojiIds)) continue;
+                RichCustomEmoji emoji = emojis.remove(liveId);
+                if (emoji == null) {
+                    diff.add(Kind.MISSING, Target.EMOJI, expected.id, null, Collections.emptySet(), expected.deletedAt != 0);
+                    continue;
+                }
+                Set<String> fields = new LinkedHashSet<>();
+                if (!Objects.equals(expected.name, emoji.getName())) fields.add("name");
+                Set<String> expectedRoles = expected.roleIds.stream().map(remap::resolve).collect(Collectors.toSet());
+                Set<String> liveRoles = emoji.getRoles().stream().map(Role::getId).collect(Collectors.toSet());
+                if (!expectedRoles.equals(liveRoles)) fields.add("roles");
+                diff.addIfModified(Target.EMOJI, expected.id, liveId, fields);
+            }
+            emojis.values().forEach(emoji -> diff.add(Kind.EXTRA, Target.EMOJI, emoji.getId(), emoji.getId(), Collections.emptySet(), false));
+        }
+        
+        if (snapshot.stickers != null) {
+            Map<String, GuildSticker> stickers = new HashMap<>();
+            guild.getStickers().forEach(sticker -> stickers.put(sticker.getId(), sticker));
+            Set<String> stickerIds = snapshot.stickers.stream().map(sticker -> sticker.id).collect(Collectors.toSet());
+            for (FastRecoverySystem.StickerSnapshot expected : snapshot.stickers) {
+                String liveId = remap.resolve(expected.id);
+                if (superseded(expected.id, liveId, stickerIds)) continue;
+                GuildSticker sticker = stickers.remove(liveId);
+                if (sticker == null) {
+                    diff.add(Kind.MISSING, Target.STICKER, expected.id, null, Collections.emptySet(), expected.deletedAt != 0);
+                    continue;
+                }
+                Set<String> fields = new LinkedHashSet<>();
+                if (!Objects.equals(expected.name, sticker.getName())) fields.add("name");
+                if (!Objects.equals(expected.description, sticker.getDescription())) fields.add("description");
+                diff.addIfModified(Target.STICKER, expected.id, liveId, fields);
+            }
+            // Lottie stickers are never captured, so they are not reported as extra
+            stickers.values().stream()
+                    .filter(sticker -> sticker.getFormatType() != Sticker.StickerFormat.LOTTIE)
+                    .forEach(sticker -> diff.add(Kind.EXTRA, Target.STICKER, sticker.getId(), sticker.getId(), Collections.emptySet(), false));
+        }
+        return diff;
+    }
+    
+    // Overwrites as "kind:target:allow:deny" entries, with role targets under their current id
+    private static Set<String> overwrites(FastRecoverySystem.ChannelSnapshot channel, IdRemap remap) {
+        Set<String> entries = new HashSet<>();
+        long[] roles = channel.roleOverwrites;
+        for (int i = 0; i + 2 < roles.length; i += 3) {
+            entries.add("role:" + remap.resolve(roles[i]) + ":" + roles[i + 1] + ":" + roles[i + 2]);
+        }
+        long[] members = channel.memberOverwrites != null ? channel.memberOverwrites : new long[0];
+        for (int i = 0; i + 2 < members.length; i += 3) {
+            entries.add("member:" + members[i] + ":" + members[i + 1] + ":" + members[i + 2]);
+        }
+        return entries;
+    }
+    
+    private static Set<String> overwrites(IPermissionContainer container) {
+        Set<String> entries = new HashSet<>();
+        for (PermissionOverride override : container.getPermissionOverrides()) {
+            entries.add((override.isRoleOverride() ? "role:" : "member:") + override.getIdLong()
+                    + ":" + override.getAllowedRaw() + ":" + override.getDeniedRaw());
+        }
+        return entries;
+    }
+    
+    // The object was recreated and the snapshot already holds an entry under its new id
+    private static boolean superseded(String id, String liveId, Set<String> snapshotIds) {
+        return !id.equals(liveId) && snapshotIds.contains(liveId);
+    }
+    
+    private void add(Kind kind, Target target, String id, String liveId, Set<String> fields, boolean tombstoned) {
+        changes.add(new Change(kind, target, id, liveId, fields, tombstoned));
+    }
+    
+    private void addIfModified(Target target, String id, String liveId, Set<String> fields) {
+        if (!fields.isEmpty()) add(Kind.MODIFIED, target, id, liveId, fields, false);
+    }
+    
+    public String getGuildId() { return guildId; }
+    public long getCreatedAt() { return createdAt; }
+    public List<Change> getChanges() { return Collections.unmodifiableList(changes); }
+    public boolean isEmpty() { return changes.isEmpty(); }
+    
+    public List<Change> get(Kind kind, Target target) {
+        List<Change> matching = new ArrayList<>();
+        for (Change change : changes) {
+            if (change.kind == kind && change.target == target) matching.add(change);
+        }
+        return matching;
+    }
+    
+    /**
+     * Snapshot ids of the objects of a type that no longer exist
+     */
+    public List<String> getMissingIds(Target target) {
+        return get(Kind.MISSING, target).stream().map(Change::getId).collect(Collectors.toList());
+    }
+    
+    public int count(Kind kind) {
+        int count = 0;
+        for (Change change : changes) {
+            if (change.kind == kind) count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Short summary such as "2 missing, 1 modified, 0 extra"
+     */
+    public String summarize() {
+        return String.format("%d missing, %d modified, %d extra", count(Kind.MISSING), count(Kind.MODIFIED), count(Kind.EXTRA));
+    }
+    
+    public static class Change {
+        final Kind kind;
+        final Target target;
+        // Snapshot id, or the live id for EXTRA changes; liveId is null for MISSING ones
+        final String id;
+        final String liveId;
+        final Set<String> fields;
+        final boolean tombstoned;
+        
+        Change(Kind kind, Target target, String id, String liveId, Set<String> fields, boolean tombstoned) {
+            this.kind = kind;
+            this.target = target;
+            this.id = id;
+            this.liveId = liveId;
+            this.fields = fields;
+            this.tombstoned = tombstoned;
+        }
+        
+        public Kind getKind() { return kind; }
+        public Target getTarget() { return target; }
+        public String getId() { return id; }
+        public String getLiveId() { return liveId; }
+        public Set<String> getFields() { return fields; }
+        public boolean isTombstoned() { return tombstoned; }
+        
+        public boolean hasField(String field) {
+            return fields.contains(field);
+        }
+        
+        @Override
+        public String toString() {
+            return kind + " " + target + " " + id + (fields.isEmpty() ? "" : " " + fields);
+        }
+    }
+}
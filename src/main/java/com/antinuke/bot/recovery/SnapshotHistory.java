@@ -0,0 +1,448 @@
+package com.antinuke.bot.recovery;
+
+import com.antinuke.bot.recovery.FastRecoverySystem.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Snapshot History - Bounded point-in-time history of each guild's snapshot.
+ *
+ * A guild's history is a base state plus a chain of deltas. Every checkpoint diffs
+ * the live snapshot against the last recorded state and stores only the roles,
+ * channels, emojis, stickers and settings that changed. Restoring as of a time
+ * replays deltas onto one copy of the base, so stepping through versions never
+ * builds a full copy per version. Deltas past the retention window, the per-guild
+ * version cap, or the global delta budget are folded into the base. Bases are not
+ * budgeted: every guild needs one, and folding never shrinks it.
+ *
+ * Member roles and webhooks are not versioned; a historic state uses the current ones.
+ * Recorded objects are copies and are never modified, so states share them freely.
+ */
+public class SnapshotHistory {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotHistory.class);
+    
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 30;
+    private static final String SETTINGS_KEY = "settings";
+    
+    private final Function<String, ServerSnapshot> source;
+    private final long retentionMillis;
+    private final int maxVersions;
+    private final long deltaBudgetBytes;
+    private final Map<String, GuildHistory> histories;
+    private final Set<String> dirty;
+    private final AtomicLong totalBytes;
+    private final AtomicLong deltaBytes;
+    private final ScheduledExecutorService scheduler;
+    
+    public SnapshotHistory(Function<String, ServerSnapshot> source, long retentionMillis, int maxVersions, long deltaBudgetBytes) {
+        this.source = source;
+        this.retentionMillis = retentionMillis;
+        this.maxVersions = maxVersions;
+        this.deltaBudgetBytes = deltaBudgetBytes;
+        this.histories = new ConcurrentHashMap<>();
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.totalBytes = new AtomicLong();
+        this.deltaBytes = new AtomicLong();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SnapshotHistory");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        scheduler.scheduleAtFixedRate(this::checkpointDirty, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Record a guild's snapshot with the next checkpoint
+     */
+    public void markDirty(String guildId) {
+        dirty.add(guildId);
+    }
+    
+    /**
+     * Record the current state of a snapshot as a new version if anything changed
+     */
+    public void checkpoint(ServerSnapshot snapshot) {
+        Map<String, Object> current = flatten(snapshot);
+        long now = System.currentTimeMillis();
+        
+        GuildHistory history = histories.computeIfAbsent(snapshot.guildId, id -> new GuildHistory());
+        synchronized (history) {
+            if (history.latest == null) {
+                Map<String, Object> base = new HashMap<>();
+                current.forEach((key, value) -> base.put(key, copy(value)));
+                history.base = base;
+                history.latest = new HashMap<>(base);
+                history.baseTimestamp = now;
+                history.baseVersion = snapshot.version.get();
+                addBytes(history, estimateAll(base.values()));
+                return;
+            }
+            
+            List<String> keys = new ArrayList<>();
+            List<Object> states = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : current.entrySet()) {
+                Object previous = history.latest.get(entry.getKey());
+                if (previous == null || !same(previous, entry.getValue())) {
+                    keys.add(entry.getKey());
+                    states.add(copy(entry.getValue()));
+                }
+            }
+            for (String key : history.latest.keySet()) {
+                if (!current.containsKey(key)) {
+                    keys.add(key);
+                    states.add(null);
+                }
+            }
+            if (keys.isEmpty()) return;
+            
+            Delta delta = new Delta(now, snapshot.version.get(), keys.toArray(new String[0]), states.toArray());
+            apply(history.latest, delta);
+            history.deltas.addLast(delta);
+            addBytes(history, delta.bytes);
+            addDeltaBytes(history, delta.bytes);
+            
+            trim(history, now);
+        }
+        
+        enforceBudget();
+    }
+    
+    /**
+     * Rebuild a guild's snapshot as it was at the given time.
+     * Returns null if the history does not reach back that far.
+     */
+    public ServerSnapshot materialize(String guildId, long asOf, ServerSnapshot current) {
+        GuildHistory history = histories.get(guildId);
+        if (history == null) return null;
+        
+        Map<String, Object> state;
+        long version;
+        long timestamp;
+        synchronized (history) {
+            if (history.base == null || asOf < history.baseTimestamp) return null;
+            state = new HashMap<>(history.base);
+            version = history.baseVersion;
+            timestamp = history.baseTimestamp;
+            for (Delta delta : history.deltas) {
+                if (delta.timestamp > asOf) break;
+                apply(state, delta);
+                version = delta.version;
+                timestamp = delta.timestamp;
+            }
+        }
+        
+        ServerSnapshot snapshot = new ServerSnapshot();
+        snapshot.guildId = guildId;
+        snapshot.guildName = current.guildName;
+        snapshot.timestamp = timestamp;
+        snapshot.version = new AtomicLong(version);
+        snapshot.roles = new ArrayList<>();
+        snapshot.channels = new ArrayList<>();
+        snapshot.emojis = new ArrayList<>();
+        snapshot.stickers = new ArrayList<>();
+        for (Object value : state.values()) {
+            // Objects already deleted at that time were not part of the guild
+            long deletedAt = deletedAt(value);
+            if (deletedAt != 0 && deletedAt <= asOf) continue;
+            if (value instanceof RoleSnapshot role) {
+                snapshot.roles.add(role);
+            } else if (value instanceof ChannelSnapshot channel) {
+                snapshot.channels.add(channel);
+            } else if (value instanceof EmojiSnapshot emoji) {
+                snapshot.emojis.add(emoji);
+            } else if (value instanceof StickerSnapshot sticker) {
+                snapshot.stickers.add(sticker);
+            } else if (value instanceof GuildSettingsSnapshot settings) {
+                snapshot.settings = settings;
+            }
+        }
+        snapshot.roles.sort(Comparator.comparingInt(role -> role.position));
+        snapshot.channels.sort(Comparator.comparingInt(channel -> channel.position));
+        snapshot.memberRoles = current.memberRoles;
+        snapshot.webhooks = current.webhooks;
+        return snapshot;
+    }
+    
+    /**
+     * Time of the oldest state that can be restored, or 0 if the guild has no history
+     */
+    public long getOldestTimestamp(String guildId) {
+        GuildHistory history = histories.get(guildId);
+        if (history == null) return 0;
+        synchronized (history) {
+            return history.baseTimestamp;
+        }
+    }
+    
+    /**
+     * Number of restorable versions, including the base
+     */
+    public int getVersionCount(String guildId) {
+        GuildHistory history = histories.get(guildId);
+        if (history == null) return 0;
+        synchronized (history) {
+            return history.base != null ? history.deltas.size() + 1 : 0;
+        }
+    }
+    
+    public long getMemoryBytes() {
+        return totalBytes.get();
+    }
+    
+    /**
+     * Drop a guild's history, e.g. when the bot leaves it
+     */
+    public void remove(String guildId) {
+        dirty.remove(guildId);
+        GuildHistory history = histories.remove(guildId);
+        if (history != null) {
+            synchronized (history) {
+                totalBytes.addAndGet(-history.bytes);
+                deltaBytes.addAndGet(-history.deltaBytes);
+            }
+        }
+    }
+    
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+    
+    private void checkpointDirty() {
+        try {
+            for (String guildId : new ArrayList<>(dirty)) {
+                dirty.remove(guildId);
+                ServerSnapshot snapshot = source.apply(guildId);
+                if (snapshot != null) {
+                    checkpoint(snapshot);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error recording snapshot history", e);
+        }
+    }
+    
+    // Fold deltas that are too old or too many into the base
+    private void trim(GuildHistory history, long now) {
+        long cutoff = now - retentionMillis;
+        while (!history.deltas.isEmpty()
+                && (history.deltas.size() > maxVersions || history.deltas.peekFirst().timestamp < cutoff)) {
+            foldOldest(history);
+        }
+    }
+    
+    private void foldOldest(GuildHistory history) {
+        Delta oldest = history.deltas.pollFirst();
+        long before = estimateAll(history.base.values());
+        apply(history.base, oldest);
+        history.baseTimestamp = oldest.timestamp;
+        history.baseVersion = oldest.version;
+        addBytes(history, estimateAll(history.base.values()) - before - oldest.bytes);
+        addDeltaBytes(history, -oldest.bytes);
+    }
+    
+    // Over budget, the guild with the most delta bytes gives up its oldest delta first
+    private void enforceBudget() {
+        while (deltaBytes.get() > deltaBudgetBytes) {
+            GuildHistory largest = null;
+            for (GuildHistory history : histories.values()) {
+                if (!history.deltas.isEmpty() && (largest == null || history.deltaBytes > largest.deltaBytes)) {
+                    largest = history;
+                }
+            }
+            if (largest == null) return;
+            synchronized (largest) {
+                if (!largest.deltas.isEmpty()) {
+                    foldOldest(largest);
+                }
+            }
+        }
+    }
+    
+    private void addBytes(GuildHistory history, long bytes) {
+        history.bytes += bytes;
+        totalBytes.addAndGet(bytes);
+    }
+    
+    private void addDeltaBytes(GuildHistory history, long bytes) {
+        history.deltaBytes += bytes;
+        deltaBytes.addAndGet(bytes);
+    }
+    
+    private static void apply(Map<String, Object> state, Delta delta) {
+        for (int i = 0; i < delta.keys.length; i++) {
+            if (delta.states[i] == null) {
+                state.remove(delta.keys[i]);
+            } else {
+                state.put(delta.keys[i], delta.states[i]);
+            }
+        }
+    }
+    
+    private static Map<String, Object> flatten(ServerSnapshot snapshot) {
+        Map<String, Object> state = new HashMap<>();
+        if (snapshot.roles != null) snapshot.roles.forEach(role -> state.put("role:" + role.id, role));
+        if (snapshot.channels != null) snapshot.channels.forEach(channel -> state.put("channel:" + channel.id, channel));
+        if (snapshot.emojis != null) snapshot.emojis.forEach(emoji -> state.put("emoji:" + emoji.id, emoji));
+        if (snapshot.stickers != null) snapshot.stickers.forEach(sticker -> state.put("sticker:" + sticker.id, sticker));
+        if (snapshot.settings != null) state.put(SETTINGS_KEY, snapshot.settings);
+        return state;
+    }
+    
+    // Copies and comparisons
+    
+    private static Object copy(Object value) {
+        if (value instanceof RoleSnapshot role) {
+            RoleSnapshot copy = new RoleSnapshot();
+            copy.id = role.id;
+            copy.name = role.name;
+            copy.color = role.color;
+            copy.permissions = role.permissions;
+            copy.hoisted = role.hoisted;
+            copy.mentionable = role.mentionable;
+            copy.position = role.position;
+            copy.deletedAt = role.deletedAt;
+            return copy;
+        } else if (value instanceof ChannelSnapshot channel) {
+            ChannelSnapshot copy = new ChannelSnapshot();
+            copy.id = channel.id;
+            copy.name = channel.name;
+            copy.type = channel.type;
+            copy.parentId = channel.parentId;
+            copy.position = channel.position;
+            copy.topic = channel.topic;
+            copy.nsfw = channel.nsfw;
+            copy.slowmode = channel.slowmode;
+            copy.bitrate = channel.bitrate;
+            copy.userLimit = channel.userLimit;
+            copy.roleOverwrites = channel.roleOverwrites != null ? channel.roleOverwrites.clone() : null;
+            copy.memberOverwrites = channel.memberOverwrites != null ? channel.memberOverwrites.clone() : null;
+            copy.deletedAt = channel.deletedAt;
+            return copy;
+        } else if (value instanceof EmojiSnapshot emoji) {
+            EmojiSnapshot copy = new EmojiSnapshot();
+            copy.id = emoji.id;
+            copy.name = emoji.name;
+            copy.animated = emoji.animated;
+            copy.roleIds = emoji.roleIds != null ? List.copyOf(emoji.roleIds) : null;
+            copy.deletedAt = emoji.deletedAt;
+            return copy;
+        } else if (value instanceof StickerSnapshot sticker) {
+            StickerSnapshot copy = new StickerSnapshot();
+            copy.id = sticker.id;
+            copy.name = sticker.name;
+            copy.description = sticker.description;
+            copy.tags = sticker.tags != null ? List.copyOf(sticker.tags) : null;
+            copy.fileName = sticker.fileName;
+            copy.deletedAt = sticker.deletedAt;
+            return copy;
+        } else if (value instanceof GuildSettingsSnapshot settings) {
+            // Settings are replaced rather than modified, so the instance is already immutable
+            return settings;
+        }
+        return value;
+    }
+    
+    private static boolean same(Object a, Object b) {
+        if (a instanceof RoleSnapshot x && b instanceof RoleSnapshot y) {
+            return Objects.equals(x.name, y.name) && Objects.equals(x.color, y.color)
+                    && x.permissions == y.permissions && x.hoisted == y.hoisted
+                    && x.mentionable == y.mentionable && x.position == y.position && x.deletedAt == y.deletedAt;
+        } else if (a instanceof ChannelSnapshot x && b instanceof ChannelSnapshot y) {
+            return Objects.equals(x.name, y.name) && Objects.equals(x.type, y.type)
+                    && Objects.equals(x.parentId, y.parentId) && x.position == y.position
+                    && Objects.equals(x.topic, y.topic) && x.nsfw == y.nsfw && x.slowmode == y.slowmode
+                    && x.bitrate == y.bitrate && x.userLimit == y.userLimit
+                    && Arrays.equals(x.roleOverwrites, y.roleOverwrites)
+                    && Arrays.equals(x.memberOverwrites, y.memberOverwrites) && x.deletedAt == y.deletedAt;
+        } else if (a instanceof EmojiSnapshot x && b instanceof EmojiSnapshot y) {
+            return Objects.equals(x.name, y.name) && Objects.equals(x.roleIds, y.roleIds) && x.deletedAt == y.deletedAt;
+        } else if (a instanceof StickerSnapshot x && b instanceof StickerSnapshot y) {
+            return Objects.equals(x.name, y.name) && Objects.equals(x.description, y.description)
+                    && Objects.equals(x.tags, y.tags) && x.deletedAt == y.deletedAt;
+        } else if (a instanceof GuildSettingsSnapshot x && b instanceof GuildSettingsSnapshot y) {
+            return Objects.equals(x.name, y.name) && Objects.equals(x.description, y.description)
+                    && Objects.equals(x.iconId, y.iconId) && Objects.equals(x.bannerId, y.bannerId)
+                    && Objects.equals(x.splashId, y.splashId) && Objects.equals(x.vanityCode, y.vanityCode)
+                    && x.verificationLevel == y.verificationLevel && x.notificationLevel == y.notificationLevel
+                    && x.explicitContentLevel == y.explicitContentLevel && x.afkTimeout == y.afkTimeout
+                    && Objects.equals(x.afkChannelId, y.afkChannelId)
+                    && Objects.equals(x.systemChannelId, y.systemChannelId)
+                    && Objects.equals(x.rulesChannelId, y.rulesChannelId);
+        }
+        return a == b;
+    }
+    
+    private static long deletedAt(Object value) {
+        if (value instanceof RoleSnapshot role) return role.deletedAt;
+        if (value instanceof ChannelSnapshot channel) return channel.deletedAt;
+        if (value instanceof EmojiSnapshot emoji) return emoji.deletedAt;
+        if (value instanceof StickerSnapshot sticker) return sticker.deletedAt;
+        return 0;
+    }
+    
+    // Rough retained size: object headers and fields plus two bytes per name character
+    private static long estimate(Object value) {
+        if (value instanceof RoleSnapshot role) {
+            return 80 + length(role.name);
+        } else if (value instanceof ChannelSnapshot channel) {
+            return 72 + length(channel.name) + length(channel.roleOverwrites) + length(channel.memberOverwrites);
+        } else if (value instanceof EmojiSnapshot emoji) {
+            return 72 + length(emoji.name) + (emoji.roleIds != null ? emoji.roleIds.size() * 48L : 0);
+        } else if (value instanceof StickerSnapshot sticker) {
+            return 96 + length(sticker.name) + length(sticker.description);
+        }
+        return 256;
+    }
+    
+    private static long estimateAll(Collection<Object> values) {
+        long bytes = 0;
+        for (Object value : values) {
+            bytes += estimate(value) + 48;
+        }
+        return bytes;
+    }
+    
+    private static long length(String value) {
+        return value != null ? 40 + value.length() * 2L : 0;
+    }
+    
+    private static long length(long[] values) {
+        return values != null ? 16 + values.length * 8L : 0;
+    }
+    
+    private static class GuildHistory {
+        Map<String, Object> base;
+        Map<String, Object> latest;
+        long baseTimestamp;
+        long baseVersion;
+        final ArrayDeque<Delta> deltas = new ArrayDeque<>();
+        long bytes;
+        long deltaBytes;
+    }
+    
+    private static class Delta {
+        final long timestamp;
+        final long version;
+        final String[] keys;
+        final Object[] states;
+        final long bytes;
+        
+        Delta(long timestamp, long version, String[] keys, Object[] states) {
+            this.timestamp = timestamp;
+            this.version = version;
+            this.keys = keys;
+            this.states = states;
+            long size = 48 + keys.length * 64L;
+            for (Object state : states) {
+                if (state != null) size += estimate(state);
+            }
+            this.bytes = size;
+        }
+    }
+}
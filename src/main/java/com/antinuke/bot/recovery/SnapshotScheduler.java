@@ -0,0 +1,174 @@
+package com.antinuke.bot.recovery;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Snapshot Scheduler - Keeps exactly one periodic verify task per guild.
+ *
+ * Snapshots are kept current by gateway deltas, so every run only diffs the snapshot
+ * against the live cache and repairs the drift it finds. A full rebuild is the
+ * safety net behind that and runs once every few runs. Startup already captured a
+ * full snapshot, so the first rebuild waits a whole rebuild cycle after it; a guild
+ * whose snapshot was only loaded from disk gets its rebuild on the first run instead.
+ * First runs are spread across the interval with random jitter so guilds are not
+ * all captured in the same second. Large guilds cost more to capture, so their
+ * period is stretched by their member count against a per-run budget. Tasks are
+ * cancelled when the bot leaves a guild, and every run records how late it started.
+ */
+public class SnapshotScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotScheduler.class);
+    
+    // Members one snapshot run may cover before the guild's period is stretched
+    private static final int MEMBERS_PER_INTERVAL = 50_000;
+    private static final int MAX_STRETCH = 10;
+    // Full rebuilds only catch what the deltas and integrity checks missed, so they run this much less often
+    private static final int VERIFY_MULTIPLIER = 10;
+    
+    private final JDA jda;
+    private final FastRecoverySystem recoverySystem;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Long, SnapshotTask> tasks;
+    
+    public SnapshotScheduler(JDA jda, FastRecoverySystem recoverySystem, int intervalSeconds, int threads) {
+        this.jda = jda;
+        this.recoverySystem = recoverySystem;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, intervalSeconds));
+        this.tasks = new ConcurrentHashMap<>();
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "SnapshotScheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        // Surface guilds whose snapshots keep falling behind
+        scheduler.scheduleAtFixedRate(this::reportLag, 5, 5, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Start periodic snapshots for a guild. Calling this again for the same guild does nothing.
+     */
+    public void schedule(Guild guild) {
+        schedule(guild, false);
+    }
+    
+    /**
+     * Start periodic snapshots for a guild, with a full rebuild as the first run if verifyFirst is set
+     */
+    public void schedule(Guild guild, boolean verifyFirst) {
+        tasks.computeIfAbsent(guild.getIdLong(), guildId -> {
+            long period = periodFor(guild);
+            long jitter = ThreadLocalRandom.current().nextLong(period);
+            SnapshotTask task = new SnapshotTask(guildId, period, System.currentTimeMillis() + jitter);
+            if (verifyFirst) task.runs = VERIFY_MULTIPLIER - 1;
+            task.future = scheduler.scheduleAtFixedRate(() -> run(task), jitter, period, TimeUnit.MILLISECONDS);
+            logger.debug("Scheduled snapshots for guild {} every {} s (first in {} ms)", guildId, period / 1000, jitter);
+            return task;
+        });
+    }
+    
+    /**
+     * Stop periodic snapshots for a guild
+     */
+    public void cancel(long guildId) {
+        SnapshotTask task = tasks.remove(guildId);
+        if (task != null && task.future != null) {
+            task.future.cancel(false);
+            logger.info("Cancelled snapshots for guild {}", guildId);
+        }
+    }
+    
+    public int getScheduledCount() {
+        return tasks.size();
+    }
+    
+    /**
+     * Scheduling state of a guild, or null if it has no task
+     */
+    public SnapshotTask getTask(long guildId) {
+        return tasks.get(guildId);
+    }
+    
+    /**
+     * Worst start delay of the most recent run across all guilds
+     */
+    public long getMaxLagMillis() {
+        long max = 0;
+        for (SnapshotTask task : tasks.values()) {
+            max = Math.max(max, task.lastLagMillis);
+        }
+        return max;
+    }
+    
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+    
+    private void run(SnapshotTask task) {
+        long start = System.currentTimeMillis();
+        task.lastLagMillis = Math.max(0, start - task.nextExpectedAt);
+        task.nextExpectedAt += task.periodMillis;
+        
+        Guild guild = jda.getGuildById(task.guildId);
+        if (guild == null) {
+            cancel(task.guildId);
+            return;
+        }
+        
+        try {
+            if (task.runs % VERIFY_MULTIPLIER == VERIFY_MULTIPLIER - 1) {
+                recoverySystem.createSnapshot(guild);
+            } else {
+                recoverySystem.checkIntegrity(guild);
+            }
+        } catch (Exception e) {
+            logger.error("Scheduled snapshot failed for guild: {}", task.guildId, e);
+        }
+        task.lastRunAt = start;
+        task.lastDurationMillis = System.currentTimeMillis() - start;
+        task.runs++;
+    }
+    
+    private long periodFor(Guild guild) {
+        int stretch = Math.min(MAX_STRETCH, 1 + guild.getMemberCount() / MEMBERS_PER_INTERVAL);
+        return intervalMillis * stretch;
+    }
+    
+    private void reportLag() {
+        for (SnapshotTask task : tasks.values()) {
+            if (task.lastLagMillis > task.periodMillis / 2) {
+                logger.warn("Snapshots of guild {} are running {} ms late (period {} ms, last run took {} ms)",
+                        task.guildId, task.lastLagMillis, task.periodMillis, task.lastDurationMillis);
+            }
+        }
+    }
+    
+    public static class SnapshotTask {
+        final long guildId;
+        final long periodMillis;
+        volatile long nextExpectedAt;
+        volatile long lastRunAt;
+        volatile long lastLagMillis;
+        volatile long lastDurationMillis;
+        volatile int runs;
+        ScheduledFuture<?> future;
+        
+        SnapshotTask(long guildId, long periodMillis, long firstRunAt) {
+            this.guildId = guildId;
+            this.periodMillis = periodMillis;
+            this.nextExpectedAt = firstRunAt;
+        }
+        
+        public long getPeriodMillis() { return periodMillis; }
+        public long getLastRunAt() { return lastRunAt; }
+        public long getLastLagMillis() { return lastLagMillis; }
+        public long getLastDurationMillis() { return lastDurationMillis; }
+        public int getRuns() { return runs; }
+    }
+}
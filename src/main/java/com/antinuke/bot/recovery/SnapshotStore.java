@@ -0,0 +1,637 @@
+package com.antinuke.bot.recovery;
+
+import com.antinuke.bot.recovery.FastRecoverySystem.*;
+import net.dv8tion.jda.api.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot Store - Durable per-guild snapshot files for warm starts.
+ *
+ * Each guild's snapshot is written to its own file in a compact binary format,
+ * framed by a magic number, format version, payload length and CRC32. Writes are
+ * coalesced: changes only mark a guild dirty, and a background writer persists
+ * the current snapshot of every dirty guild every few seconds. Files are replaced
+ * atomically, so a crash mid-write leaves the previous file intact. Snapshots
+ * evicted from the memory cache are spilled here at once and read back on next use.
+ * Member roles, by far the largest part of a big guild, live in a separate file that
+ * is only rewritten when they change. It is written and read as a stream, and a large
+ * guild's roles are decoded straight into their off-heap store.
+ * Webhook tokens are credentials and stay in memory only; the files record whether a
+ * webhook can be recreated, and its token comes back with the next webhook capture.
+ */
+public class SnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+    private static final String SNAPSHOT_DIR = "database/snapshots";
+    private static final String EXTENSION = ".snap";
+    private static final String MEMBERS_EXTENSION = ".members";
+    private static final int MAGIC = 0x414E5353;
+    private static final int MEMBERS_MAGIC = 0x414E534D;
+    private static final int MEMBERS_VERSION = 1;
+    // Version 2 added channel attributes and overwrites, version 3 webhook types, avatars and tombstones;
+    // older files still load
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_BYTES = 16;
+    private static final int MIN_FORMAT_VERSION = 1;
+    private static final long FLUSH_INTERVAL_SECONDS = 5;
+    
+    private final Function<String, ServerSnapshot> source;
+    private final Set<String> dirty;
+    private final Set<String> dirtyMemberRoles;
+    private final ScheduledExecutorService writer;
+    private final AtomicLong writes;
+    // Snapshot version last written or read per guild, so unchanged snapshots are not rewritten
+    private final Map<String, Long> storedVersions;
+    
+    /**
+     * @param source looks up the current in-memory snapshot of a guild when it is written
+     */
+    public SnapshotStore(Function<String, ServerSnapshot> source) {
+        this.source = source;
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.dirtyMemberRoles = ConcurrentHashMap.newKeySet();
+        this.writes = new AtomicLong();
+        this.storedVersions = new ConcurrentHashMap<>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SnapshotStore-Writer");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        try {
+            Files.createDirectories(Paths.get(SNAPSHOT_DIR));
+        } catch (IOException e) {
+            logger.error("Failed to create snapshot directory", e);
+        }
+        writer.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Schedule a guild's snapshot to be written with the next flush
+     */
+    public void markDirty(String guildId) {
+        dirty.add(guildId);
+    }
+    
+    /**
+     * Schedule a guild's member roles to be written with the next flush
+     */
+    public void markMemberRolesDirty(String guildId) {
+        dirtyMemberRoles.add(guildId);
+        dirty.add(guildId);
+    }
+    
+    /**
+     * Guild ids that have a snapshot file
+     */
+    public List<String> listGuildIds() {
+        List<String> guildIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(SNAPSHOT_DIR), "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                guildIds.add(name.substring(0, name.length() - EXTENSION.length()));
+            }
+        } catch (IOException e) {
+            logger.error("Failed to list snapshot files", e);
+        }
+        return guildIds;
+    }
+    
+    /**
+     * Read a guild's snapshot from disk, or null if it has none or a file is damaged
+     *
+     * @param offHeapFile gives the file to map the member roles of a guild with that many
+     *                    members into, or null to keep them on the heap
+     */
+    public ServerSnapshot load(String guildId, IntFunction<Path> offHeapFile) {
+        Path file = pathOf(guildId);
+        if (!Files.exists(file)) return null;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad magic");
+            }
+            int version = in.readInt();
+            if (version < MIN_FORMAT_VERSION || version > FORMAT_VERSION) {
+                throw new IOException("unsupported format version " + version);
+            }
+            int length = in.readInt();
+            long checksum = in.readInt() & 0xFFFFFFFFL;
+            // The checksum only covers the payload, so check the length before allocating for it
+            if (length < 0 || length > Files.size(file) - HEADER_BYTES) {
+                throw new IOException("bad payload length " + length);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != checksum) {
+                throw new IOException("checksum mismatch");
+            }
+            ServerSnapshot snapshot = decode(new DataInputStream(new ByteArrayInputStream(payload)), version);
+            snapshot.memberRoles = readMemberRoles(guildId, offHeapFile);
+            storedVersions.put(guildId, snapshot.version.get());
+            return snapshot;
+        } catch (IOException e) {
+            logger.warn("Ignoring damaged snapshot file for guild {}: {}", guildId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Write a snapshot that is leaving memory right away, unless the file already holds
+     * its current version. Pending flushes skip guilds that are no longer in memory.
+     */
+    public synchronized void spill(ServerSnapshot snapshot) {
+        dirty.remove(snapshot.guildId);
+        boolean memberRolesChanged = dirtyMemberRoles.remove(snapshot.guildId);
+        try {
+            if (memberRolesChanged || !Files.exists(memberPathOf(snapshot.guildId))) {
+                writeMemberRoles(snapshot);
+            }
+            Long stored = storedVersions.get(snapshot.guildId);
+            if (stored != null && stored == snapshot.version.get() && Files.exists(pathOf(snapshot.guildId))) return;
+            write(snapshot);
+            writes.incrementAndGet();
+        } catch (Exception e) {
+            logger.error("Failed to persist evicted snapshot for guild {}", snapshot.guildId, e);
+        }
+    }
+    
+    public long getWriteCount() {
+        return writes.get();
+    }
+    
+    public int getPendingCount() {
+        return dirty.size();
+    }
+    
+    /**
+     * Stop the background writer and persist everything still pending
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+    
+    private synchronized void flush() {
+        for (String guildId : new ArrayList<>(dirty)) {
+            dirty.remove(guildId);
+            boolean memberRolesChanged = dirtyMemberRoles.remove(guildId);
+            ServerSnapshot snapshot = source.apply(guildId);
+            if (snapshot == null) continue;
+            try {
+                if (memberRolesChanged || !Files.exists(memberPathOf(guildId))) {
+                    writeMemberRoles(snapshot);
+                }
+                write(snapshot);
+                writes.incrementAndGet();
+            } catch (Exception e) {
+                // Try again with the next flush
+                if (memberRolesChanged) dirtyMemberRoles.add(guildId);
+                dirty.add(guildId);
+                logger.error("Failed to persist snapshot for guild {}", guildId, e);
+            }
+        }
+    }
+    
+    private void write(ServerSnapshot snapshot) throws IOException {
+        long version = snapshot.version.get();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        encode(snapshot, new DataOutputStream(buffer));
+        byte[] payload = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        
+        Path file = pathOf(snapshot.guildId);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        storedVersions.put(snapshot.guildId, version);
+    }
+    
+    // Streamed in two passes over the store, so no encoded copy of the table is held
+    private void writeMemberRoles(ServerSnapshot snapshot) throws IOException {
+        MemberRoleStore memberRoles = snapshot.memberRoles;
+        long[] memberIds = memberRoles != null ? memberRoles.memberIds() : new long[0];
+        Arrays.sort(memberIds);
+        Map<Long, Integer> ordinals = new HashMap<>();
+        List<Long> dictionary = new ArrayList<>();
+        for (long memberId : memberIds) {
+            long[] roleIds = memberRoles.get(memberId);
+            if (roleIds == null) continue;
+            for (long roleId : roleIds) {
+                if (ordinals.putIfAbsent(roleId, dictionary.size()) == null) {
+                    dictionary.add(roleId);
+                }
+            }
+        }
+        
+        Path file = memberPathOf(snapshot.guildId);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+            out.writeInt(MEMBERS_MAGIC);
+            out.writeInt(MEMBERS_VERSION);
+            out.writeInt(dictionary.size());
+            for (long roleId : dictionary) {
+                out.writeLong(roleId);
+            }
+            out.writeInt(memberIds.length);
+            for (long memberId : memberIds) {
+                out.writeLong(memberId);
+            }
+            for (long memberId : memberIds) {
+                // Roles added between the two passes are missing from the dictionary and wait for the next write
+                long[] roleIds = memberRoles.get(memberId);
+                int count = 0;
+                if (roleIds != null) {
+                    for (long roleId : roleIds) {
+                        if (ordinals.containsKey(roleId)) count++;
+                    }
+                }
+                out.writeShort(count);
+                if (count == 0) continue;
+                for (long roleId : roleIds) {
+                    Integer ordinal = ordinals.get(roleId);
+                    if (ordinal != null) out.writeShort(ordinal);
+                }
+            }
+            out.writeInt((int) crc.getValue());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private MemberRoleStore readMemberRoles(String guildId, IntFunction<Path> offHeapFile) throws IOException {
+        Path file = memberPathOf(guildId);
+        if (!Files.exists(file)) {
+            throw new IOException("member roles file is missing");
+        }
+        long fileBytes = Files.size(file);
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if (in.readInt() != MEMBERS_MAGIC || in.readInt() != MEMBERS_VERSION) {
+                throw new IOException("bad member roles header");
+            }
+            int roleCount = in.readInt();
+            if (roleCount < 0 || roleCount > fileBytes / 8) {
+                throw new IOException("bad role count " + roleCount);
+            }
+            long[] dictionary = new long[roleCount];
+            for (int i = 0; i < roleCount; i++) {
+                dictionary[i] = in.readLong();
+            }
+            int memberCount = in.readInt();
+            if (memberCount < 0 || memberCount > fileBytes / 8) {
+                throw new IOException("bad member count " + memberCount);
+            }
+            long[] memberIds = new long[memberCount];
+            for (int i = 0; i < memberCount; i++) {
+                memberIds[i] = in.readLong();
+            }
+            
+            MemberRoleStore memberRoles;
+            Path target = offHeapFile.apply(memberCount);
+            if (target != null) {
+                long[] sortedRoleIds = dictionary.clone();
+                Arrays.sort(sortedRoleIds);
+                try {
+                    memberRoles = MappedMemberRoleStore.write(target, sortedRoleIds, memberIds, index -> {
+                        try {
+                            return readRecord(in, dictionary);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    Files.deleteIfExists(target);
+                    throw e.getCause();
+                }
+            } else {
+                MemberRoleIndex index = new MemberRoleIndex(memberCount);
+                for (long memberId : memberIds) {
+                    index.put(memberId, readRecord(in, dictionary));
+                }
+                memberRoles = index;
+            }
+            
+            long checksum = crc.getValue();
+            if ((in.readInt() & 0xFFFFFFFFL) != checksum) {
+                memberRoles.close();
+                throw new IOException("member roles checksum mismatch");
+            }
+            return memberRoles;
+        }
+    }
+    
+    private static long[] readRecord(DataInputStream in, long[] dictionary) throws IOException {
+        long[] roleIds = new long[in.readUnsignedShort()];
+        for (int i = 0; i < roleIds.length; i++) {
+            int ordinal = in.readUnsignedShort();
+            if (ordinal >= dictionary.length) {
+                throw new IOException("bad role ordinal " + ordinal);
+            }
+            roleIds[i] = dictionary[ordinal];
+        }
+        return roleIds;
+    }
+    
+    private Path pathOf(String guildId) {
+        return Paths.get(SNAPSHOT_DIR, guildId + EXTENSION);
+    }
+    
+    private Path memberPathOf(String guildId) {
+        return Paths.get(SNAPSHOT_DIR, guildId + MEMBERS_EXTENSION);
+    }
+    
+    // Encoding
+    
+    private static void encode(ServerSnapshot snapshot, DataOutputStream out) throws IOException {
+        out.writeUTF(snapshot.guildId);
+        writeString(out, snapshot.guildName);
+        out.writeLong(snapshot.timestamp);
+        out.writeLong(snapshot.version.get());
+        
+        List<RoleSnapshot> roles = listOf(snapshot.roles);
+        out.writeInt(roles.size());
+        for (RoleSnapshot role : roles) {
+            out.writeUTF(role.id);
+            writeString(out, role.name);
+            out.writeBoolean(role.color != null);
+            if (role.color != null) out.writeInt(role.color.getRGB());
+            out.writeLong(role.permissions);
+            out.writeBoolean(role.hoisted);
+            out.writeBoolean(role.mentionable);
+            out.writeInt(role.position);
+            out.writeLong(role.deletedAt);
+        }
+        
+        List<ChannelSnapshot> channels = listOf(snapshot.channels);
+        out.writeInt(channels.size());
+        for (ChannelSnapshot channel : channels) {
+            out.writeUTF(channel.id);
+            writeString(out, channel.name);
+            writeString(out, channel.type);
+            writeString(out, channel.parentId);
+            out.writeInt(channel.position);
+            writeString(out, channel.topic);
+            out.writeBoolean(channel.nsfw);
+            out.writeInt(channel.slowmode);
+            out.writeInt(channel.bitrate);
+            out.writeInt(channel.userLimit);
+            writeLongs(out, channel.roleOverwrites);
+            writeLongs(out, channel.memberOverwrites);
+            out.writeLong(channel.deletedAt);
+        }
+        
+        List<WebhookSnapshot> webhooks = snapshot.webhooks != null ? new ArrayList<>(snapshot.webhooks.values()) : Collections.emptyList();
+        out.writeInt(webhooks.size());
+        for (WebhookSnapshot webhook : webhooks) {
+            out.writeUTF(webhook.id);
+            writeString(out, webhook.name);
+            writeString(out, webhook.channelId);
+            writeString(out, webhook.ownerId);
+            out.writeBoolean(webhook.incoming);
+            writeString(out, webhook.avatarId);
+            out.writeLong(webhook.deletedAt);
+        }
+        
+        List<EmojiSnapshot> emojis = listOf(snapshot.emojis);
+        out.writeInt(emojis.size());
+        for (EmojiSnapshot emoji : emojis) {
+            out.writeUTF(emoji.id);
+            writeString(out, emoji.name);
+            out.writeBoolean(emoji.animated);
+            writeStrings(out, emoji.roleIds);
+            out.writeLong(emoji.deletedAt);
+        }
+        
+        List<StickerSnapshot> stickers = listOf(snapshot.stickers);
+        out.writeInt(stickers.size());
+        for (StickerSnapshot sticker : stickers) {
+            out.writeUTF(sticker.id);
+            writeString(out, sticker.name);
+            writeString(out, sticker.description);
+            writeStrings(out, sticker.tags);
+            writeString(out, sticker.fileName);
+            out.writeLong(sticker.deletedAt);
+        }
+        
+        GuildSettingsSnapshot settings = snapshot.settings;
+        out.writeBoolean(settings != null);
+        if (settings != null) {
+            writeString(out, settings.name);
+            writeString(out, settings.description);
+            writeString(out, settings.iconId);
+            writeString(out, settings.bannerId);
+            writeString(out, settings.splashId);
+            writeString(out, settings.vanityCode);
+            writeEnum(out, settings.verificationLevel);
+            writeEnum(out, settings.notificationLevel);
+            writeEnum(out, settings.explicitContentLevel);
+            writeEnum(out, settings.afkTimeout);
+            writeString(out, settings.afkChannelId);
+            writeString(out, settings.systemChannelId);
+            writeString(out, settings.rulesChannelId);
+        }
+    }
+    
+    // Decoding
+    
+    private static ServerSnapshot decode(DataInputStream in, int version) throws IOException {
+        ServerSnapshot snapshot = new ServerSnapshot();
+        snapshot.guildId = in.readUTF();
+        snapshot.guildName = readString(in);
+        snapshot.timestamp = in.readLong();
+        snapshot.version = new AtomicLong(in.readLong());
+        
+        int roleCount = in.readInt();
+        snapshot.roles = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < roleCount; i++) {
+            RoleSnapshot role = new RoleSnapshot();
+            role.id = in.readUTF();
+            role.name = readString(in);
+            if (in.readBoolean()) role.color = new Color(in.readInt(), true);
+            role.permissions = in.readLong();
+            role.hoisted = in.readBoolean();
+            role.mentionable = in.readBoolean();
+            role.position = in.readInt();
+            role.deletedAt = in.readLong();
+            snapshot.roles.add(role);
+        }
+        
+        int channelCount = in.readInt();
+        snapshot.channels = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < channelCount; i++) {
+            ChannelSnapshot channel = new ChannelSnapshot();
+            channel.id = in.readUTF();
+            channel.name = readString(in);
+            channel.type = readString(in);
+            channel.parentId = readString(in);
+            channel.position = in.readInt();
+            if (version >= 2) {
+                channel.topic = readString(in);
+                channel.nsfw = in.readBoolean();
+                channel.slowmode = in.readInt();
+                channel.bitrate = in.readInt();
+                channel.userLimit = in.readInt();
+                channel.roleOverwrites = readLongs(in);
+                channel.memberOverwrites = readLongs(in);
+            }
+            channel.deletedAt = in.readLong();
+            snapshot.channels.add(channel);
+        }
+        
+        int webhookCount = in.readInt();
+        snapshot.webhooks = new ConcurrentHashMap<>();
+        for (int i = 0; i < webhookCount; i++) {
+            WebhookSnapshot webhook = new WebhookSnapshot();
+            webhook.id = in.readUTF();
+            webhook.name = readString(in);
+            webhook.channelId = readString(in);
+            webhook.ownerId = readString(in);
+            if (version >= 3) {
+                webhook.incoming = in.readBoolean();
+                webhook.avatarId = readString(in);
+                webhook.deletedAt = in.readLong();
+            } else {
+                // Older files did not record the type; the next webhook capture corrects it
+                webhook.incoming = true;
+            }
+            snapshot.webhooks.put(webhook.id, webhook);
+        }
+        
+        int emojiCount = in.readInt();
+        snapshot.emojis = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < emojiCount; i++) {
+            EmojiSnapshot emoji = new EmojiSnapshot();
+            emoji.id = in.readUTF();
+            emoji.name = readString(in);
+            emoji.animated = in.readBoolean();
+            emoji.roleIds = readStrings(in);
+            emoji.deletedAt = in.readLong();
+            snapshot.emojis.add(emoji);
+        }
+        
+        int stickerCount = in.readInt();
+        snapshot.stickers = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < stickerCount; i++) {
+            StickerSnapshot sticker = new StickerSnapshot();
+            sticker.id = in.readUTF();
+            sticker.name = readString(in);
+            sticker.description = readString(in);
+            sticker.tags = readStrings(in);
+            sticker.fileName = readString(in);
+            sticker.deletedAt = in.readLong();
+            snapshot.stickers.add(sticker);
+        }
+        
+        if (in.readBoolean()) {
+            GuildSettingsSnapshot settings = new GuildSettingsSnapshot();
+            settings.name = readString(in);
+            settings.description = readString(in);
+            settings.iconId = readString(in);
+            settings.bannerId = readString(in);
+            settings.splashId = readString(in);
+            settings.vanityCode = readString(in);
+            settings.verificationLevel = readEnum(in, Guild.VerificationLevel.class);
+            settings.notificationLevel = readEnum(in, Guild.NotificationLevel.class);
+            settings.explicitContentLevel = readEnum(in, Guild.ExplicitContentLevel.class);
+            settings.afkTimeout = readEnum(in, Guild.Timeout.class);
+            settings.afkChannelId = readString(in);
+            settings.systemChannelId = readString(in);
+            settings.rulesChannelId = readString(in);
+            snapshot.settings = settings;
+        }
+        return snapshot;
+    }
+    
+    // Field helpers
+    
+    private static <T> List<T> listOf(List<T> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        List<String> list = listOf(values);
+        out.writeInt(list.size());
+        for (String value : list) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+    
+    // Null arrays are written as empty ones
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        int length = values != null ? values.length : 0;
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+    
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+    
+    private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+        writeString(out, value != null ? value.name() : null);
+    }
+    
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> type) throws IOException {
+        String name = readString(in);
+        if (name == null) return null;
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -52,11 +52,11 @@ public class InteractiveUI {
                         String.format(
                                 "Enabled: %s\n" +
                                 "Concurrent Ops: %d\n" +
-                                "Cache Size: %d\n" +
+                                "Cache Memory: %d MB\n" +
                                 "Snapshot Interval: %ds",
                                 getStatus(config.getAntiNuke().getFastRecovery().isEnabled()),
                                 config.getAntiNuke().getFastRecovery().getConcurrentOperations(),
-                                config.getAntiNuke().getFastRecovery().getCacheSize(),
+                                config.getAntiNuke().getFastRecovery().getCacheMemoryMb(),
                                 config.getAntiNuke().getFastRecovery().getSnapshotInterval()
                         ), true)
                 .addField("⚙️ Settings", 
@@ -195,9 +195,30 @@ public class InteractiveUI {
                                 .withEmoji(Emoji.fromUnicode("🤖")),
                         SelectOption.of("Anti-Raid", "antiRaid")
                                 .withDescription("Protect against member raids")
-                                .withEmoji(Emoji.fromUnicode("🚨"))
+                                .withEmoji(Emoji.fromUnicode("🚨")),
+                        SelectOption.of("Anti-Spam", "antiSpam")
+                                .withDescription("Time out message spammers")
+                                .withEmoji(Emoji.fromUnicode("💥")),
+                        SelectOption.of("Anti-Emoji", "antiEmoji")
+                                .withDescription("Restore mass-deleted emojis")
+                                .withEmoji(Emoji.fromUnicode("😀")),
+                        SelectOption.of("Anti-Sticker", "antiSticker")
+                                .withDescription("Restore mass-deleted stickers")
+                                .withEmoji(Emoji.fromUnicode("🏷️")),
+                        SelectOption.of("Anti-Server Update", "antiServerUpdate")
+                                .withDescription("Revert unauthorized settings changes")
+                                .withEmoji(Emoji.fromUnicode("⚙️")),
+                        SelectOption.of("Anti-Prune", "antiPrune")
+                                .withDescription("Punish mass member prunes")
+                                .withEmoji(Emoji.fromUnicode("✂️")),
+                        SelectOption.of("Anti-Role Removal", "antiRoleRemoval")
+                                .withDescription("Restore roles stripped from many members")
+                                .withEmoji(Emoji.fromUnicode("📉")),
+                        SelectOption.of("Anti-Permission Escalation", "antiPermissionEscalation")
+                                .withDescription("Revert dangerous permission grants")
+                                .withEmoji(Emoji.fromUnicode("🛑"))
                 )
-                .setMaxValues(9)
+                .setMaxValues(16)
                 .build();
     }
     
@@ -213,12 +234,12 @@ public class InteractiveUI {
                         String.format(
                                 "**Status:** %s\n" +
                                 "**Concurrent Operations:** %d threads\n" +
-                                "**Cache Size:** %d items\n" +
+                                "**Cache Memory:** %d MB\n" +
                                 "**Snapshot Interval:** %d seconds\n" +
                                 "**Backup Interval:** %d seconds",
                                 config.getAntiNuke().getFastRecovery().isEnabled() ? "✅ Enabled" : "❌ Disabled",
                                 config.getAntiNuke().getFastRecovery().getConcurrentOperations(),
-                                config.getAntiNuke().getFastRecovery().getCacheSize(),
+                                config.getAntiNuke().getFastRecovery().getCacheMemoryMb(),
                                 config.getAntiNuke().getFastRecovery().getSnapshotInterval(),
                                 config.getAntiNuke().getBackupInterval()
                         ), false)
@@ -0,0 +1,149 @@
+package com.antinuke.bot.utils;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Long Object Map - Open-addressing hash map keyed by primitive longs.
+ *
+ * Lookups never box the key, which keeps per-message hot paths allocation-free.
+ * Key 0 marks an empty slot; Discord snowflakes are never 0. Not thread-safe.
+ */
+public class LongObjectMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    
+    public LongObjectMap() {
+        this(16);
+    }
+    
+    public LongObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = slot(key);
+        while (true) {
+            long current = keys[index];
+            if (current == key) return (V) values[index];
+            if (current == 0) return null;
+            index = (index + 1) & mask;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == 0) throw new IllegalArgumentException("Key 0 is reserved");
+        int index = slot(key);
+        while (true) {
+            long current = keys[index];
+            if (current == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+                return previous;
+            }
+            if (current == 0) {
+                keys[index] = key;
+                values[index] = value;
+                if (++size * 2 > keys.length) {
+                    resize(keys.length << 1);
+                }
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = slot(key);
+        while (true) {
+            long current = keys[index];
+            if (current == 0) return null;
+            if (current == key) {
+                V previous = (V) values[index];
+                shiftBack(index);
+                size--;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+    
+    /**
+     * Remove every entry whose value matches the filter
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<V> filter) {
+        long[] doomed = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && filter.test((V) values[i])) {
+                doomed[count++] = keys[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(doomed[i]);
+        }
+        return count;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int index) {
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+    }
+    
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = slot(oldKeys[i]);
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+    
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,92 @@
+package com.antinuke.bot.recovery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Replays small plans whose schedule is worked out by hand in each test.
+ */
+class RecoveryEstimateTest {
+    
+    private static final RecoveryEstimate.Limits LIMITS = new RecoveryEstimate.Limits()
+            .bucket("roles", 2, 1_000)
+            .bucket("channels", 10, 10_000)
+            .latency(100);
+    
+    /**
+     * Three roles, then a channel behind a barrier on all of them.
+     * t=0 two roles go out and fill the roles window; they return at 100.
+     * t=1000 the window opens and the third role goes out, returning at 1100.
+     * t=1100 the barrier releases the channel, which returns at 1200.
+     */
+    @Test
+    void bucketWindowDelaysTheThirdRole() {
+        RecoveryPlan plan = rolesThenChannel();
+        
+        RecoveryEstimate estimate = plan.estimate(LIMITS);
+        
+        assertEquals(5, estimate.getStepCount());
+        assertEquals(4, estimate.getRequestCount());
+        assertEquals(2, estimate.getDepth());
+        assertEquals(1_200, estimate.getEstimatedMillis());
+        assertEquals(Map.of("roles", 3, "channels", 1), estimate.getRequestsByBucket());
+    }
+    
+    /**
+     * Critical requests go out together ahead of the plan: one bucket listed first,
+     * one more round trip and one more level of depth.
+     */
+    @Test
+    void criticalRequestsAddOneRoundTrip() {
+        RecoveryEstimate estimate = rolesThenChannel().estimate(LIMITS).withCritical(2, LIMITS);
+        
+        assertEquals(7, estimate.getStepCount());
+        assertEquals(6, estimate.getRequestCount());
+        assertEquals(3, estimate.getDepth());
+        assertEquals(1_300, estimate.getEstimatedMillis());
+        assertEquals(List.of("critical", "roles", "channels"), List.copyOf(estimate.getRequestsByBucket().keySet()));
+        assertEquals(2, estimate.getRequestCount("critical"));
+    }
+    
+    /**
+     * The bucket allows ten requests per window, but only two may be in flight:
+     * two go out at 0, the third at 100, and it returns at 200.
+     */
+    @Test
+    void inFlightCapLimitsAnOpenBucket() {
+        RecoveryPlan plan = new RecoveryPlan("test", 2, null);
+        for (int i = 0; i < 3; i++) {
+            plan.add("channel:" + i, RequestPipeline.Lane.CHANNELS, "channels", p -> null);
+        }
+        
+        RecoveryEstimate estimate = plan.estimate(LIMITS);
+        
+        assertEquals(3, estimate.getRequestCount());
+        assertEquals(1, estimate.getDepth());
+        assertEquals(200, estimate.getEstimatedMillis());
+    }
+    
+    @Test
+    void cycleIsRejected() {
+        RecoveryPlan plan = new RecoveryPlan("test", 2, null)
+                .add("a", RequestPipeline.Lane.ROLES, "roles", p -> null, "b")
+                .add("b", RequestPipeline.Lane.ROLES, "roles", p -> null, "a");
+        
+        assertThrows(IllegalStateException.class, () -> plan.estimate(LIMITS));
+    }
+    
+    private static RecoveryPlan rolesThenChannel() {
+        RecoveryPlan plan = new RecoveryPlan("test", 2, null);
+        for (int i = 0; i < 3; i++) {
+            plan.add("role:" + i, RequestPipeline.Lane.ROLES, "roles", p -> null);
+        }
+        plan.barrier("roles-ready", List.of("role:0", "role:1", "role:2"));
+        plan.add("channel:0", RequestPipeline.Lane.CHANNELS, "channels", p -> null, "roles-ready");
+        return plan;
+    }
+}